@@ -0,0 +1,110 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import com.mathhead200.tuil.lexer.NumberToken;
+import com.mathhead200.tuil.lexer.Token;
+import com.mathhead200.tuil.lexer.TuilBufferLexer;
+import com.mathhead200.tuil.parser.Argument;
+import com.mathhead200.tuil.parser.CalcInstruction;
+import com.mathhead200.tuil.parser.ConstantFolder;
+import com.mathhead200.tuil.parser.Instruction;
+import com.mathhead200.tuil.parser.TuilParser;
+import com.mathhead200.tuil.runtime.Display;
+import com.mathhead200.tuil.runtime.Frame;
+import com.mathhead200.tuil.runtime.Program;
+
+
+// Checks that a folded constant's lexeme is TUIL source for the same value, even with large (prime) denominators,
+// and that x+0, x*1, etc. are simplified only where x is numeric.
+public class TuilConstantFolderTest
+{
+	private static final String[] literals = {
+		"0", "1", "2", "7", "2.5", ".125", "3i", "1i", "99999989", "1000000007", "2147483647", "99999999999999999989"
+	};
+	private static final String[] operators = { "+", "-", "*", "/" };
+	private static final String[] identities = { "(%s + 0)", "(0 + %s)", "(%s - 0)", "(%s * 1)", "(1 * %s)", "(%s / 1)" };
+	
+	private static String generate(Random random, int depth) {
+		if( depth == 0 || random.nextInt(4) == 0 )
+			return literals[random.nextInt(literals.length)];
+		return "(" + generate(random, depth - 1) + " " + operators[random.nextInt(operators.length)] + " " + generate(random, depth - 1) + ")";
+	}
+	
+	private static List<Instruction> parse(String source) {
+		List<Instruction> instructions = new ArrayList<>();
+		for( Instruction instr : new TuilParser(new TuilBufferLexer(source)) )
+			instructions.add(instr);
+		return instructions;
+	}
+	
+	// the value of r after running the program, or the error it fails with
+	// (compared, not printed: the value's toString would expand it as a repeating decimal)
+	private static Object run(List<Instruction> instructions) {
+		try {
+			Program program = Program.compile(instructions);
+			Frame frame = program.newFrame(Display.NONE);
+			program.run(frame);
+			return frame.lookup("r");
+		} catch(RuntimeException e) {
+			return e.getClass().getSimpleName() + ": " + e.getMessage();
+		}
+	}
+	
+	private static void check(String expr, String expected) {
+		List<Instruction> instructions = parse("Calc r " + expr + ";");
+		Argument folded = ((CalcInstruction) new ConstantFolder().fold(instructions).get(0)).value;
+		if( !(folded instanceof NumberToken) )
+			return; // e.g. dividing by zero, which is left to fail at run time
+		String lexeme = ((NumberToken) folded).getLexeme();
+		Object before = run(instructions);
+		Object after = run( parse("Calc r " + lexeme + ";") );
+		if( !before.equals(after) || (expected != null && !lexeme.equals(expected)) ) {
+			System.out.printf( "FAILED: %s folded to %s%s%n", expr, lexeme, expected != null ? ", expected " + expected : "" );
+			System.exit(1);
+		}
+	}
+	
+	// folds the program whole, then checks the value r is last assigned is (or isn't) simplified to x, and the program runs the same
+	private static void checkSimplified(String source, boolean simplified) {
+		List<Instruction> instructions = parse(source);
+		List<Instruction> folded = new ConstantFolder().fold(instructions);
+		Argument value = ((CalcInstruction) folded.get(folded.size() - 1)).value;
+		boolean isX = value instanceof Token && ((Token) value).getLexeme().equals("x");
+		Object before = run(instructions);
+		Object after = run(folded);
+		if( isX != simplified || !before.equals(after) ) {
+			System.out.printf( "FAILED: %s folded r to %s (%s, then %s)%n", source, value instanceof Token ? ((Token) value).getLexeme() : value, before, after );
+			System.exit(1);
+		}
+	}
+	
+	public static void main(String[] args) {
+		long seed = args.length > 0 ? Long.parseLong(args[0]) : System.nanoTime();
+		int trials = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+		Random random = new Random(seed);
+		
+		// a decimal expansion of these would repeat only after 99999988 digits
+		check( "(1 / 99999989)", "(1 / 99999989)" );
+		check( "(0 - (1 / 99999989))", "(0 - (1 / 99999989))" );
+		check( "((3i / 99999989) + (1 / 3))", "((1 / 3) + (3i / 99999989))" );
+		check( "(2.5 * 4)", "10" );
+		
+		for( int trial = 0; trial < trials; trial++ ) {
+			check( generate(random, 4), null );
+			
+			// x is numeric only if every value the program gives it is
+			String small = literals[random.nextInt(7)]; // which fails, if at all, without writing out a long repeating decimal
+			String identity = String.format( identities[random.nextInt(identities.length)], "x" );
+			String y = random.nextBoolean() ? "Calc y " + small + "; " : "Calc y \"str\"; ";
+			checkSimplified( "AllocNumber x " + small + "; Calc r " + identity + ";", true );
+			checkSimplified( "Calc x " + small + "; If (x > 1) Calc x (x * x); Calc r " + identity + ";", true );
+			checkSimplified( "Calc x (2 < 3); While (x < 5) { Calc x (x + 1); } Calc r " + identity + ";", true );
+			checkSimplified( y + "Calc x (y + 1); Calc r " + identity + ";", !y.contains("str") );
+			checkSimplified( "Calc x \"str\"; Calc r " + identity + ";", false );
+			checkSimplified( "Calc x 1; Calc x ($sqrt x); Calc r " + identity + ";", false );
+			checkSimplified( "Calc r " + identity + ";", false ); // x is never assigned, so (x + 0) and x fail alike, but x*0 wouldn't
+		}
+		System.out.printf( "passed %d trials (seed %d)%n", trials, seed );
+	}
+}
@@ -0,0 +1,163 @@
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+
+import com.mathhead200.tuil.lexer.LexerException;
+import com.mathhead200.tuil.lexer.Token;
+import com.mathhead200.tuil.lexer.TokenStream;
+import com.mathhead200.tuil.lexer.TuilBufferLexer;
+import com.mathhead200.tuil.parser.AllocNumberInstruction;
+import com.mathhead200.tuil.parser.Argument;
+import com.mathhead200.tuil.parser.CalcInstruction;
+import com.mathhead200.tuil.parser.DispInstruction;
+import com.mathhead200.tuil.parser.ElseInstruction;
+import com.mathhead200.tuil.parser.IfInstruction;
+import com.mathhead200.tuil.parser.IncrementalParser;
+import com.mathhead200.tuil.parser.Instruction;
+import com.mathhead200.tuil.parser.InstructionBlock;
+import com.mathhead200.tuil.parser.ParseException;
+import com.mathhead200.tuil.parser.TuilParser;
+import com.mathhead200.tuil.parser.WhileInstruction;
+
+
+// Checks an IncrementalParser against a full re-lex and re-parse after each of many random edits.
+public class TuilIncrementalParserTest
+{
+	private static final String[] statements = {
+		"Calc x (x + 1);", "AllocNumber a[i] 2.5;", "Disp \"a;b { } \\\"\";", "Calc y ($sqrt (x * 2));",
+		"# comment { ; \"\n", "Else Calc x 0;", "If (x != 3i) Calc x (x - 1);", "Disp \"text\" 0 1;"
+	};
+	private static final String[] fragments = {
+		"{", "}", ";", "\"", "#", "\n", " ", "(", ")", "x", "1", "<=", "If (x < 2) ", "While (i <= 10) ", "Else "
+	};
+	
+	private static void block(Random random, StringBuilder source, int depth) {
+		int n = 1 + random.nextInt(depth == 0 ? 12 : 5);
+		for( int i = 0; i < n; i++ ) {
+			int choice = random.nextInt(10);
+			if( depth < 4 && choice < 2 ) {
+				source.append( choice == 0 ? "While (i < 10) {\n" : "If (x >= 2) {\n" );
+				block(random, source, depth + 1);
+				source.append("}\n");
+			} else if( depth < 4 && choice == 2 ) {
+				source.append("{ ");
+				block(random, source, depth + 1);
+				source.append("} ");
+			} else
+				source.append( statements[random.nextInt(statements.length)] ).append(random.nextBoolean() ? "\n" : " ");
+		}
+	}
+	
+	private static String describe(Argument arg) {
+		if( arg == null )
+			return "-";
+		return arg instanceof Token ? ((Token) arg).getLexeme() : arg.toString();
+	}
+	
+	private static void describe(Instruction instr, StringBuilder str) {
+		if( instr == null )
+			str.append("; ");
+		else if( instr instanceof InstructionBlock ) {
+			str.append("{ ");
+			for( Instruction x : (InstructionBlock) instr )
+				describe(x, str);
+			str.append("} ");
+		} else if( instr instanceof IfInstruction ) {
+			str.append("If ").append( describe(((IfInstruction) instr).predicate) ).append(' ');
+			describe( ((IfInstruction) instr).instruction, str );
+		} else if( instr instanceof ElseInstruction ) {
+			str.append("Else ");
+			describe( ((ElseInstruction) instr).instruction, str );
+		} else if( instr instanceof WhileInstruction ) {
+			str.append("While ").append( describe(((WhileInstruction) instr).predicate) ).append(' ');
+			describe( ((WhileInstruction) instr).instruction, str );
+		} else if( instr instanceof CalcInstruction ) {
+			CalcInstruction calc = (CalcInstruction) instr;
+			str.append("Calc ").append( calc.variable.getLexeme() ).append(' ').append( describe(calc.index) )
+				.append(' ').append( describe(calc.value) ).append("; ");
+		} else if( instr instanceof AllocNumberInstruction ) {
+			AllocNumberInstruction alloc = (AllocNumberInstruction) instr;
+			str.append("AllocNumber ").append( alloc.variable.getLexeme() ).append(' ').append( describe(alloc.index) )
+				.append(' ').append( describe(alloc.value) ).append("; ");
+		} else if( instr instanceof DispInstruction ) {
+			DispInstruction disp = (DispInstruction) instr;
+			str.append("Disp ").append( describe(disp.buffer) ).append(' ').append( describe(disp.text) ).append(' ')
+				.append( describe(disp.row) ).append(' ').append( describe(disp.column) ).append("; ");
+		} else
+			str.append( instr.getClass().getSimpleName() ).append("; ");
+	}
+	
+	private static String describe(List<Instruction> instructions) {
+		StringBuilder str = new StringBuilder();
+		for( Instruction instr : instructions )
+			describe(instr, str);
+		return str.toString();
+	}
+	
+	private static String describe(TokenStream stream) {
+		StringBuilder str = new StringBuilder();
+		for( int i = 0; i < stream.size(); i++ )
+			str.append(stream.kind(i)).append(',').append(stream.start(i)).append(',')
+				.append(stream.length(i)).append(',').append(stream.line(i)).append('\n');
+		return str.toString();
+	}
+	
+	// the tokens and instructions of a full re-lex and re-parse, or "error"
+	private static String expected(String source) throws IOException {
+		try( TuilParser parser = new TuilParser(new TuilBufferLexer(source)) ) {
+			StringBuilder str = new StringBuilder();
+			for( Instruction instr : parser )
+				describe(instr, str);
+			return describe( TokenStream.lex(source) ) + str;
+		} catch(LexerException | ParseException e) {
+			return "error";
+		}
+	}
+	
+	private static String actual(IncrementalParser parser) {
+		if( parser.getError() != null )
+			return "error";
+		return describe( parser.getTokens() ) + describe( parser.getInstructions() );
+	}
+	
+	public static void main(String[] args) throws IOException {
+		long seed = args.length > 0 ? Long.parseLong(args[0]) : System.nanoTime();
+		int sources = args.length > 1 ? Integer.parseInt(args[1]) : 60;
+		int edits = args.length > 2 ? Integer.parseInt(args[2]) : 200;
+		Random random = new Random(seed);
+		
+		for( int trial = 0; trial < sources; trial++ ) {
+			StringBuilder text = new StringBuilder();
+			block(random, text, 0);
+			String source = text.toString();
+			IncrementalParser parser = new IncrementalParser(source);
+			for( int e = 0; e < edits; e++ ) {
+				// mostly whole statements inserted or removed, and sometimes any fragment (which may break the source)
+				int offset = random.nextInt( source.length() + 1 );
+				int removed = 0;
+				String inserted = "";
+				int choice = random.nextInt(10);
+				if( choice < 4 )
+					inserted = statements[random.nextInt(statements.length)] + " ";
+				else if( choice < 6 )
+					removed = Math.min( source.length() - offset, random.nextInt(16) );
+				else {
+					removed = Math.min( source.length() - offset, random.nextInt(3) );
+					inserted = fragments[random.nextInt(fragments.length)];
+				}
+				String newSource = source.substring(0, offset) + inserted + source.substring(offset + removed);
+				if( random.nextBoolean() )
+					parser.edit(offset, removed, inserted);
+				else
+					parser.edit(newSource, offset, removed, inserted.length());
+				source = newSource;
+				
+				if( !parser.getSource().toString().equals(source) || !expected(source).equals(actual(parser)) ) {
+					System.out.printf( "FAILED (seed %d, source %d, edit %d: %d-%d+\"%s\")%n", seed, trial, e, offset, removed, inserted );
+					System.exit(1);
+				}
+			}
+		}
+		System.out.printf( "passed %d edits (seed %d)%n", sources * edits, seed );
+	}
+}
@@ -0,0 +1,130 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import com.mathhead200.tuil.Metrics;
+import com.mathhead200.tuil.lexer.TuilBufferLexer;
+import com.mathhead200.tuil.parser.Instruction;
+import com.mathhead200.tuil.parser.TuilParser;
+import com.mathhead200.tuil.runtime.Display;
+import com.mathhead200.tuil.runtime.Frame;
+import com.mathhead200.tuil.runtime.Program;
+
+
+// Checks that an indexed variable's elements, at dense, scattered, negative, and fractional indices, are those a HashMap would hold.
+public class TuilIndexedArrayTest
+{
+	// the ways of writing each index: past the first dense storage, in the sparse map until it grows over them,
+	// too far for it ever to, below 0, and not integers at all
+	private static final String[][] scattered = {
+		{ "17", "(34 / 2)" }, { "40" }, { "100", "(99 + 1)" }, { "300" }, { "1000" }, { "40000" }, { "1048576" }, { "20000000" },
+		{ "9223372036854775807" }, { "(0 - 1)", "(1 - 2)" }, { "(0 - 3)" }, { "(0 - 9223372036854775807)" },
+		{ "(1 / 2)", ".5", "(2 / 4)" }, { "2.5", "(5 / 2)" }, { "(0 - (1 / 3))" }, { "99999999999999999989" }, { "3i", "(1i * 3)" }
+	};
+	private static final String[] values = { "7", "0", "(0 - 2)", "99999999999999999989", "(1 / 3)", "2i", "\"s\"", "\"t\"" };
+	
+	private static List<Instruction> parse(String source) {
+		List<Instruction> instructions = new ArrayList<>();
+		for( Instruction instr : new TuilParser(new TuilBufferLexer(source)) )
+			instructions.add(instr);
+		return instructions;
+	}
+	
+	private static Frame run(String source, Display display) {
+		Program program = Program.compile( parse(source) );
+		Frame frame = program.newFrame(display);
+		program.run(frame);
+		return frame;
+	}
+	
+	private static void check(boolean ok, long seed, int trial, String what) {
+		if( !ok ) {
+			System.out.printf( "FAILED (seed %d, trial %d): %s%n", seed, trial, what );
+			System.exit(1);
+		}
+	}
+	
+	public static void main(String[] args) {
+		long seed = args.length > 0 ? Long.parseLong(args[0]) : System.nanoTime();
+		int trials = args.length > 1 ? Integer.parseInt(args[1]) : 300;
+		Random random = new Random(seed);
+		
+		// the values, as the interpreter holds them
+		StringBuilder assignments = new StringBuilder();
+		for( int v = 0; v < values.length; v++ )
+			assignments.append("Calc v").append(v).append(' ').append(values[v]).append(';');
+		Frame constants = run( assignments.toString(), Display.NONE );
+		Object[] held = new Object[values.length];
+		for( int v = 0; v < values.length; v++ )
+			held[v] = constants.lookup("v" + v);
+		
+		for( int trial = 0; trial < trials; trial++ ) {
+			// indices 0, 1, 2, ... in order (so the dense storage grows, over any sparse elements), and scattered ones,
+			// each key (an index's position in indices) written or read in any of its ways
+			List<String[]> indices = new ArrayList<>();
+			Map<String, Integer> keys = new HashMap<>(); // by the first way of writing it
+			for( String[] ways : scattered ) {
+				keys.put( ways[0], indices.size() );
+				indices.add(ways);
+			}
+			for( int j = random.nextInt(100); j > 0; j-- ) { // enough for the sparse map to rehash, more than once
+				long far = 100000 + random.nextInt(1 << 30);
+				indices.add( new String[] { Long.toString(far), "(" + far + " + 0)" } );
+			}
+			Map<Integer, Object> expected = new HashMap<>();
+			Map<Integer, Object> reads = new HashMap<>();
+			StringBuilder source = new StringBuilder();
+			int next = 0, count = random.nextInt(2000);
+			for( int n = 0; n < count; n++ ) {
+				int key;
+				if( random.nextInt(3) == 0 ) {
+					String name = Long.toString(next);
+					if( !keys.containsKey(name) ) {
+						keys.put( name, indices.size() );
+						indices.add( new String[] { name, "(" + next + " + 0)" } );
+					}
+					key = keys.get(name);
+					next += 1 + random.nextInt(2);
+				} else
+					key = random.nextInt( indices.size() );
+				String[] ways = indices.get(key);
+				String index = ways[random.nextInt(ways.length)];
+				if( expected.containsKey(key) && random.nextInt(4) == 0 ) {
+					source.append("Calc r").append(n).append(" a[").append(index).append("];\n");
+					reads.put( n, expected.get(key) );
+				} else {
+					int v = random.nextInt(values.length);
+					source.append("Calc a[").append(index).append("] ").append(values[v]).append(";\n");
+					expected.put( key, held[v] );
+				}
+			}
+			// each way of writing each index, to look the element up by
+			for( int key = 0; key < indices.size(); key++ )
+				for( int w = 0; w < indices.get(key).length; w++ )
+					source.append("Calc i").append(key).append('_').append(w).append(' ').append(indices.get(key)[w]).append(";\n");
+			
+			Frame frame = run( source.toString(), Display.NONE );
+			for( Map.Entry<Integer, Object> read : reads.entrySet() )
+				check( read.getValue().equals(frame.lookup("r" + read.getKey())), seed, trial, "read r" + read.getKey() + " = " + frame.lookup("r" + read.getKey()) );
+			for( int key = 0; key < indices.size(); key++ )
+				for( int w = 0; w < indices.get(key).length; w++ ) {
+					Object element = frame.lookup( "a", frame.lookup("i" + key + "_" + w) );
+					Object value = expected.get(key);
+					check( value == null ? element == null : value.equals(element), seed, trial, "a[" + indices.get(key)[w] + "] = " + element + ", not " + value );
+				}
+			
+			// an element which held a string, a screen buffer, then a number, no longer holds the buffer when released (b still does)
+			String[] ways = indices.get( random.nextInt(indices.size()) );
+			String index = ways[random.nextInt(ways.length)];
+			int live = Metrics.getCounters().getScreenBuffers();
+			int[] shown = new int[1];
+			run( "Calc a[" + index + "] \"s\"; AllocScreenBuffer b 2 3; Calc a[" + index + "] b; Calc a[" + index + "] 1; Dealloc a; Show b;",
+				buffer -> shown[0] = Metrics.getCounters().getScreenBuffers() );
+			check( shown[0] == live + 1, seed, trial, "a[" + index + "] released the screen buffer it no longer held" );
+		}
+		System.out.printf( "passed %d trials (seed %d)%n", trials, seed );
+	}
+}
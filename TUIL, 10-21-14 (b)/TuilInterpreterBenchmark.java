@@ -0,0 +1,81 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.mathhead200.tuil.lexer.TuilBufferLexer;
+import com.mathhead200.tuil.parser.Instruction;
+import com.mathhead200.tuil.parser.TuilParser;
+import com.mathhead200.tuil.runtime.Bytecode;
+import com.mathhead200.tuil.runtime.Display;
+import com.mathhead200.tuil.runtime.Frame;
+import com.mathhead200.tuil.runtime.LoopCompiler;
+import com.mathhead200.tuil.runtime.Program;
+
+
+public class TuilInterpreterBenchmark
+{
+	private interface Engine {
+		void run();
+	}
+	
+	// counts each executed instruction, and each evaluation of a While's predicate, as one instruction
+	private static String generate(int loops) {
+		return "AllocNumber total 0;\n"
+			+ "AllocNumber i 0;\n"
+			+ "While (i < " + loops + ") {\n" // 1 + 404 per loop, plus 1 to exit
+			+ "\tAllocNumber j 0;\n"
+			+ "\tWhile (j < 100) {\n" // 1 + 4 per iteration, plus 1 to exit
+			+ "\t\tIf (j < 50) Calc total (total + (j * 3));\n"
+			+ "\t\tElse Calc total (total - (j / 2));\n"
+			+ "\t\tCalc j (j + 1);\n"
+			+ "\t}\n"
+			+ "\tCalc i (i + 1);\n"
+			+ "}\n";
+	}
+	
+	private static long instructions(int loops) {
+		return 2 + 404L * loops + 1;
+	}
+	
+	private static void run(String name, Engine engine, long instructions, int rounds) {
+		for( int i = 0; i < rounds; i++ ) // warm up
+			engine.run();
+		long start = System.nanoTime();
+		for( int i = 0; i < rounds; i++ )
+			engine.run();
+		double seconds = (System.nanoTime() - start) / 1e9;
+		System.out.printf( "%-8s %12.0f instructions/s%n", name, instructions * rounds / seconds );
+	}
+	
+	public static void main(String[] args) throws IOException {
+		int loops = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+		int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+		List<Instruction> instructions = new ArrayList<>();
+		try( TuilParser parser = new TuilParser(new TuilBufferLexer( generate(loops) )) ) {
+			for( Instruction instr : parser )
+				instructions.add(instr);
+		}
+		System.out.printf( "%d loops, %d instructions%n", loops, instructions(loops) );
+		
+		int threshold = LoopCompiler.getThreshold();
+		LoopCompiler.setThreshold(-1);
+		Program program = Program.compile(instructions);
+		run( "tree", () -> {
+			Frame frame = program.newFrame(Display.NONE);
+			program.run(frame);
+		}, instructions(loops), rounds );
+		
+		LoopCompiler.setThreshold(threshold);
+		Program jitProgram = Program.compile(instructions);
+		run( "tree+jit", () -> {
+			Frame frame = jitProgram.newFrame(Display.NONE);
+			jitProgram.run(frame);
+		}, instructions(loops), rounds );
+		
+		Bytecode bytecode = Bytecode.compile(instructions);
+		run( "bytecode", () -> {
+			Frame frame = bytecode.newFrame(Display.NONE);
+			bytecode.run(frame);
+		}, instructions(loops), rounds );
+	}
+}
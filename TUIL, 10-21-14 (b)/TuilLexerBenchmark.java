@@ -0,0 +1,80 @@
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import com.mathhead200.tuil.lexer.Token;
+import com.mathhead200.tuil.lexer.TokenStream;
+import com.mathhead200.tuil.lexer.TuilBufferLexer;
+import com.mathhead200.tuil.lexer.TuilLexer;
+
+
+// A plain timing loop, with a warm-up pass, rather than JMH: the project has no build tool to bring JMH in.
+public class TuilLexerBenchmark
+{
+	private interface LexerFactory {
+		TuilLexer open(Path path) throws IOException;
+	}
+	
+	private static Path generate(int copies) throws IOException {
+		Path path = Files.createTempFile("tuil-bench", ".tuil");
+		path.toFile().deleteOnExit();
+		try( Writer out = Files.newBufferedWriter(path, StandardCharsets.UTF_8) ) {
+			out.write("AllocScreenBuffer buf 12 12;\nShow buf;\n");
+			for( int i = 0; i < copies; i++ ) {
+				out.write("# block " + i + "\n");
+				out.write("Disp \"Hello, world! \\\"" + i + "\\\"\";\n");
+				out.write("AllocNumber index 0;\n");
+				out.write("While (index < 10) {\n");
+				out.write("\tAllocNumber array[index] ((2 * index) - 9.5);\n");
+				out.write("\tIf (index >= 3i) Calc index ($sqrt index);\n");
+				out.write("\tCalc index (index + 1);\n");
+				out.write("}\n");
+			}
+		}
+		return path;
+	}
+	
+	private static long lex(LexerFactory factory, Path path) throws IOException {
+		long count = 0;
+		try( TuilLexer lexer = factory.open(path) ) {
+			for( Token token : lexer ) {
+				token.getLexeme();
+				count++;
+			}
+		}
+		return count;
+	}
+	
+	private static void run(String name, LexerFactory factory, Path path, int rounds) throws IOException {
+		long size = Files.size(path);
+		for( int i = 0; i < rounds; i++ ) // warm up
+			lex(factory, path);
+		long tokens = 0;
+		long start = System.nanoTime();
+		for( int i = 0; i < rounds; i++ )
+			tokens += lex(factory, path);
+		double seconds = (System.nanoTime() - start) / 1e9;
+		System.out.printf( "%-8s %12.0f tokens/s %8.1f MB/s%n", name, tokens / seconds, size * rounds / seconds / 1e6 );
+	}
+	
+	public static void main(String[] args) throws IOException {
+		int copies = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+		int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+		Path path = generate(copies);
+		System.out.printf( "%s: %d bytes, %d tokens%n", path, Files.size(path), lex(TuilBufferLexer::map, path) );
+		
+		run( "Reader", p -> new TuilLexer(Files.newBufferedReader(p, StandardCharsets.UTF_8)), path, rounds );
+		run( "char[]", p -> new TuilBufferLexer(new String(Files.readAllBytes(p), StandardCharsets.UTF_8).toCharArray()), path, rounds );
+		run( "mapped", TuilBufferLexer::map, path, rounds );
+		run( "stream", p -> TokenStream.lex(p).cursor(), path, rounds );
+		
+		// if/else chain vs. table-driven dispatch, over the same in-memory source
+		String text = new String(Files.readAllBytes(path), StandardCharsets.UTF_8);
+		run( "chain", p -> TokenStream.lex(text, false).cursor(), path, rounds );
+		run( "table", p -> TokenStream.lex(text, true).cursor(), path, rounds );
+		run( "parallel", p -> TokenStream.lexParallel(text).cursor(), path, rounds );
+	}
+}
@@ -0,0 +1,140 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import com.mathhead200.tuil.Metrics;
+import com.mathhead200.tuil.lexer.TuilBufferLexer;
+import com.mathhead200.tuil.parser.Instruction;
+import com.mathhead200.tuil.parser.TuilParser;
+import com.mathhead200.tuil.runtime.Bytecode;
+import com.mathhead200.tuil.runtime.Display;
+import com.mathhead200.tuil.runtime.Frame;
+import com.mathhead200.tuil.runtime.LoopCompiler;
+import com.mathhead200.tuil.runtime.Program;
+import com.mathhead200.tuil.runtime.Slots;
+
+
+// Checks that random loops leave the same frame when interpreted, compiled by the LoopCompiler, and run as Bytecode;
+// and that compiled loops report (to Metrics) the instructions they run, as if interpreted.
+public class TuilLoopCompilerTest
+{
+	private static final String[] setup = {
+		"Calc t 0;", "Calc p 1;", "Calc c 1i;", "Calc f .5;", "Calc w 5;", "Calc z 7;", "Calc w \"str\";"
+	};
+	// in the inner loop: overflowing a long (p), complex numbers (c), rationals (f), dividing by zero when i is z
+	private static final String[] inner = {
+		"Calc t (t + (i * i));", "Calc p (p * 3);", "Calc c (c * (1 + 1i));", "Calc f (f / 3);",
+		"Calc q (100 / (z - i));", "If ((i / 2) > 4) Calc t (t - 1); Else Calc t (t + 2);", "Calc a[i] (i * k);",
+		"Calc t (t + w);", "Calc w (w + 1);", "Calc m (t < p);"
+	};
+	// in the outer loop: making w a string part way through (so the inner loop, once compiled, must be interpreted)
+	private static final String[] outer = {
+		"If (k = 2) Calc w \"str\";", "Calc t (t - (k * 1000));", "Calc z (z + 3);", "Calc p 1;", "Dealloc w;"
+	};
+	
+	private static void pick(Random random, String[] statements, int max, List<String> into) {
+		int n = random.nextInt(max + 1);
+		for( int i = 0; i < n; i++ )
+			into.add( statements[random.nextInt(statements.length)] );
+	}
+	
+	private static String generate(Random random) {
+		StringBuilder source = new StringBuilder("Calc k 0;\n");
+		for( String s : setup )
+			if( random.nextInt(3) != 0 )
+				source.append(s).append('\n');
+		List<String> body = new ArrayList<>();
+		pick(random, inner, 4, body);
+		body.add("Calc i (i + 1);");
+		Collections.shuffle(body, random);
+		List<String> outerBody = new ArrayList<>();
+		pick(random, outer, 2, outerBody);
+		outerBody.add( "Calc i 0; While (i < " + (1 + random.nextInt(60)) + ") { " + String.join(" ", body) + " }" );
+		Collections.shuffle(outerBody, random);
+		source.append("While (k < ").append( 1 + random.nextInt(4) ).append(") {\n");
+		for( String s : outerBody )
+			source.append('\t').append(s).append('\n');
+		return source.append("\tCalc k (k + 1);\n}\n").toString();
+	}
+	
+	private static List<Instruction> parse(String source) {
+		List<Instruction> instructions = new ArrayList<>();
+		for( Instruction instr : new TuilParser(new TuilBufferLexer(source)) )
+			instructions.add(instr);
+		return instructions;
+	}
+	
+	// the variables after running (including those stored back by a compiled loop which failed), and the error, if any
+	private static String describe(Frame frame, String error) {
+		List<String> variables = new ArrayList<>();
+		Slots slots = frame.getSlots();
+		for( int slot = 0; slot < slots.size(); slot++ ) {
+			String name = slots.getName(slot);
+			if( name.endsWith("[]") ) {
+				String array = name.substring(0, name.length() - 2);
+				for( long i = 0; i < 60; i++ )
+					if( frame.lookup(array, i) != null )
+						variables.add( array + "[" + i + "] = " + frame.lookup(array, i) );
+			} else if( frame.lookup(name) != null )
+				variables.add( name + " = " + frame.lookup(name) );
+		}
+		Collections.sort(variables);
+		return variables + " " + error;
+	}
+	
+	private static long reported; // instructions reported to Metrics by the last program interpreted
+	
+	private static String interpret(List<Instruction> instructions, int threshold) {
+		LoopCompiler.setThreshold(threshold);
+		Program program = Program.compile(instructions);
+		Frame frame = program.newFrame(Display.NONE);
+		long before = Metrics.getCounters().getInstructions();
+		try {
+			program.run(frame);
+			return describe(frame, "");
+		} catch(RuntimeException e) {
+			return describe(frame, e.getMessage());
+		} finally {
+			reported = Metrics.getCounters().getInstructions() - before;
+		}
+	}
+	
+	private static String bytecode(List<Instruction> instructions) {
+		Bytecode program = Bytecode.compile(instructions);
+		Frame frame = program.newFrame(Display.NONE);
+		try {
+			program.run(frame);
+			return describe(frame, "");
+		} catch(RuntimeException e) {
+			return describe(frame, e.getMessage());
+		}
+	}
+	
+	public static void main(String[] args) {
+		long seed = args.length > 0 ? Long.parseLong(args[0]) : System.nanoTime();
+		int trials = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+		Random random = new Random(seed);
+		
+		for( int trial = 0; trial < trials; trial++ ) {
+			String source = generate(random);
+			List<Instruction> instructions = parse(source);
+			String tree = interpret(instructions, -1);
+			long treeReported = reported;
+			String jit = interpret(instructions, 1 + random.nextInt(3));
+			long jitReported = reported;
+			String bytecode = bytecode(instructions);
+			if( !tree.equals(jit) || !tree.equals(bytecode) ) {
+				System.out.printf( "FAILED (seed %d, trial %d):%n%s%ntree:     %s%njit:      %s%nbytecode: %s%n", seed, trial, source, tree, jit, bytecode );
+				System.exit(1);
+			}
+			if( treeReported != jitReported ) {
+				System.out.printf( "FAILED (seed %d, trial %d):%n%s%n%d instructions reported when interpreted, but %d when compiled%n",
+					seed, trial, source, treeReported, jitReported );
+				System.exit(1);
+			}
+		}
+		System.out.printf( "passed %d trials, %d loops compiled, %d deoptimizations (seed %d)%n",
+			trials, LoopCompiler.getCompiledCount(), LoopCompiler.getDeoptimizedCount(), seed );
+	}
+}
@@ -0,0 +1,104 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import com.mathhead200.tuil.lexer.TuilBufferLexer;
+import com.mathhead200.tuil.parser.Instruction;
+import com.mathhead200.tuil.parser.LoopInvariantMotion;
+import com.mathhead200.tuil.parser.TuilParser;
+import com.mathhead200.tuil.runtime.Display;
+import com.mathhead200.tuil.runtime.Frame;
+import com.mathhead200.tuil.runtime.Program;
+import com.mathhead200.tuil.runtime.Slots;
+
+
+// Checks that loops with hoisted invariant expressions leave the same frame, and fail (or not) at the same point, as when written.
+public class TuilLoopInvariantMotionTest
+{
+	private static final String[] setup = {
+		"Calc k 3;", "Calc k 2i;", "Calc z 0;", "Calc z 2;", "Calc s \"str\";", "Calc s 4;", "Calc t 0;", "Calc j 0;"
+	};
+	// k, z and s are invariant; some of these fail, e.g. when z is 0, s is a string, or a variable is undefined
+	private static final String[] statements = {
+		"Calc t (t + (k * 2));", "Calc t (t + (k / z));", "Calc a[i] (i + (k - 1));", "Calc u (s + (k * k));",
+		"Calc t (t + (s * 2));", "Calc t (t + (q * 2));", "If ((k / z) > 1) Calc t 1;", "Calc w ((k + 1) * i);",
+		"Calc j 0;", "While (j < 2) { Calc j (j + 1); Calc t (t + (k * 3)); }", "Calc a[(k * 0)] (z / k);"
+	};
+	private static final String[] predicates = { "(i < 5)", "(i < (k + 2))", "((i * s) < 9)" };
+	
+	private static String generate(Random random) {
+		StringBuilder source = new StringBuilder("Calc i 0;\n");
+		for( String s : setup )
+			if( random.nextInt(4) != 0 )
+				source.append(s).append('\n');
+		List<String> body = new ArrayList<>();
+		int n = 1 + random.nextInt(5);
+		for( int i = 0; i < n; i++ )
+			body.add( statements[random.nextInt(statements.length)] );
+		body.add( random.nextInt(body.size() + 1), "Calc i (i + 1);" );
+		Collections.shuffle(body, random);
+		source.append("While ").append( predicates[random.nextInt(predicates.length)] ).append(" {\n");
+		for( String s : body )
+			source.append('\t').append(s).append('\n');
+		return source.append("}\n").toString();
+	}
+	
+	private static List<Instruction> parse(String source) {
+		List<Instruction> instructions = new ArrayList<>();
+		for( Instruction instr : new TuilParser(new TuilBufferLexer(source)) )
+			instructions.add(instr);
+		return instructions;
+	}
+	
+	// the source's variables (not temporaries) after running the program, and whether it failed
+	// (not with which error: of two failing expressions in one instruction, a hoisted one fails first)
+	private static String run(List<Instruction> instructions) {
+		Program program = Program.compile(instructions);
+		Frame frame = program.newFrame(Display.NONE);
+		String error = "";
+		try {
+			program.run(frame);
+		} catch(RuntimeException e) {
+			error = "failed";
+		}
+		List<String> variables = new ArrayList<>();
+		Slots slots = frame.getSlots();
+		for( int slot = 0; slot < slots.size(); slot++ ) {
+			String name = slots.getName(slot);
+			if( name.startsWith("#") )
+				continue;
+			if( name.endsWith("[]") ) {
+				String array = name.substring(0, name.length() - 2);
+				for( long i = 0; i < 10; i++ )
+					if( frame.lookup(array, i) != null )
+						variables.add( array + "[" + i + "] = " + frame.lookup(array, i) );
+			} else if( frame.lookup(name) != null )
+				variables.add( name + " = " + frame.lookup(name) );
+		}
+		Collections.sort(variables);
+		return variables + " " + error;
+	}
+	
+	public static void main(String[] args) {
+		long seed = args.length > 0 ? Long.parseLong(args[0]) : System.nanoTime();
+		int trials = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+		Random random = new Random(seed);
+		
+		int hoisted = 0;
+		for( int trial = 0; trial < trials; trial++ ) {
+			String source = generate(random);
+			List<Instruction> instructions = parse(source);
+			LoopInvariantMotion motion = new LoopInvariantMotion();
+			List<Instruction> optimized = motion.optimize(instructions);
+			hoisted += motion.getHoistedCount();
+			String expected = run(instructions);
+			String actual = run(optimized);
+			if( !expected.equals(actual) ) {
+				System.out.printf( "FAILED (seed %d, trial %d):%n%s%nexpected %s%nbut got  %s%n", seed, trial, source, expected, actual );
+				System.exit(1);
+			}
+		}
+		System.out.printf( "passed %d trials, %d expressions hoisted (seed %d)%n", trials, hoisted, seed );
+	}
+}
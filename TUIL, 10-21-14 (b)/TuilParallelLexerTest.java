@@ -0,0 +1,64 @@
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import com.mathhead200.tuil.lexer.LexerException;
+import com.mathhead200.tuil.lexer.TokenStream;
+
+
+public class TuilParallelLexerTest
+{
+	private static final String[] fragments = {
+		"AllocNumber index 0;", "Calc index (index + 1);", "While (index <= 10) {", "}",
+		"If (x != 3i) Disp \"a;b\";", "Disp \"quote \\\" ; # not a comment\";",
+		"Disp \"multi\nline; string\";", "# comment ; with \" quote", "SetTitle \"\\\\\";",
+		"Calc y ($sqrt (x * 2.5));", "Calc z (y >= .5);", ";", "\t", " ", "\n", "\n\n"
+	};
+	
+	private static String generate(Random random, int size) {
+		StringBuilder source = new StringBuilder();
+		while( source.length() < size ) {
+			source.append( fragments[random.nextInt(fragments.length)] );
+			source.append( random.nextBoolean() ? "\n" : " " );
+		}
+		if( random.nextInt(10) == 0 )
+			source.insert( random.nextInt(source.length()), '@' ); // somewhere, an invalid token (or not, if in a string/comment)
+		return source.toString();
+	}
+	
+	private static String describe(TokenStream stream) {
+		StringBuilder str = new StringBuilder();
+		for( int i = 0; i < stream.size(); i++ )
+			str.append(stream.kind(i)).append(',').append(stream.start(i)).append(',')
+				.append(stream.length(i)).append(',').append(stream.line(i)).append('\n');
+		return str.toString();
+	}
+	
+	private static String lex(String source, ForkJoinPool pool, int chunkSize) {
+		try {
+			return describe( pool == null ? TokenStream.lex(source) : TokenStream.lexParallel(source, pool, chunkSize) );
+		} catch(LexerException e) {
+			return "LexerException: " + e.getMessage();
+		}
+	}
+	
+	public static void main(String[] args) {
+		long seed = args.length > 0 ? Long.parseLong(args[0]) : System.nanoTime();
+		int trials = args.length > 1 ? Integer.parseInt(args[1]) : 500;
+		Random random = new Random(seed);
+		ForkJoinPool pool = new ForkJoinPool(4);
+		
+		for( int trial = 0; trial < trials; trial++ ) {
+			String source = generate( random, random.nextInt(20000) );
+			int chunkSize = 1 + random.nextInt(2000);
+			String expected = lex(source, null, 0);
+			String actual = lex(source, pool, chunkSize);
+			if( !expected.equals(actual) ) {
+				System.out.printf( "FAILED (seed %d, trial %d, chunk size %d)%n", seed, trial, chunkSize );
+				System.exit(1);
+			}
+		}
+		pool.shutdown();
+		System.out.printf( "passed %d trials (seed %d)%n", trials, seed );
+	}
+}
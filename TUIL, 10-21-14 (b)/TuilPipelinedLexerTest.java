@@ -0,0 +1,117 @@
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Random;
+import java.util.concurrent.ThreadFactory;
+
+import com.mathhead200.tuil.lexer.LexerException;
+import com.mathhead200.tuil.lexer.PipelinedTuilLexer;
+import com.mathhead200.tuil.lexer.Token;
+import com.mathhead200.tuil.lexer.TuilBufferLexer;
+import com.mathhead200.tuil.lexer.TuilLexer;
+
+
+// Checks that a PipelinedTuilLexer hands over the tokens, lines, and failure of the lexer it wraps, in order, and closes mid-stream.
+public class TuilPipelinedLexerTest
+{
+	private static final String[] fragments = {
+		"AllocNumber index 0;", "Calc index (index + 1);", "While (index <= 10) {", "}",
+		"If (x != 3i) Disp \"a;b\";", "Disp \"multi\nline; string\";", "# comment ; with \" quote",
+		"Calc y ($sqrt (x * 2.5));", ";", "\n", "\n\n"
+	};
+	private static final ThreadFactory daemons = runnable -> {
+		Thread thread = new Thread(runnable, "TuilPipelinedLexerTest");
+		thread.setDaemon(true);
+		return thread;
+	};
+	
+	private static String generate(Random random, int size) {
+		StringBuilder source = new StringBuilder();
+		while( source.length() < size ) {
+			source.append( fragments[random.nextInt(fragments.length)] );
+			source.append( random.nextBoolean() ? "\n" : " " );
+		}
+		if( random.nextInt(4) == 0 )
+			source.insert( random.nextInt(source.length()), '@' ); // somewhere, an invalid token (or not, if in a string/comment)
+		return source.toString();
+	}
+	
+	// each token and its line, then the failure, if any (a failing lexer throws its Error as is; a pipelined one hands it over)
+	private static String describe(TuilLexer lexer) {
+		StringBuilder str = new StringBuilder();
+		try {
+			while( lexer.hasNext() ) {
+				Token token = lexer.next();
+				str.append( token.getLexeme() ).append(',').append( lexer.getLine() ).append('\n');
+			}
+		} catch(LexerException e) {
+			str.append("LexerException: ").append( e.getCause() instanceof Error ? e.getCause().getClass().getSimpleName() : e.getMessage() );
+		} catch(StackOverflowError e) {
+			str.append("LexerException: ").append( e.getClass().getSimpleName() );
+		}
+		return str.toString();
+	}
+	
+	// a lexer which fails with an Error after the given number of tokens
+	private static TuilLexer failing(String source, int after) {
+		return new TuilLexer( new StringReader(source) ) {
+			private int count = 0;
+			
+			public Token next() {
+				if( count++ == after )
+					throw new StackOverflowError();
+				return super.next();
+			}
+		};
+	}
+	
+	private static void check(boolean ok, long seed, int trial, String what) {
+		if( !ok ) {
+			System.out.printf( "FAILED (seed %d, trial %d): %s%n", seed, trial, what );
+			System.exit(1);
+		}
+	}
+	
+	public static void main(String[] args) throws IOException, InterruptedException {
+		long seed = args.length > 0 ? Long.parseLong(args[0]) : System.nanoTime();
+		int trials = args.length > 1 ? Integer.parseInt(args[1]) : 300;
+		Random random = new Random(seed);
+		
+		for( int trial = 0; trial < trials; trial++ ) {
+			String source = generate( random, random.nextInt(5000) );
+			boolean smallest = random.nextInt(4) == 0; // a batch at a time, so the producer waits on every token
+			int batchSize = smallest ? 1 : 1 + random.nextInt(300);
+			int capacity = smallest ? 1 : 1 + random.nextInt(8);
+			
+			// the same tokens and lines, and a LexerException only after the tokens before it
+			String expected = describe( new TuilBufferLexer(source) );
+			String actual = describe( new PipelinedTuilLexer(new TuilBufferLexer(source), daemons, batchSize, capacity) );
+			check( expected.equals(actual), seed, trial, "tokens differ (batch size " + batchSize + ", capacity " + capacity + ")" );
+			
+			// an Error while lexing also ends the token stream, rather than leaving the consumer waiting
+			int after = random.nextInt(200);
+			expected = describe( failing(source, after) );
+			actual = describe( new PipelinedTuilLexer(failing(source, after), daemons, batchSize, capacity) );
+			check( expected.equals(actual), seed, trial, "an Error was not handed over (after " + after + " tokens)" );
+			
+			// closing while the producer waits on a full ring
+			StringBuilder large = new StringBuilder();
+			while( large.length() < 100000 )
+				large.append( fragments[random.nextInt(3)] ).append('\n');
+			PipelinedTuilLexer lexer = new PipelinedTuilLexer(new TuilBufferLexer(large), daemons, 1, 1);
+			for( int i = random.nextInt(20); i > 0; i-- )
+				lexer.next();
+			Thread.sleep(2);
+			Thread closing = new Thread(() -> {
+				try {
+					lexer.close();
+				} catch(IOException e) {
+					throw new RuntimeException(e);
+				}
+			});
+			closing.start();
+			closing.join(10000);
+			check( !closing.isAlive() && !lexer.hasNext(), seed, trial, "close() did not stop the producer" );
+		}
+		System.out.printf( "passed %d trials (seed %d)%n", trials, seed );
+	}
+}
@@ -0,0 +1,197 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import com.mathhead200.tuil.lexer.SymbolTable;
+import com.mathhead200.tuil.lexer.Token;
+import com.mathhead200.tuil.lexer.TuilBufferLexer;
+import com.mathhead200.tuil.parser.AllocNumberInstruction;
+import com.mathhead200.tuil.parser.AllocScreenBufferInstruction;
+import com.mathhead200.tuil.parser.Argument;
+import com.mathhead200.tuil.parser.CalcInstruction;
+import com.mathhead200.tuil.parser.DeallocInstruction;
+import com.mathhead200.tuil.parser.DispInstruction;
+import com.mathhead200.tuil.parser.ElseInstruction;
+import com.mathhead200.tuil.parser.IfInstruction;
+import com.mathhead200.tuil.parser.Instruction;
+import com.mathhead200.tuil.parser.InstructionBlock;
+import com.mathhead200.tuil.parser.ProgramCache;
+import com.mathhead200.tuil.parser.ShowInstruction;
+import com.mathhead200.tuil.parser.SourceLines;
+import com.mathhead200.tuil.parser.TuilParser;
+import com.mathhead200.tuil.parser.WhileInstruction;
+
+
+// Checks that programs loaded from a ProgramCache, compiled or recompiled, are the programs parsed, down to their line numbers.
+public class TuilProgramCacheTest
+{
+	private static final String[] statements = {
+		"Calc x (x + 1);", "AllocNumber a[(i * 2)] 2.5;", "Disp \"a;b { }\";", "Calc y ($sqrt (x * 2i));",
+		"# comment\n", "AllocScreenBuffer b 3 4;", "Show b;", "Disp b \"text\" 0 1;", "Dealloc a;", "Calc s \"str\";"
+	};
+	
+	private static void block(Random random, StringBuilder source, int depth) {
+		int n = 1 + random.nextInt(depth == 0 ? 10 : 4);
+		for( int i = 0; i < n; i++ ) {
+			int choice = random.nextInt(10);
+			if( depth < 3 && choice < 3 ) {
+				source.append( choice == 0 ? "While (i < 10) {\n" : choice == 1 ? "If (x >= 2)\n{\n" : "Else {\n\n" );
+				block(random, source, depth + 1);
+				source.append("}\n");
+			} else
+				source.append( statements[random.nextInt(statements.length)] ).append(random.nextBoolean() ? "\n" : " ");
+		}
+	}
+	
+	private static String describe(Argument arg) {
+		if( arg == null )
+			return "-";
+		return arg instanceof Token ? ((Token) arg).getLexeme() : arg.toString();
+	}
+	
+	// each instruction with the line it's on
+	private static void describe(Instruction instr, SourceLines lines, StringBuilder str) {
+		str.append( lines.getLine(instr) ).append(':');
+		if( instr instanceof InstructionBlock ) {
+			str.append("{ ");
+			for( Instruction x : (InstructionBlock) instr )
+				describe(x, lines, str);
+			str.append("} ");
+		} else if( instr instanceof IfInstruction ) {
+			str.append("If ").append( describe(((IfInstruction) instr).predicate) ).append(' ');
+			describe( ((IfInstruction) instr).instruction, lines, str );
+		} else if( instr instanceof ElseInstruction ) {
+			str.append("Else ");
+			describe( ((ElseInstruction) instr).instruction, lines, str );
+		} else if( instr instanceof WhileInstruction ) {
+			str.append("While ").append( describe(((WhileInstruction) instr).predicate) ).append(' ');
+			describe( ((WhileInstruction) instr).instruction, lines, str );
+		} else if( instr instanceof CalcInstruction ) {
+			CalcInstruction calc = (CalcInstruction) instr;
+			str.append("Calc ").append( calc.variable.getLexeme() ).append(' ').append( describe(calc.index) )
+				.append(' ').append( describe(calc.value) ).append("; ");
+		} else if( instr instanceof AllocNumberInstruction ) {
+			AllocNumberInstruction alloc = (AllocNumberInstruction) instr;
+			str.append("AllocNumber ").append( alloc.variable.getLexeme() ).append(' ').append( describe(alloc.index) )
+				.append(' ').append( describe(alloc.value) ).append("; ");
+		} else if( instr instanceof AllocScreenBufferInstruction ) {
+			AllocScreenBufferInstruction alloc = (AllocScreenBufferInstruction) instr;
+			str.append("AllocScreenBuffer ").append( alloc.variable.getLexeme() ).append(' ').append( describe(alloc.rows) )
+				.append(' ').append( describe(alloc.columns) ).append("; ");
+		} else if( instr instanceof DispInstruction ) {
+			DispInstruction disp = (DispInstruction) instr;
+			str.append("Disp ").append( describe(disp.buffer) ).append(' ').append( describe(disp.text) ).append(' ')
+				.append( describe(disp.row) ).append(' ').append( describe(disp.column) ).append("; ");
+		} else if( instr instanceof ShowInstruction ) {
+			str.append("Show ").append( ((ShowInstruction) instr).variable.getLexeme() ).append("; ");
+		} else if( instr instanceof DeallocInstruction ) {
+			str.append("Dealloc ").append( ((DeallocInstruction) instr).variable.getLexeme() ).append("; ");
+		} else
+			str.append( instr.getClass().getSimpleName() ).append("; ");
+	}
+	
+	private static String describe(List<Instruction> program, SourceLines lines) {
+		StringBuilder str = new StringBuilder();
+		for( Instruction instr : program )
+			describe(instr, lines, str);
+		return str.toString();
+	}
+	
+	private static byte[] hash(byte[] source) throws NoSuchAlgorithmException {
+		return MessageDigest.getInstance("SHA-256").digest(source);
+	}
+	
+	// the directory's only compiled program
+	private static Path compiled(Path directory) throws IOException {
+		try( Stream<Path> files = Files.list(directory) ) {
+			return files.filter(f -> f.toString().endsWith(".tuilc")).findFirst().get();
+		}
+	}
+	
+	private static void delete(Path directory) throws IOException {
+		try( Stream<Path> files = Files.list(directory) ) {
+			for( Path f : (Iterable<Path>) files::iterator )
+				Files.delete(f);
+		}
+		Files.delete(directory);
+	}
+	
+	private static void check(boolean ok, long seed, int trial, String what, String source) {
+		if( !ok ) {
+			System.out.printf( "FAILED (seed %d, trial %d): %s%n%s%n", seed, trial, what, source );
+			System.exit(1);
+		}
+	}
+	
+	public static void main(String[] args) throws Exception {
+		long seed = args.length > 0 ? Long.parseLong(args[0]) : System.nanoTime();
+		int trials = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+		Random random = new Random(seed);
+		
+		for( int trial = 0; trial < trials; trial++ ) {
+			StringBuilder text = new StringBuilder();
+			block(random, text, 0);
+			String source = text.toString();
+			byte[] hash = hash( source.getBytes(StandardCharsets.UTF_8) );
+			
+			SourceLines lines = new SourceLines();
+			List<Instruction> parsed = new ArrayList<>();
+			try( TuilParser parser = new TuilParser(new TuilBufferLexer(source), lines) ) {
+				for( Instruction instr : parser )
+					parsed.add(instr);
+			}
+			String expected = describe(parsed, lines);
+			
+			// encoding, then decoding
+			byte[] bytes = ProgramCache.encode(parsed, lines, hash);
+			SourceLines decodedLines = new SourceLines();
+			List<Instruction> decoded = ProgramCache.decode( ByteBuffer.wrap(bytes), hash, new SymbolTable(), decodedLines );
+			check( decoded != null && describe(decoded, decodedLines).equals(expected), seed, trial, "round trip", source );
+			byte[] otherHash = hash.clone();
+			otherHash[0]++;
+			check( ProgramCache.decode(ByteBuffer.wrap(bytes), otherHash, new SymbolTable(), null) == null, seed, trial, "decoded for another source", source );
+			
+			// a miss, then a hit
+			Path directory = Files.createTempDirectory("tuilc");
+			ProgramCache cache = new ProgramCache(directory);
+			SourceLines missLines = new SourceLines();
+			List<Instruction> miss = cache.load(source, new SymbolTable(), missLines);
+			check( cache.getMisses() == 1 && describe(miss, missLines).equals(expected), seed, trial, "miss", source );
+			SourceLines hitLines = new SourceLines();
+			List<Instruction> hit = cache.load(source, new SymbolTable(), hitLines);
+			check( cache.getHits() == 1 && describe(hit, hitLines).equals(expected), seed, trial, "hit", source );
+			
+			// a truncated file, then one compiled from another source (or by another format version), are recompiled
+			Path file = compiled(directory);
+			byte[] full = Files.readAllBytes(file);
+			Files.write( file, Arrays.copyOf(full, random.nextInt(full.length)) );
+			SourceLines recompiledLines = new SourceLines();
+			List<Instruction> recompiled = cache.load(source, new SymbolTable(), recompiledLines);
+			check( cache.getMisses() == 2 && describe(recompiled, recompiledLines).equals(expected), seed, trial, "corrupt file", source );
+			check( Arrays.equals(Files.readAllBytes(file), full), seed, trial, "corrupt file not replaced", source );
+			
+			byte[] stale = full.clone();
+			if( random.nextBoolean() )
+				stale[8]++; // the first byte of the hash
+			else
+				stale[7]--; // the format version's low byte
+			Files.write(file, stale);
+			SourceLines staleLines = new SourceLines();
+			List<Instruction> fresh = cache.load(source, new SymbolTable(), staleLines);
+			check( cache.getMisses() == 3 && describe(fresh, staleLines).equals(expected), seed, trial, "stale file", source );
+			cache.load(source, new SymbolTable());
+			check( cache.getHits() == 2, seed, trial, "stale file not replaced", source );
+			delete(directory);
+		}
+		System.out.printf( "passed %d trials (seed %d)%n", trials, seed );
+	}
+}
@@ -0,0 +1,69 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.mathhead200.tuil.lexer.TuilBufferLexer;
+import com.mathhead200.tuil.parser.Instruction;
+import com.mathhead200.tuil.parser.TuilParser;
+import com.mathhead200.tuil.runtime.Bytecode;
+import com.mathhead200.tuil.runtime.Scheduler;
+
+
+public class TuilSchedulerBenchmark
+{
+	private static String generate(int iterations) {
+		return "AllocNumber total 0;\n"
+			+ "AllocNumber i 0;\n"
+			+ "While (i < " + iterations + ") {\n"
+			+ "\tIf (i < " + (iterations / 2) + ") Calc total (total + (i * 3));\n"
+			+ "\tElse Calc total (total - (i / 2));\n"
+			+ "\tCalc i (i + 1);\n"
+			+ "}\n";
+	}
+	
+	// runs the given number of copies of the program at once; returns the aggregate instructions per second
+	private static double run(Bytecode program, int count, int workers, long slice, boolean print) throws InterruptedException {
+		Scheduler scheduler = new Scheduler(workers, slice);
+		List<Scheduler.Task> tasks = new ArrayList<>(count);
+		long start = System.nanoTime();
+		for( int i = 0; i < count; i++ )
+			tasks.add( scheduler.submit(program) );
+		for( Scheduler.Task task : tasks )
+			task.await();
+		double seconds = (System.nanoTime() - start) / 1e9;
+		scheduler.shutdown();
+		scheduler.awaitTermination(1, TimeUnit.MINUTES);
+		
+		long instructions = 0, cpuNanos = 0, slices = 0;
+		for( Scheduler.Task task : tasks ) {
+			if( task.getError() != null )
+				throw new IllegalStateException("program failed", task.getError());
+			instructions += task.getInstructions();
+			cpuNanos += task.getCpuNanos();
+			slices += task.getSlices();
+		}
+		double throughput = instructions / seconds;
+		if( print )
+			System.out.printf( "%6d programs %12.0f instructions/s %10.3f ms CPU/program %8.1f slices/program%n",
+					count, throughput, cpuNanos / 1e6 / count, (double) slices / count );
+		return throughput;
+	}
+	
+	public static void main(String[] args) throws IOException, InterruptedException {
+		int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+		int workers = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+		long slice = args.length > 2 ? Long.parseLong(args[2]) : Scheduler.DEFAULT_SLICE;
+		List<Instruction> instructions = new ArrayList<>();
+		try( TuilParser parser = new TuilParser(new TuilBufferLexer( generate(iterations) )) ) {
+			for( Instruction instr : parser )
+				instructions.add(instr);
+		}
+		Bytecode program = Bytecode.compile(instructions); // shared by every task
+		System.out.printf( "%d iterations per program, %d workers, %d instructions per slice%n", iterations, workers, slice );
+		
+		run(program, 100, workers, slice, false); // warm up
+		for( int count : new int[] {1, 10, 100, 1000, 5000} )
+			run(program, count, workers, slice, true);
+	}
+}
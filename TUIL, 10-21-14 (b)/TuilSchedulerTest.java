@@ -0,0 +1,96 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import com.mathhead200.tuil.lexer.TuilBufferLexer;
+import com.mathhead200.tuil.parser.Instruction;
+import com.mathhead200.tuil.parser.TuilParser;
+import com.mathhead200.tuil.runtime.Bytecode;
+import com.mathhead200.tuil.runtime.Display;
+import com.mathhead200.tuil.runtime.InterpreterException;
+import com.mathhead200.tuil.runtime.Scheduler;
+
+
+// Checks that the Scheduler shares its workers between programs, reports how each one stopped, and shuts down.
+public class TuilSchedulerTest
+{
+	private static final Bytecode forever = compile("Calc x 0; While 1 { Calc x (x + 1); }");
+	private static final Bytecode counting = compile("Calc y 0; While (y < 200) { Calc y (y + 1); }");
+	private static final Bytecode dividing = compile("Calc y 0; While (y < 20) { Calc y (y + 1); } Calc z (1 / 0);");
+	private static final Bytecode showing = compile("AllocScreenBuffer b 1 1; Show b;");
+	private static final Display failing = buffer -> { throw new AssertionError("display failed"); };
+	
+	private static Bytecode compile(String source) {
+		List<Instruction> instructions = new ArrayList<>();
+		for( Instruction instr : new TuilParser(new TuilBufferLexer(source)) )
+			instructions.add(instr);
+		return Bytecode.compile(instructions);
+	}
+	
+	private static void check(boolean ok, long seed, int trial, String what) {
+		if( !ok ) {
+			System.out.printf( "FAILED (seed %d, trial %d): %s%n", seed, trial, what );
+			System.exit(1);
+		}
+	}
+	
+	public static void main(String[] args) throws InterruptedException {
+		long seed = args.length > 0 ? Long.parseLong(args[0]) : System.nanoTime();
+		int trials = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+		Random random = new Random(seed);
+		
+		for( int trial = 0; trial < trials; trial++ ) {
+			int workers = 1 + random.nextInt(3);
+			long slice = 1 + random.nextInt(1000);
+			Scheduler scheduler = new Scheduler(workers, slice);
+			
+			// a program on every worker which never halts, then programs which do: they must still get their slices
+			List<Scheduler.Task> loops = new ArrayList<>();
+			for( int i = 0; i < workers; i++ )
+				loops.add( scheduler.submit(forever) );
+			Scheduler.Task counted = scheduler.submit(counting);
+			Scheduler.Task divided = scheduler.submit(dividing);
+			Scheduler.Task shown = scheduler.submit(showing, failing);
+			check( counted.await(10, TimeUnit.SECONDS), seed, trial, "a program was starved by loops" );
+			check( counted.getError() == null && counted.getFrame().lookup("y").equals(200L), seed, trial, "a program did not halt" );
+			check( divided.await(10, TimeUnit.SECONDS) && divided.getError() instanceof InterpreterException,
+				seed, trial, "a program's error was not reported: " + divided.getError() );
+			check( shown.await(10, TimeUnit.SECONDS) && shown.getError() instanceof AssertionError,
+				seed, trial, "a program's Error was not reported: " + shown.getError() );
+			for( Scheduler.Task loop : loops )
+				check( !loop.isDone(), seed, trial, "a program stopped without being shut down" );
+			
+			if( random.nextBoolean() ) {
+				// the loops are stopped at the end of their slices, and fail
+				scheduler.shutdownNow();
+				for( Scheduler.Task loop : loops )
+					check( loop.await(10, TimeUnit.SECONDS) && loop.getError() instanceof InterpreterException,
+						seed, trial, "a program was not failed by shutdownNow: " + loop.getError() );
+			} else {
+				// the programs already submitted still halt, and the workers stop after them
+				List<Scheduler.Task> more = new ArrayList<>();
+				for( int i = 0; i < 5; i++ )
+					more.add( scheduler.submit(counting) );
+				scheduler.shutdown();
+				try {
+					scheduler.submit(counting);
+					check( false, seed, trial, "a program was submitted after shutdown" );
+				} catch(IllegalStateException e) {
+					// expected
+				}
+				for( Scheduler.Task task : more )
+					check( task.await(10, TimeUnit.SECONDS) && task.getError() == null, seed, trial, "a program did not halt after shutdown" );
+				scheduler.shutdownNow(); // the loops
+			}
+			check( scheduler.awaitTermination(10, TimeUnit.SECONDS), seed, trial, "the workers did not stop" );
+			
+			// once the last program stops, even with an Error, the workers stop
+			Scheduler last = new Scheduler(workers, slice);
+			Scheduler.Task task = last.submit( random.nextBoolean() ? showing : counting, failing );
+			last.shutdown();
+			check( last.awaitTermination(10, TimeUnit.SECONDS) && task.isDone(), seed, trial, "the workers did not stop after shutdown" );
+		}
+		System.out.printf( "passed %d trials (seed %d)%n", trials, seed );
+	}
+}
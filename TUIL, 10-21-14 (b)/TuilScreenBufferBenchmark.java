@@ -0,0 +1,61 @@
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+
+import com.mathhead200.tuil.ScreenBuffer;
+
+
+public class TuilScreenBufferBenchmark
+{
+	private static long usedMemory() {
+		Runtime runtime = Runtime.getRuntime();
+		for( int i = 0; i < 3; i++ )
+			System.gc();
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+	
+	public static void main(String[] args) {
+		System.setProperty("java.awt.headless", "true");
+		int rows = args.length > 0 ? Integer.parseInt(args[0]) : 80;
+		int cols = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+		int frames = args.length > 2 ? Integer.parseInt(args[2]) : 200;
+		
+		// memory per buffer
+		ScreenBuffer[] buffers = new ScreenBuffer[20];
+		long before = usedMemory();
+		for( int i = 0; i < buffers.length; i++ )
+			buffers[i] = new ScreenBuffer(rows, cols, 12);
+		long after = usedMemory();
+		System.out.printf( "%d x %d buffer: %d bytes%n", rows, cols, (after - before) / buffers.length );
+		
+		// full screen: display every cell, then paint the whole buffer
+		ScreenBuffer buffer = buffers[0];
+		buffers = null;
+		Dimension size = buffer.getPreferredSize();
+		buffer.setSize(size);
+		buffer.doLayout();
+		BufferedImage image = new BufferedImage(size.width, size.height, BufferedImage.TYPE_INT_RGB);
+		StringBuilder text = new StringBuilder(rows * cols);
+		for( int i = 0; i < rows * cols; i++ )
+			text.append( (char) ('a' + i % 26) );
+		String screen = text.toString();
+		
+		for( int round = 0; round < 2; round++ ) { // the first warms up
+			long display = 0, paint = 0;
+			for( int i = 0; i < frames; i++ ) {
+				buffer.setHighlight( i % 2 == 0 ? null : Color.YELLOW );
+				long start = System.nanoTime();
+				buffer.display(screen, 0, 0);
+				long mid = System.nanoTime();
+				Graphics2D g = image.createGraphics();
+				buffer.paint(g);
+				g.dispose();
+				display += mid - start;
+				paint += System.nanoTime() - mid;
+			}
+			if( round == 1 )
+				System.out.printf( "full screen: %.3f ms display, %.3f ms paint%n", display / 1e6 / frames, paint / 1e6 / frames );
+		}
+	}
+}
@@ -179,6 +179,41 @@ public class BigRational extends Number implements Comparable<BigRational>
 	}
 
 
+	/**
+	 * Constructs a rational number with the given numerator and denominator, reducing it to
+	 * 	lowest terms with <code>long</code> arithmetic, rather than with {@link BigInteger#gcd(BigInteger)}.
+	 * @param numerator - The numerator of a <code>Rational</code> number.
+	 * @param denominator - The denominator of a <code>Rational</code> number.
+	 * @return <code>numerator / denominator</code>
+	 * @throws ArithmeticException - If <code>denominator</code> is <code>0</code>.
+	 * @see #BigRational(long, long)
+	 */
+	public static BigRational valueOf(long numerator, long denominator) {
+		if( denominator == 0 )
+			throw new ArithmeticException("can not divide by zero.");
+		if( numerator == Long.MIN_VALUE || denominator == Long.MIN_VALUE )
+			return new BigRational(numerator, denominator); //can not be negated as a long
+		if( denominator < 0 ) {
+			numerator = -numerator;
+			denominator = -denominator;
+		}
+		long a = Math.abs(numerator), b = denominator;
+		while( b != 0 ) { //Euclid's algorithm
+			long t = a % b;
+			a = b;
+			b = t;
+		}
+		BigRational q = new BigRational();
+		q.numerator = BigInteger.valueOf(numerator / a);
+		q.denominator = BigInteger.valueOf(denominator / a);
+		return q;
+	}
+
+	//for factory methods which produce an already reduced numerator and denominator
+	private BigRational() {
+	}
+
+
 	/**
 	 * Convert a continued fraction (represented as a {@link java.util.List})
 	 * 	into a rational number.
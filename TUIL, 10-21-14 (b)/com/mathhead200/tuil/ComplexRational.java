@@ -100,6 +100,19 @@ public class ComplexRational extends Number
 		return str.toString();
 	}
 	
+	public boolean equals(Object obj) {
+		if( obj == this )
+			return true;
+		if( !(obj instanceof ComplexRational) )
+			return false;
+		ComplexRational that = (ComplexRational) obj;
+		return a.equals(that.a) && b.equals(that.b);
+	}
+	
+	public int hashCode() {
+		return a.hashCode() ^ (b.hashCode() * 31);
+	}
+	
 	
 	public int intValue() {
 		return ((Double) norm()).intValue();
@@ -0,0 +1,299 @@
+package com.mathhead200.tuil;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+import com.mathhead200.tuil.runtime.Frame;
+
+
+/**
+ * Live operational numbers for a process hosting TUIL programs.
+ * The interpreter, scheduler, program cache, and screen buffers report what they do here,
+ * and every report goes to each registered Listener; the first of which keeps the totals in LongAdders,
+ * so reporting from many interpreter threads at once does not contend, and serves them as a JMX MBean (see registerMBean).
+ */
+public final class Metrics
+{
+	/** Receives the reports; from any thread. Override only what you need. */
+	public interface Listener
+	{
+		default void programStarted() {}
+		default void programFinished() {}
+		
+		// instructions run by the interpreter or the bytecode VM (not by loops compiled to JVM classes),
+		// reported every Trace.SAMPLE_INTERVAL instructions, and when a program stops
+		default void instructions(long count) {}
+		
+		default void cacheLookup(boolean hit) {}
+		
+		// allocated, and released by Dealloc or when the program holding it finishes
+		default void screenBufferAllocated(int rows, int columns) {}
+		default void screenBufferReleased(int rows, int columns) {}
+		
+		// a Show waiting for the event dispatch thread, and when it's done
+		default void screenUpdateQueued() {}
+		default void screenUpdateDone() {}
+		
+		// a scheduler's slice waiting for a worker thread, and when it leaves the queue
+		default void sliceQueued() {}
+		default void sliceDequeued() {}
+	}
+	
+	public static final String OBJECT_NAME = "com.mathhead200.tuil:type=Metrics";
+	
+	private static final Counters counters = new Counters();
+	private static volatile Listener[] listeners = { counters };
+	
+	// what's live: the frames of running programs, and the screen buffers allocated and not yet released
+	private static final Set<Frame> frames = ConcurrentHashMap.newKeySet();
+	private static final Set<ScreenBuffer> buffers = ConcurrentHashMap.newKeySet();
+	
+	private Metrics() {
+	}
+	
+	
+	public static synchronized void addListener(Listener listener) {
+		List<Listener> list = new ArrayList<>();
+		Collections.addAll(list, listeners);
+		list.add(listener);
+		listeners = list.toArray( new Listener[list.size()] );
+	}
+	
+	public static synchronized void removeListener(Listener listener) {
+		List<Listener> list = new ArrayList<>();
+		Collections.addAll(list, listeners);
+		if( listener != counters )
+			list.remove(listener);
+		listeners = list.toArray( new Listener[list.size()] );
+	}
+	
+	public static MetricsMBean getCounters() {
+		return counters;
+	}
+	
+	// registers the counters with the platform MBean server, if they aren't already
+	public static ObjectName registerMBean() {
+		try {
+			ObjectName name = new ObjectName(OBJECT_NAME);
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			try {
+				server.registerMBean( new StandardMBean(counters, MetricsMBean.class), name );
+			} catch(InstanceAlreadyExistsException e) {
+				// registered already
+			}
+			return name;
+		} catch(JMException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+	
+	
+	// see Frame.started
+	public static void programStarted(Frame frame) {
+		frames.add(frame);
+		for( Listener l : listeners )
+			l.programStarted();
+	}
+	
+	// see Frame.finished, which first releases the frame's screen buffers
+	public static void programFinished(Frame frame) {
+		frames.remove(frame);
+		for( Listener l : listeners )
+			l.programFinished();
+	}
+	
+	public static void instructions(long count) {
+		if( count > 0 )
+			for( Listener l : listeners )
+				l.instructions(count);
+	}
+	
+	public static void cacheLookup(boolean hit) {
+		for( Listener l : listeners )
+			l.cacheLookup(hit);
+	}
+	
+	static void screenBufferAllocated(ScreenBuffer buffer, int rows, int columns) {
+		buffers.add(buffer);
+		for( Listener l : listeners )
+			l.screenBufferAllocated(rows, columns);
+	}
+	
+	// reported once, however many times the buffer is released
+	public static void screenBufferReleased(ScreenBuffer buffer) {
+		if( buffers.remove(buffer) )
+			for( Listener l : listeners )
+				l.screenBufferReleased( buffer.getRows(), buffer.getColumns() );
+	}
+	
+	static void screenUpdateQueued() {
+		for( Listener l : listeners )
+			l.screenUpdateQueued();
+	}
+	
+	static void screenUpdateDone() {
+		for( Listener l : listeners )
+			l.screenUpdateDone();
+	}
+	
+	public static void sliceQueued() {
+		for( Listener l : listeners )
+			l.sliceQueued();
+	}
+	
+	public static void sliceDequeued() {
+		for( Listener l : listeners )
+			l.sliceDequeued();
+	}
+	
+	
+	private static class Counters implements Listener, MetricsMBean
+	{
+		final LongAdder programsStarted = new LongAdder();
+		final LongAdder programsFinished = new LongAdder();
+		final LongAdder instructions = new LongAdder();
+		final LongAdder cacheHits = new LongAdder();
+		final LongAdder cacheMisses = new LongAdder();
+		final LongAdder pendingScreenUpdates = new LongAdder();
+		final LongAdder queuedSlices = new LongAdder();
+		final LongAdder screenBuffers = new LongAdder();
+		final LongAdder screenBufferCells = new LongAdder();
+		
+		// the instruction rate, over the last window of at least WINDOW; rolled over by whichever thread first sees it end
+		private static final long WINDOW = 1_000_000_000L;
+		private volatile long windowStart = System.nanoTime();
+		private long windowInstructions = 0; // at windowStart
+		private volatile double rate = 0;
+		
+		public void programStarted() {
+			programsStarted.increment();
+		}
+		
+		public void programFinished() {
+			programsFinished.increment();
+		}
+		
+		public void instructions(long count) {
+			instructions.add(count);
+			long now = System.nanoTime();
+			if( now - windowStart >= WINDOW )
+				roll(now);
+		}
+		
+		private synchronized void roll(long now) {
+			if( now - windowStart < WINDOW )
+				return; // rolled over by another thread
+			long count = instructions.sum();
+			rate = (count - windowInstructions) * 1e9 / (now - windowStart);
+			windowStart = now;
+			windowInstructions = count;
+		}
+		
+		public void cacheLookup(boolean hit) {
+			(hit ? cacheHits : cacheMisses).increment();
+		}
+		
+		public void screenUpdateQueued() {
+			pendingScreenUpdates.increment();
+		}
+		
+		public void screenUpdateDone() {
+			pendingScreenUpdates.decrement();
+		}
+		
+		public void sliceQueued() {
+			queuedSlices.increment();
+		}
+		
+		public void sliceDequeued() {
+			queuedSlices.decrement();
+		}
+		
+		public void screenBufferAllocated(int rows, int columns) {
+			screenBuffers.increment();
+			screenBufferCells.add( (long) rows * columns );
+		}
+		
+		public void screenBufferReleased(int rows, int columns) {
+			screenBuffers.decrement();
+			screenBufferCells.add( -(long) rows * columns );
+		}
+		
+		
+		public long getProgramsStarted() {
+			return programsStarted.sum();
+		}
+		
+		public long getProgramsRunning() {
+			return programsStarted.sum() - programsFinished.sum();
+		}
+		
+		public long getInstructions() {
+			return instructions.sum();
+		}
+		
+		public double getInstructionsPerSecond() {
+			long now = System.nanoTime();
+			if( now - windowStart >= WINDOW )
+				roll(now); // e.g. no instructions reported since the window ended
+			return rate;
+		}
+		
+		public long getCacheHits() {
+			return cacheHits.sum();
+		}
+		
+		public long getCacheMisses() {
+			return cacheMisses.sum();
+		}
+		
+		public double getCacheHitRate() {
+			long hits = cacheHits.sum();
+			long lookups = hits + cacheMisses.sum();
+			return lookups == 0 ? 0 : (double) hits / lookups;
+		}
+		
+		public int getScreenBuffers() {
+			return screenBuffers.intValue();
+		}
+		
+		public long getScreenBufferCells() {
+			return screenBufferCells.sum();
+		}
+		
+		public long getScreenBufferBytes() {
+			return ScreenBuffer.CELL_BYTES * screenBufferCells.sum();
+		}
+		
+		public int getLargestNumberBits() {
+			int bits = 0;
+			for( Frame frame : frames ) { // weakly consistent; takes no lock
+				try {
+					bits = Math.max( bits, frame.largestNumberBits() );
+				} catch(RuntimeException e) {
+					// changed while being read; skip it this time
+				}
+			}
+			return bits;
+		}
+		
+		public long getPendingScreenUpdates() {
+			return pendingScreenUpdates.sum();
+		}
+		
+		public long getQueuedSlices() {
+			return queuedSlices.sum();
+		}
+	}
+}
@@ -0,0 +1,30 @@
+package com.mathhead200.tuil;
+
+
+/**
+ * The totals kept by Metrics, as served over JMX.
+ */
+public interface MetricsMBean
+{
+	long getProgramsStarted();
+	long getProgramsRunning();
+	
+	long getInstructions();
+	// over the last whole window of at least a second (0 until the first ends); not reset by reading
+	double getInstructionsPerSecond();
+	
+	long getCacheHits();
+	long getCacheMisses();
+	double getCacheHitRate();
+	
+	// of the screen buffers allocated, and not yet released by Dealloc or by the program holding them finishing
+	int getScreenBuffers();
+	long getScreenBufferCells();
+	long getScreenBufferBytes();
+	
+	// of the numerators and denominators of the numbers held in the frames of the programs running
+	int getLargestNumberBits();
+	
+	long getPendingScreenUpdates();
+	long getQueuedSlices();
+}
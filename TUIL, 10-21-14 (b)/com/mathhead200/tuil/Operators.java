@@ -0,0 +1,80 @@
+package com.mathhead200.tuil;
+
+import com.mathhead200.BigRational;
+import com.mathhead200.tuil.lexer.DivideToken;
+import com.mathhead200.tuil.lexer.EqualToToken;
+import com.mathhead200.tuil.lexer.GreaterThanOrEqualToToken;
+import com.mathhead200.tuil.lexer.GreaterThanToken;
+import com.mathhead200.tuil.lexer.LessThanOrEqualToToken;
+import com.mathhead200.tuil.lexer.LessThanToken;
+import com.mathhead200.tuil.lexer.MinusToken;
+import com.mathhead200.tuil.lexer.NotEqualToToken;
+import com.mathhead200.tuil.lexer.PlusToken;
+import com.mathhead200.tuil.lexer.TimesToken;
+import com.mathhead200.tuil.lexer.Token;
+
+
+/**
+ * Numeric semantics of TUIL's binary operators.
+ * Comparisons evaluate to {@link ComplexRational#ONE} (true) or {@link ComplexRational#ZERO} (false.)
+ */
+public class Operators
+{
+	private Operators() {
+	}
+	
+	public static boolean isTrue(ComplexRational x) {
+		return x.real().signum() != 0 || x.img().signum() != 0;
+	}
+	
+	public static ComplexRational valueOf(boolean b) {
+		return b ? ComplexRational.ONE : ComplexRational.ZERO;
+	}
+	
+	// the ordering of two real numbers
+	private static int compare(ComplexRational x, ComplexRational y) {
+		if( x.img().signum() != 0 || y.img().signum() != 0 )
+			throw new ArithmeticException("can not order complex numbers: " + x + ", " + y);
+		return x.real().compareTo(y.real());
+	}
+	
+	/**
+	 * Applies a binary operator.
+	 * @throws ArithmeticException - On division by zero, or ordering a non-real number.
+	 * @throws IllegalArgumentException - If <code>operator</code> is not a binary operator.
+	 */
+	public static ComplexRational apply(Token operator, ComplexRational x, ComplexRational y) {
+		if( operator == PlusToken.instance )
+			return x.add(y);
+		if( operator == MinusToken.instance )
+			return x.subtract(y);
+		if( operator == TimesToken.instance )
+			return x.multiply(y);
+		if( operator == DivideToken.instance ) {
+			if( y.real().signum() == 0 && y.img().signum() == 0 )
+				throw new ArithmeticException("can not divide by zero.");
+			return y.img().signum() == 0 ? x.divide(y.real()) : x.divide(y);
+		}
+		if( operator == EqualToToken.instance )
+			return valueOf( x.equals(y) );
+		if( operator == NotEqualToToken.instance )
+			return valueOf( !x.equals(y) );
+		if( operator == LessThanToken.instance )
+			return valueOf( compare(x, y) < 0 );
+		if( operator == GreaterThanToken.instance )
+			return valueOf( compare(x, y) > 0 );
+		if( operator == LessThanOrEqualToToken.instance )
+			return valueOf( compare(x, y) <= 0 );
+		if( operator == GreaterThanOrEqualToToken.instance )
+			return valueOf( compare(x, y) >= 0 );
+		throw new IllegalArgumentException("not a binary operator: \"" + operator.getLexeme() + "\"");
+	}
+	
+	public static boolean isZero(ComplexRational x) {
+		return x.real().signum() == 0 && x.img().signum() == 0;
+	}
+	
+	public static boolean isOne(ComplexRational x) {
+		return x.real().equals(BigRational.ONE) && x.img().signum() == 0;
+	}
+}
@@ -1,17 +1,34 @@
 package com.mathhead200.tuil;
 
 import java.awt.Color;
+import java.awt.Dimension;
 import java.awt.Font;
-import java.awt.GridLayout;
+import java.awt.FontMetrics;
+import java.awt.Graphics;
+import java.awt.Rectangle;
+import java.util.Arrays;
 
-import javax.swing.JLabel;
 import javax.swing.JPanel;
 
 
+/**
+ * A grid of characters, held as primitive arrays (a code point, and packed colors, per cell)
+ * and painted, a row at a time, by a single component using a monospaced font.
+ */
 @SuppressWarnings("serial")
 public class ScreenBuffer extends JPanel
 {
-	private JLabel[][] matrix;
+	// per cell: an int code point, and a long of packed colors
+	static final int CELL_BYTES = 4 + 8; // see Metrics
+	
+	private final int rows;
+	private final int cols;
+	private final int[] codePoints; // row-major
+	private final long[] colors; // the foreground's ARGB in the high 32 bits, the highlight's in the low 32 (or 0 for none)
+	
+	private final int cellWidth;
+	private final int cellHeight;
+	private final int ascent;
 	
 	private int caretRow = 0;
 	private int caretCol = 0;
@@ -19,8 +36,6 @@ public class ScreenBuffer extends JPanel
 	
 	
 	public ScreenBuffer(int rows, int cols, int size) {
-		super( new GridLayout(rows, cols) );
-		
 		if( rows <= 0 || cols <= 0 )
 			throw new IllegalArgumentException("buffer must be at least 1 by 1");
 		
@@ -29,18 +44,34 @@ public class ScreenBuffer extends JPanel
 		setForeground(Color.BLACK);
 		
 		Font font = new Font(Font.MONOSPACED, Font.PLAIN, size);
-		this.matrix = new JLabel[rows][cols];
-		for( int row = 0; row < matrix.length; row++ )
-			for( int col = 0; col < matrix[0].length; col++ ) {
-				matrix[row][col] = new JLabel(" ", JLabel.CENTER);
-				matrix[row][col].setFont(font);
-				
-				matrix[row][col].setOpaque(false);
-				matrix[row][col].setForeground( getForeground() );
-			}
+		setFont(font);
+		FontMetrics metrics = getFontMetrics(font);
+		this.cellWidth = Math.max( 1, metrics.charWidth('M') );
+		this.cellHeight = Math.max( 1, metrics.getHeight() );
+		this.ascent = metrics.getAscent();
+		
+		this.rows = rows;
+		this.cols = cols;
+		this.codePoints = new int[rows * cols];
+		this.colors = new long[rows * cols];
+		Arrays.fill(codePoints, ' ');
+		Arrays.fill( colors, pack(getForeground(), null) );
+		Metrics.screenBufferAllocated(this, rows, cols);
 	}
 	
 	
+	private static long pack(Color foreground, Color highlight) {
+		return (long) foreground.getRGB() << 32 | (highlight != null ? highlight.getRGB() & 0xFFFFFFFFL : 0);
+	}
+	
+	public int getRows() {
+		return rows;
+	}
+	
+	public int getColumns() {
+		return cols;
+	}
+	
 	public int getCaretRow() {
 		return caretRow;
 	}
@@ -50,7 +81,7 @@ public class ScreenBuffer extends JPanel
 	}
 	
 	public void setCaret(int row, int col) {
-		if( row < 0 || col < 0 ||row >= matrix.length || col >= matrix[0].length )
+		if( row < 0 || col < 0 ||row >= rows || col >= cols )
 			throw new IndexOutOfBoundsException("illegal caret position: " + row + "," + col);
 		caretRow = row;
 		caretCol = col;
@@ -66,29 +97,103 @@ public class ScreenBuffer extends JPanel
 	
 	
 	public void display(String text, int row, int col) {
-		if( row < 0 || col < 0 ||row >= matrix.length || col >= matrix[0].length )
+		if( row < 0 || col < 0 ||row >= rows || col >= cols )
 			throw new IndexOutOfBoundsException("illegal caret position: " + row + "," + col);
 		
-		for( int i = 0; i < text.length(); i++ ) {
-			if( highlight != null ) {
-				matrix[row][col].setOpaque(true);
-				matrix[row][col].setBackground(highlight);
-			} else {
-				matrix[row][col].setOpaque(false);
-			}
-			matrix[row][col].setForeground( getForeground() );
-			matrix[row][col].setText( Character.toString(text.charAt(i)) );
-			if( ++col == matrix[0].length ) {
+		Object trace = Trace.beginScreenFlush();
+		long packed = pack(getForeground(), highlight);
+		int firstRow = row, cells = 0;
+		boolean wrapped = false;
+		for( int i = 0; i < text.length(); ) {
+			int c = text.codePointAt(i);
+			i += Character.charCount(c);
+			codePoints[row * cols + col] = c;
+			colors[row * cols + col] = packed;
+			cells++;
+			if( ++col == cols ) {
 				col = 0;
-				if( ++row == matrix.length )
+				if( ++row == rows ) {
 					row = 0;
+					wrapped = true;
+				}
 			}
 		}
 		setCaret(row, col);
-		validate();
+		// repaint the rows written
+		if( wrapped )
+			repaint();
+		else
+			repaint( 0, firstRow * cellHeight, cols * cellWidth, (row - firstRow + 1) * cellHeight );
+		Trace.endScreenFlush(trace, cells);
 	}
 	
 	public void display(String text) {
 		display(text, caretRow, caretCol);
 	}
+	
+	
+	@Override
+	public Dimension getPreferredSize() {
+		if( isPreferredSizeSet() )
+			return super.getPreferredSize();
+		return new Dimension( cols * cellWidth, rows * cellHeight );
+	}
+	
+	@Override
+	protected void paintComponent(Graphics g) {
+		Rectangle clip = g.getClipBounds();
+		if( clip == null )
+			clip = new Rectangle( 0, 0, getWidth(), getHeight() );
+		g.setColor( getBackground() );
+		g.fillRect(clip.x, clip.y, clip.width, clip.height);
+		g.setFont( getFont() );
+		FontMetrics metrics = g.getFontMetrics();
+		
+		int first = Math.max( 0, clip.y / cellHeight );
+		int last = Math.min( rows - 1, (clip.y + clip.height - 1) / cellHeight );
+		char[] run = new char[2 * cols];
+		for( int row = first; row <= last; row++ ) {
+			int y = row * cellHeight;
+			int start = row * cols;
+			
+			// highlights, in runs of one color
+			for( int col = 0; col < cols; ) {
+				int h = (int) colors[start + col];
+				int end = col + 1;
+				while( end < cols && (int) colors[start + end] == h )
+					end++;
+				if( h != 0 ) {
+					g.setColor( new Color(h, true) );
+					g.fillRect( col * cellWidth, y, (end - col) * cellWidth, cellHeight );
+				}
+				col = end;
+			}
+			
+			// characters, in runs of one foreground color; a character not as wide as a cell is centered on its own
+			int n = 0, runCol = 0, runColor = 0;
+			for( int col = 0; col <= cols; col++ ) {
+				int c = col < cols ? codePoints[start + col] : ' ';
+				int fg = col < cols ? (int) (colors[start + col] >>> 32) : runColor;
+				boolean fits = (c >= ' ' && c <= '~') || metrics.charWidth(c) == cellWidth; // printable ASCII is, in a monospaced font
+				if( n > 0 && (fg != runColor || !fits || col == cols) ) {
+					g.setColor( new Color(runColor, true) );
+					g.drawChars(run, 0, n, runCol * cellWidth, y + ascent);
+					n = 0;
+				}
+				if( col == cols )
+					break;
+				if( !fits ) {
+					String s = new String( Character.toChars(c) );
+					g.setColor( new Color(fg, true) );
+					g.drawString( s, col * cellWidth + (cellWidth - metrics.stringWidth(s)) / 2, y + ascent );
+					continue;
+				}
+				if( n == 0 ) {
+					runCol = col;
+					runColor = fg;
+				}
+				n += Character.toChars(c, run, n);
+			}
+		}
+	}
 }
@@ -0,0 +1,93 @@
+package com.mathhead200.tuil;
+
+
+/**
+ * Where the lexer, parser, interpreter, and screen buffers report what they do.
+ * On a JVM with Flight Recorder (JDK 11+, or 8u262+) reports become JFR events (see com.mathhead200.tuil.jfr),
+ * which are enabled, thresholded, etc. through the standard JFR settings; otherwise they are ignored.
+ * Only this class refers to the JFR classes, and only by name, so everything else still runs on any Java 8 JVM.
+ * Setting the system property tuil.jfr to false also disables them.
+ */
+public final class Trace
+{
+	/**
+	 * Receives the reports. Each begin method returns a handle for the matching end method (or null to skip it.)
+	 * A source may be lexed in many short calls, interleaved with parsing: endLex gives the time spent scanning in all of them.
+	 */
+	public interface Recorder
+	{
+		Object beginLex();
+		void endLex(Object handle, String source, long bytes, long tokens, long nanos);
+		
+		Object beginParse();
+		void endParse(Object handle, long instructions);
+		
+		void instruction(String kind, int line);
+		
+		Object beginScreenFlush();
+		void endScreenFlush(Object handle, int cells);
+	}
+	
+	public static final Recorder NONE = new Recorder() {
+		public Object beginLex() { return null; }
+		public void endLex(Object handle, String source, long bytes, long tokens, long nanos) {}
+		public Object beginParse() { return null; }
+		public void endParse(Object handle, long instructions) {}
+		public void instruction(String kind, int line) {}
+		public Object beginScreenFlush() { return null; }
+		public void endScreenFlush(Object handle, int cells) {}
+	};
+	
+	// one of every this many interpreted instructions is reported
+	public static final int SAMPLE_INTERVAL = Math.max( 1, Integer.getInteger("tuil.trace.sampleInterval", 1024) );
+	
+	private static final Recorder recorder = load();
+	
+	private Trace() {
+	}
+	
+	private static Recorder load() {
+		if( !Boolean.parseBoolean(System.getProperty("tuil.jfr", "true")) )
+			return NONE;
+		try {
+			Class.forName("jdk.jfr.Event");
+			return (Recorder) Class.forName("com.mathhead200.tuil.jfr.JfrRecorder").getDeclaredConstructor().newInstance();
+		} catch(ReflectiveOperationException | LinkageError | RuntimeException e) {
+			return NONE; // no Flight Recorder on this JVM
+		}
+	}
+	
+	
+	public static Object beginLex() {
+		return recorder.beginLex();
+	}
+	
+	// source is the file's name (or null), and nanos the time spent scanning its tokens
+	public static void endLex(Object handle, String source, long bytes, long tokens, long nanos) {
+		if( handle != null )
+			recorder.endLex(handle, source, bytes, tokens, nanos);
+	}
+	
+	public static Object beginParse() {
+		return recorder.beginParse();
+	}
+	
+	public static void endParse(Object handle, long instructions) {
+		if( handle != null )
+			recorder.endParse(handle, instructions);
+	}
+	
+	// one sampled instruction, by kind and source line (or 0 if unknown)
+	public static void instruction(String kind, int line) {
+		recorder.instruction(kind, line);
+	}
+	
+	public static Object beginScreenFlush() {
+		return recorder.beginScreenFlush();
+	}
+	
+	public static void endScreenFlush(Object handle, int cells) {
+		if( handle != null )
+			recorder.endScreenFlush(handle, cells);
+	}
+}
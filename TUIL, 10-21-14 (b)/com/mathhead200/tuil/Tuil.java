@@ -1,30 +1,84 @@
 package com.mathhead200.tuil;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
 
 import javax.swing.JFrame;
+import javax.swing.SwingUtilities;
 
+import com.mathhead200.tuil.lexer.SymbolTable;
+import com.mathhead200.tuil.lexer.TuilBufferLexer;
+import com.mathhead200.tuil.parser.Instruction;
+import com.mathhead200.tuil.parser.ProgramCache;
+import com.mathhead200.tuil.parser.SourceLines;
+import com.mathhead200.tuil.parser.TuilParser;
+import com.mathhead200.tuil.runtime.Display;
+import com.mathhead200.tuil.runtime.Frame;
+import com.mathhead200.tuil.runtime.Profiler;
+import com.mathhead200.tuil.runtime.Program;
 
-public class Tuil
+
+public class Tuil implements Display
 {
 	private JFrame frame = new JFrame("TUIL");
-	private Map<String, ScreenBuffer> screens = new HashMap<>();
-	private Map<String, ComplexRational> numbers = new HashMap<>();
-	private Map<String, String> strings = new HashMap<>();
+	private final Program program;
+	private final Frame variables;
 	
 	
-	public Tuil() {
+	public Tuil(Program program) {
 		frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+		this.program = program;
+		this.variables = program.newFrame(this);
 	}
 	
 	
-	public static void main(String[] args) {
-		
-		Tuil tuil = new Tuil();
+	public void show(ScreenBuffer buffer) {
+		Metrics.screenUpdateQueued();
+		SwingUtilities.invokeLater(() -> {
+			frame.setContentPane(buffer);
+			frame.pack();
+			frame.setVisible(true);
+			Metrics.screenUpdateDone();
+		});
+	}
+	
+	public void run() {
+		program.run(variables);
+	}
+	
+	
+	public static void main(String[] args) throws IOException {
+		if( args.length != 1 ) {
+			System.err.println("usage: Tuil <file.tuil>");
+			System.exit(1);
+		}
 		
-		// TODO: stub
-		tuil.frame.setVisible(true);
+		Metrics.registerMBean();
+		Path source = Paths.get(args[0]);
+		SourceLines lines = new SourceLines();
+		List<Instruction> instructions;
+		// -Dtuil.cache=<directory> loads the program compiled (see ProgramCache), if it was already, rather than parsing it
+		String cache = System.getProperty("tuil.cache");
+		if( cache != null ) {
+			instructions = new ProgramCache( Paths.get(cache) ).load( source, new SymbolTable(), lines );
+		} else {
+			instructions = new ArrayList<>();
+			try( TuilParser parser = new TuilParser(TuilBufferLexer.map(source), lines) ) {
+				for( Instruction instr : parser )
+					instructions.add(instr);
+			}
+		}
 		
+		// -Dtuil.profile=<report file> runs the program profiled, writing the report (as CSV, if *.csv) on exit
+		String profile = System.getProperty("tuil.profile");
+		Profiler profiler = null;
+		if( profile != null ) {
+			profiler = new Profiler();
+			profiler.dumpOnExit( Paths.get(profile) );
+		}
+		new Tuil( Program.compile(instructions, lines, profiler) ).run();
 	}
 }
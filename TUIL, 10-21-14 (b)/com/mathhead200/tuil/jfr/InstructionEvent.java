@@ -0,0 +1,24 @@
+package com.mathhead200.tuil.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+
+@Name("com.mathhead200.tuil.Instruction")
+@Label("TUIL Instruction Sample")
+@Category("TUIL")
+@Description("One of every tuil.trace.sampleInterval instructions executed by the interpreter")
+@StackTrace(false)
+public final class InstructionEvent extends Event
+{
+	@Label("Kind")
+	String kind;
+	
+	@Label("Line")
+	@Description("Source line of the instruction, or 0 if unknown")
+	int line;
+}
@@ -0,0 +1,81 @@
+package com.mathhead200.tuil.jfr;
+
+import jdk.jfr.FlightRecorder;
+
+import com.mathhead200.tuil.Trace;
+
+
+/**
+ * Reports to Flight Recorder. Loaded by {@link Trace} (by name) only on a JVM which has it.
+ * An event which isn't enabled is dropped before it is begun, so costs no more than its (usually elided) allocation.
+ */
+public final class JfrRecorder implements Trace.Recorder
+{
+	public JfrRecorder() {
+		// so that they are listed (and configurable) before first used
+		FlightRecorder.register(LexEvent.class);
+		FlightRecorder.register(ParseEvent.class);
+		FlightRecorder.register(InstructionEvent.class);
+		FlightRecorder.register(ScreenFlushEvent.class);
+	}
+	
+	// not begun: its duration would include any parsing interleaved with the lexing
+	public Object beginLex() {
+		LexEvent event = new LexEvent();
+		return event.isEnabled() ? event : null;
+	}
+	
+	public void endLex(Object handle, String source, long bytes, long tokens, long nanos) {
+		LexEvent event = (LexEvent) handle;
+		if( event.shouldCommit() ) {
+			event.source = source;
+			event.bytes = bytes;
+			event.tokens = tokens;
+			event.scanTime = nanos;
+			event.commit();
+		}
+	}
+	
+	public Object beginParse() {
+		ParseEvent event = new ParseEvent();
+		if( !event.isEnabled() )
+			return null;
+		event.begin();
+		return event;
+	}
+	
+	public void endParse(Object handle, long instructions) {
+		ParseEvent event = (ParseEvent) handle;
+		event.end();
+		if( event.shouldCommit() ) {
+			event.instructions = instructions;
+			event.commit();
+		}
+	}
+	
+	public void instruction(String kind, int line) {
+		InstructionEvent event = new InstructionEvent();
+		if( event.shouldCommit() ) {
+			event.kind = kind;
+			event.line = line;
+			event.commit();
+		}
+	}
+	
+	public Object beginScreenFlush() {
+		ScreenFlushEvent event = new ScreenFlushEvent();
+		if( !event.isEnabled() )
+			return null;
+		event.begin();
+		return event;
+	}
+	
+	public void endScreenFlush(Object handle, int cells) {
+		ScreenFlushEvent event = (ScreenFlushEvent) handle;
+		event.end();
+		if( event.shouldCommit() ) {
+			event.cells = cells;
+			event.commit();
+		}
+	}
+}
@@ -0,0 +1,35 @@
+package com.mathhead200.tuil.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+
+@Name("com.mathhead200.tuil.Lex")
+@Label("TUIL Lex")
+@Category("TUIL")
+@Description("A source lexed; Scan Time is the time spent scanning it, not counting any parsing interleaved with the lexing")
+@StackTrace(false)
+public final class LexEvent extends Event
+{
+	@Label("Source")
+	@Description("The file lexed, if any")
+	String source;
+	
+	@Label("Bytes")
+	@Description("The size of the file, if any")
+	@DataAmount
+	long bytes;
+	
+	@Label("Tokens")
+	long tokens;
+	
+	@Label("Scan Time")
+	@Timespan(Timespan.NANOSECONDS)
+	long scanTime;
+}
@@ -0,0 +1,21 @@
+package com.mathhead200.tuil.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+
+@Name("com.mathhead200.tuil.Parse")
+@Label("TUIL Parse")
+@Category("TUIL")
+@Description("A program parsed, from its first instruction to the end of its source")
+@StackTrace(false)
+public final class ParseEvent extends Event
+{
+	@Label("Instructions")
+	@Description("Top-level instructions parsed")
+	long instructions;
+}
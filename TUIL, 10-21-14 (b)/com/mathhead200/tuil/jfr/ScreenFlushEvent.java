@@ -0,0 +1,20 @@
+package com.mathhead200.tuil.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+
+@Name("com.mathhead200.tuil.ScreenFlush")
+@Label("TUIL Screen Flush")
+@Category("TUIL")
+@Description("Text written to a screen buffer")
+@StackTrace(false)
+public final class ScreenFlushEvent extends Event
+{
+	@Label("Cells Changed")
+	int cells;
+}
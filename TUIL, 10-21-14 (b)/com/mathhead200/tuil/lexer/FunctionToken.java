@@ -6,17 +6,28 @@ import java.io.Reader;
 
 public class FunctionToken implements Token
 {	
-	private String name;
+	private final Symbol symbol;
 	
-	private FunctionToken(String name) {
-		this.name = name;
+	private FunctionToken(Symbol symbol) {
+		this.symbol = symbol;
 	}
 	
-	public static FunctionToken extract(Reader reader) throws IOException {
-		return new FunctionToken( IdentifierToken.extract(reader).getLexeme() );
+	public static FunctionToken of(Symbol symbol) {
+		if( symbol.function == null )
+			symbol.function = new FunctionToken(symbol);
+		return symbol.function;
 	}
-
+	
+	public static FunctionToken extract(Reader reader, SymbolTable symbols) throws IOException {
+		IdentifierToken identifier = IdentifierToken.extract(reader, symbols);
+		return identifier != null ? of(identifier.getSymbol()) : null;
+	}
+	
+	public Symbol getSymbol() {
+		return symbol;
+	}
+	
 	public String getLexeme() {
-		return "$" + name;
+		return "$" + symbol.name;
 	}
 }
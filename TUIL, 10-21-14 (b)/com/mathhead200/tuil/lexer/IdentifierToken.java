@@ -8,13 +8,20 @@ import com.mathhead200.tuil.parser.Argument;
 
 public class IdentifierToken implements Token, Argument
 {
-	private String lexeme;
+	private final Symbol symbol;
 	
-	private IdentifierToken(String lexeme) {
-		this.lexeme = lexeme;
+	private IdentifierToken(Symbol symbol) {
+		this.symbol = symbol;
 	}
 	
-	public static IdentifierToken extract(Reader reader) throws IOException {
+	// every occurrence of a name shares one token
+	public static IdentifierToken of(Symbol symbol) {
+		if( symbol.identifier == null )
+			symbol.identifier = new IdentifierToken(symbol);
+		return symbol.identifier;
+	}
+	
+	public static IdentifierToken extract(Reader reader, SymbolTable symbols) throws IOException {
 		StringBuilder lexeme = new StringBuilder();
 		int c;
 		while(true) {
@@ -28,10 +35,25 @@ public class IdentifierToken implements Token, Argument
 			}
 			lexeme.append((char) c);
 		}
-		return new IdentifierToken( lexeme.toString() );
+		return of( symbols.intern(lexeme) );
+	}
+	
+	static int scan(CharSequence source, int start) {
+		int i = start;
+		while( i < source.length() ) {
+			char c = source.charAt(i);
+			if( !(Character.isLetterOrDigit(c) || c == '_') )
+				break;
+			i++;
+		}
+		return i;
+	}
+	
+	public Symbol getSymbol() {
+		return symbol;
 	}
 	
 	public String getLexeme() {
-		return lexeme;
+		return symbol.name;
 	}
 }
@@ -0,0 +1,42 @@
+package com.mathhead200.tuil.lexer;
+
+import com.mathhead200.tuil.Trace;
+
+
+/**
+ * A Lex report (see {@link Trace#beginLex}) in progress: the time spent scanning tokens, added up
+ * across however many calls the source is lexed in, so a lexer pulled by the parser isn't charged for parsing.
+ * Only exists while Lex reports are enabled.
+ */
+final class LexTrace
+{
+	private final Object handle;
+	String name = null; // of the file lexed, if any
+	long bytes = 0; // of the file
+	private long tokens = 0;
+	private long nanos = 0;
+	private boolean ended = false;
+	
+	private LexTrace(Object handle) {
+		this.handle = handle;
+	}
+	
+	// or null, if Lex reports are disabled
+	static LexTrace begin() {
+		Object handle = Trace.beginLex();
+		return handle != null ? new LexTrace(handle) : null;
+	}
+	
+	// adds the time since start (a System.nanoTime()) spent scanning the given number of tokens
+	void scanned(long start, long count) {
+		nanos += System.nanoTime() - start;
+		tokens += count;
+	}
+	
+	void end() {
+		if( !ended ) {
+			ended = true;
+			Trace.endLex(handle, name, bytes, tokens, nanos);
+		}
+	}
+}
@@ -2,6 +2,7 @@ package com.mathhead200.tuil.lexer;
 
 import java.io.IOException;
 import java.io.Reader;
+import java.math.BigInteger;
 
 import com.mathhead200.BigRational;
 import com.mathhead200.tuil.ComplexRational;
@@ -10,12 +11,46 @@ import com.mathhead200.tuil.parser.Argument;
 
 public class NumberToken implements Token, Argument
 {
-	private String lexeme;
+	// literals of at most this many digits fit in a long
+	private static final int MAX_LONG_DIGITS = 18;
+	private static final long[] powersOfTen = new long[MAX_LONG_DIGITS + 1];
+	static {
+		powersOfTen[0] = 1;
+		for( int i = 1; i < powersOfTen.length; i++ )
+			powersOfTen[i] = powersOfTen[i - 1] * 10;
+	}
+	
+	private String lexeme; // or null, for a computed value, until asked for
+	private ComplexRational value = null;
 	
 	private NumberToken(String lexeme) {
 		this.lexeme = lexeme;
 	}
 	
+	// copies the literal out of the lexer's source buffer, so the token doesn't keep the whole buffer alive
+	NumberToken(CharSequence source, int start, int end) {
+		this( source.subSequence(start, end).toString() );
+	}
+	
+	private NumberToken(String lexeme, ComplexRational value) {
+		this(lexeme);
+		this.value = value;
+	}
+	
+	private NumberToken(ComplexRational value) {
+		this.value = value;
+	}
+	
+	// a token standing for an already computed value (e.g. a folded constant); its lexeme is built only if asked for
+	public static NumberToken valueOf(ComplexRational value) {
+		return new NumberToken(value);
+	}
+	
+	// a literal whose value has already been parsed
+	public static NumberToken valueOf(String lexeme, ComplexRational value) {
+		return new NumberToken(lexeme, value);
+	}
+	
 	public static NumberToken extract(Reader reader) throws IOException {
 		StringBuilder lexeme = new StringBuilder();
 		boolean hasDecimalPoint = false;
@@ -44,18 +79,85 @@ public class NumberToken implements Token, Argument
 		return new NumberToken( lexeme.toString() );
 	}
 	
+	static int scan(CharSequence source, int start) {
+		boolean hasDecimalPoint = false;
+		int i = start;
+		while( i < source.length() ) {
+			char c = source.charAt(i);
+			if( c == 'i' )
+				return i + 1;
+			if( c == '.' ) {
+				if( hasDecimalPoint )
+					break;
+				hasDecimalPoint = true;
+			} else if( !Character.isDigit(c) )
+				break;
+			i++;
+		}
+		return i;
+	}
+	
+	// TUIL source for a value, as a literal if it is one, e.g. 12 or 3i; otherwise as an expression, e.g. (0 - (1 / 3))
+	// (a decimal expansion, e.g. of 1/99999989, may repeat in blocks as long as the denominator)
+	private static String format(ComplexRational value) {
+		BigRational a = value.real(), b = value.img();
+		if( b.signum() == 0 )
+			return format(a, "");
+		if( a.signum() == 0 )
+			return format(b, "i");
+		return "(" + format(a, "") + " + " + format(b, "i") + ")";
+	}
+	
+	private static String format(BigRational x, String suffix) {
+		if( x.signum() < 0 )
+			return "(0 - " + format(x.negate(), suffix) + ")";
+		String numerator = x.numerator().toString() + suffix;
+		if( x.denominator().equals(BigInteger.ONE) )
+			return numerator;
+		return "(" + numerator + " / " + x.denominator() + ")";
+	}
+	
 	public String getLexeme() {
+		if( lexeme == null )
+			lexeme = format(value);
 		return lexeme;
 	}
 	
+	// parses the literal at most once
 	public ComplexRational parseValue() {
-		if( lexeme.charAt(lexeme.length() - 1) == 'i' ) {
-			// imaginary number
-			return new ComplexRational( BigRational.ZERO,
-					new BigRational(lexeme.substring(0, lexeme.length() - 1)) );
-		} else {
-			// real number
-			return new ComplexRational( new BigRational(lexeme), BigRational.ZERO );
+		if( value == null ) {
+			int end = lexeme.length();
+			boolean imaginary = lexeme.charAt(end - 1) == 'i';
+			if( imaginary )
+				end--;
+			BigRational x = parseLong(lexeme, 0, end);
+			if( x == null )
+				x = new BigRational( lexeme.substring(0, end) );
+			value = imaginary ? new ComplexRational(BigRational.ZERO, x) : new ComplexRational(x, BigRational.ZERO);
+		}
+		return value;
+	}
+	
+	// fast path for (decimal) literals whose digits fit in a long; or null if they don't
+	private static BigRational parseLong(CharSequence source, int start, int end) {
+		long digits = 0;
+		int count = 0;
+		int scale = -1; // digits after the decimal point
+		for( int i = start; i < end; i++ ) {
+			char c = source.charAt(i);
+			if( c == '.' ) {
+				scale = 0;
+				continue;
+			}
+			if( c < '0' || c > '9' || count == MAX_LONG_DIGITS )
+				return null;
+			digits = 10 * digits + (c - '0');
+			count++;
+			if( scale >= 0 )
+				scale++;
 		}
+		if( count == 0 )
+			return null;
+		return BigRational.valueOf( digits, powersOfTen[Math.max(scale, 0)] );
 	}
 }
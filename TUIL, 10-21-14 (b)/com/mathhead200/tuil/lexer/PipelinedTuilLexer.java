@@ -0,0 +1,188 @@
+package com.mathhead200.tuil.lexer;
+
+import java.io.IOException;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+
+/**
+ * A {@link TuilLexer} which runs another lexer on its own thread, so that reading and lexing
+ * overlap with parsing. Tokens are handed over in batches through a bounded, lock-free,
+ * single-producer/single-consumer ring buffer: the lexing thread waits when the ring is full,
+ * and the parsing thread when it is empty. Anything thrown while lexing (a {@link LexerException}, or even an Error)
+ * is rethrown to the parsing thread as a LexerException, in order, once it reaches that point in the token stream.
+ */
+public class PipelinedTuilLexer extends TuilLexer
+{
+	public static final int DEFAULT_BATCH_SIZE = 256;
+	public static final int DEFAULT_CAPACITY = 64; // batches
+	
+	private static final long WAIT_NANOS = 50_000;
+	
+	// some tokens, and the line of each; then possibly the failure which ended the token stream
+	private static class Batch
+	{
+		final Token[] tokens;
+		final int[] lines;
+		int count = 0;
+		Throwable failure = null;
+		
+		Batch(int size) {
+			this.tokens = new Token[size];
+			this.lines = new int[size];
+		}
+	}
+	
+	// marks the end of the token stream
+	private static final Batch END = new Batch(0);
+	
+	private final TuilLexer lexer;
+	private final int batchSize;
+	private final Thread producer;
+	private volatile boolean closed = false;
+	
+	// ring buffer; head is only written by the consumer, tail only by the producer
+	private final Batch[] ring;
+	private final int mask;
+	private final AtomicLong head = new AtomicLong();
+	private final AtomicLong tail = new AtomicLong();
+	private volatile Thread waiting = null; // at most one side waits at a time (the ring can't be both full and empty)
+	
+	// consumer side
+	private Batch batch = null;
+	private int index = 0;
+	private int line = 0;
+	
+	public PipelinedTuilLexer(TuilLexer lexer, ThreadFactory threadFactory, int batchSize, int capacity) {
+		super( lexer.getSymbolTable() );
+		if( batchSize <= 0 || capacity <= 0 )
+			throw new IllegalArgumentException("batch size and capacity must be positive");
+		this.lexer = lexer;
+		this.batchSize = batchSize;
+		int size = 1;
+		while( size < capacity )
+			size <<= 1;
+		this.ring = new Batch[size];
+		this.mask = size - 1;
+		this.producer = threadFactory.newThread(this::produce);
+		producer.start();
+	}
+	
+	public PipelinedTuilLexer(TuilLexer lexer, ThreadFactory threadFactory) {
+		this(lexer, threadFactory, DEFAULT_BATCH_SIZE, DEFAULT_CAPACITY);
+	}
+	
+	public PipelinedTuilLexer(TuilLexer lexer) {
+		this(lexer, runnable -> {
+			Thread thread = new Thread(runnable, "TuilLexer");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+	
+	
+	// producer:
+	
+	// always ends the token stream, with END or a failure, so the consumer never waits for a producer that's gone
+	private void produce() {
+		Batch batch = new Batch(batchSize); // not yet handed over
+		try {
+			while( !closed && lexer.hasNext() ) {
+				batch.tokens[batch.count] = lexer.next();
+				batch.lines[batch.count] = lexer.getLine();
+				if( ++batch.count == batchSize ) {
+					Batch full = batch;
+					batch = new Batch(batchSize);
+					put(full);
+				}
+			}
+			Batch last = batch;
+			batch = new Batch(0);
+			if( last.count > 0 )
+				put(last);
+			put(END);
+		} catch(Throwable e) {
+			batch.failure = e;
+			put(batch);
+		} finally {
+			try {
+				lexer.close();
+			} catch(IOException e) {
+				// nothing left to report it to
+			}
+		}
+	}
+	
+	private void put(Batch batch) {
+		long t = tail.get();
+		while( t - head.get() == ring.length ) { // full
+			if( closed )
+				return;
+			await();
+		}
+		ring[(int) t & mask] = batch;
+		tail.lazySet(t + 1);
+		wake();
+	}
+	
+	
+	// consumer:
+	
+	private Batch take() {
+		long h = head.get();
+		while( h == tail.get() ) // empty
+			await();
+		Batch batch = ring[(int) h & mask];
+		ring[(int) h & mask] = null;
+		head.lazySet(h + 1);
+		wake();
+		return batch;
+	}
+	
+	private void await() {
+		waiting = Thread.currentThread();
+		LockSupport.parkNanos(this, WAIT_NANOS);
+		waiting = null;
+	}
+	
+	private void wake() {
+		Thread thread = waiting;
+		if( thread != null )
+			LockSupport.unpark(thread);
+	}
+	
+	public boolean hasNext() {
+		while( batch == null || index == batch.count ) {
+			if( batch != null && batch.failure != null )
+				throw new LexerException( batch.failure instanceof RuntimeException ? batch.failure.getMessage() : batch.failure.toString(), batch.failure );
+			if( batch == END || closed )
+				return false;
+			batch = take();
+			index = 0;
+		}
+		return true;
+	}
+	
+	public Token next() {
+		if( !hasNext() )
+			throw new NoSuchElementException();
+		line = batch.lines[index];
+		return batch.tokens[index++];
+	}
+	
+	public int getLine() {
+		return line;
+	}
+	
+	public void close() throws IOException {
+		closed = true;
+		LockSupport.unpark(producer);
+		try {
+			producer.join();
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
@@ -0,0 +1,321 @@
+package com.mathhead200.tuil.lexer;
+
+import static com.mathhead200.tuil.lexer.TokenStream.*;
+
+
+// Scans a CharSequence by index, one lexeme at a time, reporting the kind
+// and extent of each token without allocating it. Shared by TuilBufferLexer and TokenStream.
+class SourceScanner
+{
+	// character classes, beyond the token kinds (which double as the class of single-character tokens)
+	private static final byte SPACE = 21;
+	private static final byte NEWLINE = 22;
+	private static final byte COMMENT = 23;
+	private static final byte BANG = 24;
+	private static final byte INVALID = 25;
+	
+	// class of each ASCII character
+	private static final byte[] classes = new byte[128];
+	
+	// can this ASCII character continue an identifier?
+	private static final boolean[] identifierPart = new boolean[128];
+	
+	// transitions of the two-character operators: given the class of the first character,
+	// the token kind when followed by '=', and the token kind when alone (-1 if an error)
+	private static final byte[] withEquals = new byte[INVALID + 1];
+	private static final byte[] alone = new byte[INVALID + 1];
+	
+	static {
+		for( char c = 0; c < classes.length; c++ ) {
+			byte cls;
+			if( c == '#' )
+				cls = COMMENT;
+			else if( c == '\n' )
+				cls = NEWLINE;
+			else if( Character.isWhitespace(c) )
+				cls = SPACE;
+			else if( Character.isAlphabetic(c) || c == '_' )
+				cls = IDENTIFIER;
+			else if( Character.isDigit(c) || c == '.' )
+				cls = NUMBER;
+			else {
+				switch(c) {
+					case '"': cls = STRING; break;
+					case '$': cls = FUNCTION; break;
+					case '(': cls = OPEN_PARENTHESIS; break;
+					case ')': cls = CLOSE_PARENTHESIS; break;
+					case '{': cls = OPEN_BRACE; break;
+					case '}': cls = CLOSE_BRACE; break;
+					case '[': cls = OPEN_BRACKET; break;
+					case ']': cls = CLOSE_BRACKET; break;
+					case '+': cls = PLUS; break;
+					case '-': cls = MINUS; break;
+					case '*': cls = TIMES; break;
+					case '/': cls = DIVIDE; break;
+					case '=': cls = EQUAL_TO; break;
+					case '!': cls = BANG; break;
+					case '<': cls = LESS_THAN; break;
+					case '>': cls = GREATER_THAN; break;
+					case ';': cls = TERMINATOR; break;
+					default: cls = INVALID;
+				}
+			}
+			classes[c] = cls;
+			identifierPart[c] = Character.isLetterOrDigit(c) || c == '_';
+		}
+		withEquals[LESS_THAN] = LESS_THAN_OR_EQUAL_TO;
+		withEquals[GREATER_THAN] = GREATER_THAN_OR_EQUAL_TO;
+		withEquals[BANG] = NOT_EQUAL_TO;
+		alone[LESS_THAN] = LESS_THAN;
+		alone[GREATER_THAN] = GREATER_THAN;
+		alone[BANG] = -1;
+	}
+	
+	final CharSequence source;
+	final int limit; // scanning stops before any token which would start here or later
+	final boolean tableDriven;
+	int position;
+	int line;
+	
+	// extent of the last scanned token
+	int start;
+	int end;
+	int startLine;
+	
+	SourceScanner(CharSequence source, int position, int limit, int line, boolean tableDriven) {
+		this.source = source;
+		this.position = position;
+		this.limit = limit;
+		this.line = line;
+		this.tableDriven = tableDriven;
+	}
+	
+	SourceScanner(CharSequence source) {
+		this(source, 0, source.length(), 1, true);
+	}
+	
+	// returns the kind of the next token, or -1 at the end of the source
+	int scan() {
+		return tableDriven ? scanByTable() : scanByChain();
+	}
+	
+	// class of a non-ASCII character (slow path)
+	private static byte classOf(char c) {
+		if( Character.isWhitespace(c) )
+			return SPACE;
+		if( Character.isAlphabetic(c) )
+			return IDENTIFIER;
+		if( Character.isDigit(c) )
+			return NUMBER;
+		return INVALID;
+	}
+	
+	private static int scanIdentifier(CharSequence source, int i) {
+		final int length = source.length();
+		while( i < length ) {
+			char c = source.charAt(i);
+			if( c < 128 ? !identifierPart[c] : !Character.isLetterOrDigit(c) )
+				break;
+			i++;
+		}
+		return i;
+	}
+	
+	private static int scanNumber(CharSequence source, int i) {
+		final int length = source.length();
+		boolean hasDecimalPoint = false;
+		while( i < length ) {
+			char c = source.charAt(i);
+			if( c == 'i' )
+				return i + 1;
+			if( c == '.' ) {
+				if( hasDecimalPoint )
+					break;
+				hasDecimalPoint = true;
+			} else if( c < 128 ? (c < '0' || c > '9') : !Character.isDigit(c) )
+				break;
+			i++;
+		}
+		return i;
+	}
+	
+	// dispatches on a precomputed class table for ASCII input,
+	// with Unicode-aware checks only for non-ASCII characters
+	private int scanByTable() {
+		final CharSequence source = this.source;
+		final int length = source.length();
+		int i = position;
+		char c;
+		byte cls;
+		
+		// skip leading whitespace and comments
+		while(true) {
+			if( i >= limit ) {
+				position = i;
+				return -1;
+			}
+			c = source.charAt(i);
+			cls = c < 128 ? classes[c] : classOf(c);
+			if( cls == SPACE )
+				i++;
+			else if( cls == NEWLINE ) {
+				line++;
+				i++;
+			} else if( cls == COMMENT ) {
+				while( i < length && source.charAt(i) != '\n' )
+					i++;
+			} else
+				break;
+		}
+		
+		// read next lexeme
+		start = i++;
+		startLine = line;
+		int kind;
+		switch(cls) {
+			case IDENTIFIER:
+				i = scanIdentifier(source, i);
+				kind = IDENTIFIER;
+				break;
+			case NUMBER:
+				i = scanNumber(source, start);
+				kind = NUMBER;
+				break;
+			case STRING:
+				i = StringToken.scan(source, i);
+				if( i < 0 )
+					throw new LexerException("Unexpected end of file.");
+				for( int j = start; j < i; j++ )
+					if( source.charAt(j) == '\n' )
+						line++;
+				kind = STRING;
+				break;
+			case FUNCTION:
+				i = scanIdentifier(source, i);
+				kind = FUNCTION;
+				break;
+			case LESS_THAN:
+			case GREATER_THAN:
+			case BANG:
+				if( i < length && source.charAt(i) == '=' ) {
+					i++;
+					kind = withEquals[cls];
+				} else {
+					kind = alone[cls];
+					if( kind < 0 )
+						throw new LexerException("'" + c + "' not followed by '='");
+				}
+				break;
+			case INVALID:
+				throw new LexerException("Not a valid token: " + (int) c);
+			default:
+				// single-character token
+				kind = cls;
+		}
+		
+		end = position = i;
+		return kind;
+	}
+	
+	// dispatches with an if/else chain of Unicode-aware checks;
+	// kept as the reference implementation for the table-driven scanner
+	private int scanByChain() {
+		final CharSequence source = this.source;
+		final int length = source.length();
+		int i = position;
+		char c;
+		
+		// skip leading whitespace and comments
+		while(true) {
+			if( i >= limit ) {
+				position = i;
+				return -1;
+			}
+			c = source.charAt(i);
+			if( c == '#' ) {
+				while( i < length && source.charAt(i) != '\n' )
+					i++;
+			} else if( Character.isWhitespace(c) ) {
+				if( c == '\n' )
+					line++;
+				i++;
+			} else
+				break;
+		}
+		
+		// read next lexeme
+		start = i++;
+		startLine = line;
+		int kind;
+		if( Character.isAlphabetic(c) || c == '_' ) {
+			// identifier
+			i = IdentifierToken.scan(source, start);
+			kind = IDENTIFIER;
+		} else if( Character.isDigit(c) || c == '.' ) {
+			// number
+			i = NumberToken.scan(source, start);
+			kind = NUMBER;
+		} else if( c == '"' ) {
+			// string
+			i = StringToken.scan(source, i);
+			if( i < 0 )
+				throw new LexerException("Unexpected end of file.");
+			for( int j = start; j < i; j++ )
+				if( source.charAt(j) == '\n' )
+					line++;
+			kind = STRING;
+		} else if( c == '(' ) {
+			kind = OPEN_PARENTHESIS;
+		} else if( c == ')' ) {
+			kind = CLOSE_PARENTHESIS;
+		} else if( c == '{' ) {
+			kind = OPEN_BRACE;
+		} else if( c == '}' ) {
+			kind = CLOSE_BRACE;
+		} else if( c == '[' ) {
+			kind = OPEN_BRACKET;
+		} else if( c == ']' ) {
+			kind = CLOSE_BRACKET;
+		} else if( c == '+' ) {
+			kind = PLUS;
+		} else if( c == '-' ) {
+			kind = MINUS;
+		} else if( c == '*' ) {
+			kind = TIMES;
+		} else if( c == '/' ) {
+			kind = DIVIDE;
+		} else if( c == '=' ) {
+			kind = EQUAL_TO;
+		} else if( c == '!' ) {
+			if( i < length && source.charAt(i) == '=' ) {
+				i++;
+				kind = NOT_EQUAL_TO;
+			} else
+				throw new LexerException("'!' not followed by '='");
+		} else if( c == '<' ) {
+			if( i < length && source.charAt(i) == '=' ) {
+				i++;
+				kind = LESS_THAN_OR_EQUAL_TO;
+			} else
+				kind = LESS_THAN;
+		} else if( c == '>' ) {
+			if( i < length && source.charAt(i) == '=' ) {
+				i++;
+				kind = GREATER_THAN_OR_EQUAL_TO;
+			} else
+				kind = GREATER_THAN;
+		} else if( c == '$' ) {
+			// function
+			i = IdentifierToken.scan(source, i);
+			kind = FUNCTION;
+		} else if( c == ';' ) {
+			kind = TERMINATOR;
+		} else {
+			// Error: invalid token
+			throw new LexerException("Not a valid token: " + (int) c);
+		}
+		
+		end = position = i;
+		return kind;
+	}
+}
@@ -4,72 +4,127 @@ import java.io.IOException;
 import java.io.Reader;
 
 import com.mathhead200.tuil.parser.Argument;
-import com.mathhead200.tuil.parser.ParseException;
 
 
 public class StringToken implements Token, Argument
 {
-	private String text;
+	private String value;
 	
-	private StringToken(String text) {
-		this.text = text;
+	private StringToken(String value) {
+		this.value = value;
+	}
+	
+	// from the raw literal, including quotes, of the lexer's source buffer; keeping only the value, not the buffer
+	StringToken(CharSequence source, int start, int end) {
+		this.value = decode(source, start + 1, end - 1);
+	}
+	
+	public static StringToken valueOf(String value) {
+		return new StringToken(value);
 	}
 	
 	public static StringToken extract(Reader reader) throws IOException {
-		StringBuilder text = new StringBuilder();
+		StringBuilder value = new StringBuilder();
 		int c;
-		boolean escaped = false;
 		while(true) {
 			c = reader.read();
 			if( c < 0 )
 				return null;
+			if( c == '"' )
+				break;
+			if( c == '\\' ) {
+				c = reader.read();
+				if( c < 0 )
+					return null;
+				c = unescape((char) c);
+			}
+			value.append((char) c);
+		}
+		return new StringToken( value.toString() );
+	}
+	
+	// scans from just after the opening quote;
+	// returns the index just after the closing quote, or -1 if the string is unterminated
+	static int scan(CharSequence source, int start) {
+		boolean escaped = false;
+		for( int i = start; i < source.length(); i++ ) {
+			char c = source.charAt(i);
 			if( escaped )
 				escaped = false;
-			else { // !escaped
-				if( c == '"' )
-					break;
-				if( c == '\\' )
-					escaped = true;
-			}
-			text.append((char) c);
+			else if( c == '"' )
+				return i + 1;
+			else if( c == '\\' )
+				escaped = true;
 		}
-		return new StringToken( text.toString() );
+		return -1;
 	}
 	
-	public String getLexeme() {
-		return "\"" + text + "\"";
+	private static char unescape(char c) {
+		switch(c) {
+			case '\\':
+			case '"':
+				return c;
+			case 'b':
+			case '\b':
+				return '\b';
+			case 'f':
+			case '\f':
+				return '\f';
+			case 'n':
+			case '\n':
+				return '\n';
+			case 'r':
+			case '\r':
+				return '\r';
+			case 't':
+			case '\t':
+				return '\t';
+			default:
+				throw new LexerException("Illegal escape character: " + c);
+		}
 	}
 	
-	public String parseValue() {
-		StringBuilder str = new StringBuilder(text.length());
-		boolean escaped = false;
-		for( int i = 0; i < text.length(); i++ ) {
-			char c = text.charAt(i);
-			if( escaped ) {
-				if( c == '\\' )
-					str.append('\\');
-				else if( c == '"' )
-					str.append('"');
-				else if( c == '\b' )
-					str.append('\b');
-				else if( c == '\f' )
-					str.append('\f');
-				else if( c == '\n' )
-					str.append('\n');
-				else if( c == '\r' )
-					str.append('\r');
-				else if( c == '\t' )
-					str.append('\t');
-				else
-					throw new ParseException("Illegal escape character: " + c);
-				escaped = false;
-			} else { // !escaped
-				if( c == '\\' )
-					escaped = true;
-				else
-					str.append((char) c);
+	// decodes the text between the quotes in a single pass; without any copying if there are no escapes
+	private static String decode(CharSequence source, int start, int end) {
+		int i = start;
+		while( i < end && source.charAt(i) != '\\' )
+			i++;
+		if( i == end )
+			return source.subSequence(start, end).toString();
+		
+		StringBuilder value = new StringBuilder(end - start);
+		value.append(source, start, i);
+		while( i < end ) {
+			char c = source.charAt(i++);
+			if( c == '\\' )
+				c = unescape( source.charAt(i++) );
+			value.append(c);
+		}
+		return value.toString();
+	}
+	
+	// the value, re-escaped (so not always as written, e.g. a line break in the literal becomes \n)
+	public String getLexeme() {
+		StringBuilder lexeme = new StringBuilder( value.length() + 2 );
+		lexeme.append('"');
+		for( int i = 0; i < value.length(); i++ ) {
+			char c = value.charAt(i);
+			switch(c) {
+				case '\\': lexeme.append("\\\\"); break;
+				case '"': lexeme.append("\\\""); break;
+				case '\b': lexeme.append("\\b"); break;
+				case '\f': lexeme.append("\\f"); break;
+				case '\n': lexeme.append("\\n"); break;
+				case '\r': lexeme.append("\\r"); break;
+				case '\t': lexeme.append("\\t"); break;
+				default: lexeme.append(c);
 			}
 		}
-		return str.toString();
+		lexeme.append('"');
+		return lexeme.toString();
+	}
+	
+	public String parseValue() {
+		return value;
 	}
 }
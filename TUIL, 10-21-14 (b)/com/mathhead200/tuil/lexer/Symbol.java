@@ -0,0 +1,46 @@
+package com.mathhead200.tuil.lexer;
+
+import java.util.Locale;
+
+
+/**
+ * An interned identifier or function name. Within one {@link SymbolTable}
+ * each distinct name has exactly one <code>Symbol</code>, so symbols (or their ids)
+ * may be compared by identity.
+ */
+public class Symbol
+{
+	public final int id;
+	public final String name;
+	
+	final int hash;
+	private String upperCaseName = null;
+	IdentifierToken identifier = null;
+	FunctionToken function = null;
+	
+	Symbol(int id, String name, int hash) {
+		this.id = id;
+		this.name = name;
+		this.hash = hash;
+	}
+	
+	// for case-insensitive comparisons, e.g. of keywords; computed once per symbol
+	public String getUpperCaseName() {
+		if( upperCaseName == null )
+			upperCaseName = name.toUpperCase(Locale.ROOT);
+		return upperCaseName;
+	}
+	
+	boolean matches(CharSequence source, int start, int end) {
+		if( end - start != name.length() )
+			return false;
+		for( int i = start; i < end; i++ )
+			if( source.charAt(i) != name.charAt(i - start) )
+				return false;
+		return true;
+	}
+	
+	public String toString() {
+		return name;
+	}
+}
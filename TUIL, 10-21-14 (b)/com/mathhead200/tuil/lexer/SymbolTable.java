@@ -0,0 +1,76 @@
+package com.mathhead200.tuil.lexer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+
+/**
+ * Interns the identifier and function names of one compilation to small integer ids.
+ * Names may be interned straight from a slice of the source, so a repeated name
+ * costs neither a new <code>String</code> nor a new {@link Symbol}.
+ */
+public class SymbolTable implements Iterable<Symbol>
+{
+	private Symbol[] table = new Symbol[64]; // open addressing, linear probing
+	private List<Symbol> symbols = new ArrayList<>();
+	
+	private static int hash(CharSequence source, int start, int end) {
+		int hash = 0; // same as String.hashCode()
+		for( int i = start; i < end; i++ )
+			hash = 31 * hash + source.charAt(i);
+		return hash;
+	}
+	
+	private static int spread(int hash) {
+		return hash ^ (hash >>> 16);
+	}
+	
+	private void grow() {
+		Symbol[] old = table;
+		table = new Symbol[old.length * 2];
+		int mask = table.length - 1;
+		for( Symbol symbol : old )
+			if( symbol != null ) {
+				int i = spread(symbol.hash) & mask;
+				while( table[i] != null )
+					i = (i + 1) & mask;
+				table[i] = symbol;
+			}
+	}
+	
+	public Symbol intern(CharSequence source, int start, int end) {
+		int hash = hash(source, start, end);
+		int mask = table.length - 1;
+		int i = spread(hash) & mask;
+		Symbol symbol;
+		while( (symbol = table[i]) != null ) {
+			if( symbol.hash == hash && symbol.matches(source, start, end) )
+				return symbol;
+			i = (i + 1) & mask;
+		}
+		symbol = new Symbol( symbols.size(), source.subSequence(start, end).toString(), hash );
+		table[i] = symbol;
+		symbols.add(symbol);
+		if( symbols.size() * 2 > table.length )
+			grow();
+		return symbol;
+	}
+	
+	public Symbol intern(CharSequence name) {
+		return intern(name, 0, name.length());
+	}
+	
+	public Symbol get(int id) {
+		return symbols.get(id);
+	}
+	
+	public int size() {
+		return symbols.size();
+	}
+	
+	public Iterator<Symbol> iterator() {
+		return Collections.unmodifiableList(symbols).iterator();
+	}
+}
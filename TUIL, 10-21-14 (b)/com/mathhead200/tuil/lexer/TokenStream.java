@@ -0,0 +1,439 @@
+package com.mathhead200.tuil.lexer;
+
+import java.io.IOException;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Supplier;
+
+
+/**
+ * A whole lexed source stored as parallel primitive arrays (kind, start offset,
+ * length, and line of each token) instead of as {@link Token} objects.
+ * A {@link Cursor} walks the stream; it is itself a {@link TuilLexer}, so the
+ * parser can consume it directly, and any number of cursors may re-walk the same stream.
+ */
+public class TokenStream
+{
+	public static final byte IDENTIFIER = 0;
+	public static final byte NUMBER = 1;
+	public static final byte STRING = 2;
+	public static final byte FUNCTION = 3;
+	public static final byte OPEN_PARENTHESIS = 4;
+	public static final byte CLOSE_PARENTHESIS = 5;
+	public static final byte OPEN_BRACE = 6;
+	public static final byte CLOSE_BRACE = 7;
+	public static final byte OPEN_BRACKET = 8;
+	public static final byte CLOSE_BRACKET = 9;
+	public static final byte PLUS = 10;
+	public static final byte MINUS = 11;
+	public static final byte TIMES = 12;
+	public static final byte DIVIDE = 13;
+	public static final byte EQUAL_TO = 14;
+	public static final byte NOT_EQUAL_TO = 15;
+	public static final byte LESS_THAN = 16;
+	public static final byte LESS_THAN_OR_EQUAL_TO = 17;
+	public static final byte GREATER_THAN = 18;
+	public static final byte GREATER_THAN_OR_EQUAL_TO = 19;
+	public static final byte TERMINATOR = 20;
+	
+	// the shared token instance of each punctuation/operator kind
+	private static final Token[] singletons = {
+		null, null, null, null,
+		OpenParenthesisToken.instance, CloseParenthesisToken.instance,
+		OpenBraceToken.instance, CloseBraceToken.instance,
+		OpenBracketToken.instance, CloseBracketToken.instance,
+		PlusToken.instance, MinusToken.instance, TimesToken.instance, DivideToken.instance,
+		EqualToToken.instance, NotEqualToToken.instance,
+		LessThanToken.instance, LessThanOrEqualToToken.instance,
+		GreaterThanToken.instance, GreaterThanOrEqualToToken.instance,
+		TerminatorToken.instance
+	};
+	
+	public static final int PARALLEL_CHUNK_SIZE = 1 << 20;
+	
+	private final CharSequence source;
+	private final SymbolTable symbols;
+	private byte[] kinds;
+	private int[] starts;
+	private int[] lengths;
+	private int[] lines;
+	private int size = 0;
+	
+	private TokenStream(CharSequence source, SymbolTable symbols, int capacity) {
+		this.source = source;
+		this.symbols = symbols;
+		this.kinds = new byte[capacity];
+		this.starts = new int[capacity];
+		this.lengths = new int[capacity];
+		this.lines = new int[capacity];
+	}
+	
+	public static TokenStream lex(CharSequence source) {
+		return lex(source, true);
+	}
+	
+	public static TokenStream lex(CharSequence source, boolean tableDriven) {
+		return traced( null, 0, () -> lex(source, 0, source.length(), 1, tableDriven) );
+	}
+	
+	// lexes, reporting the time taken (see LexTrace)
+	private static TokenStream traced(String name, long bytes, Supplier<TokenStream> lex) {
+		LexTrace trace = LexTrace.begin();
+		if( trace == null )
+			return lex.get();
+		trace.name = name;
+		trace.bytes = bytes;
+		long start = System.nanoTime();
+		TokenStream stream = null;
+		try {
+			stream = lex.get();
+			return stream;
+		} finally {
+			trace.scanned( start, stream != null ? stream.size : 0 );
+			trace.end();
+		}
+	}
+	
+	private static TokenStream lex(CharSequence source, int start, int limit, int line, boolean tableDriven) {
+		TokenStream stream = new TokenStream( source, new SymbolTable(), Math.max(16, (limit - start) / 4) );
+		SourceScanner scanner = new SourceScanner(source, start, limit, line, tableDriven);
+		int kind;
+		while( (kind = scanner.scan()) >= 0 )
+			stream.add( (byte) kind, scanner.start, scanner.end - scanner.start, scanner.startLine );
+		return stream;
+	}
+	
+	public static TokenStream lexParallel(CharSequence source) {
+		return lexParallel( source, ForkJoinPool.commonPool(), PARALLEL_CHUNK_SIZE );
+	}
+	
+	/**
+	 * Lexes chunks of the source concurrently, producing exactly the same stream as {@link #lex(CharSequence)}.
+	 * The source is only split just after a statement terminator <code>;</code> which a
+	 * (sequential, but much cheaper than lexing) pre-scan has proven to be outside of
+	 * any string literal or comment, so each chunk can be lexed from a clean state.
+	 * @param chunkSize - The approximate number of characters in each chunk.
+	 */
+	public static TokenStream lexParallel(CharSequence source, ForkJoinPool pool, int chunkSize) {
+		return traced( null, 0, () -> parallel(source, pool, chunkSize) );
+	}
+	
+	private static TokenStream parallel(CharSequence source, ForkJoinPool pool, int chunkSize) {
+		final int length = source.length();
+		if( length <= chunkSize || pool.getParallelism() <= 1 )
+			return lex(source, 0, length, 1, true);
+		
+		// pre-scan for split points (and the line number at each)
+		List<int[]> splits = new ArrayList<>(); // { offset, line }
+		splits.add( new int[] {0, 1} );
+		int target = chunkSize;
+		int line = 1;
+		boolean inString = false, escaped = false, inComment = false;
+		for( int i = 0; i < length; i++ ) {
+			char c = source.charAt(i);
+			if( c == '\n' ) {
+				line++;
+				inComment = false;
+			}
+			if( inComment )
+				continue;
+			if( inString ) {
+				if( escaped )
+					escaped = false;
+				else if( c == '\\' )
+					escaped = true;
+				else if( c == '"' )
+					inString = false;
+			} else if( c == '"' )
+				inString = true;
+			else if( c == '#' )
+				inComment = true;
+			else if( c == ';' && i + 1 >= target && i + 1 < length ) {
+				splits.add( new int[] {i + 1, line} );
+				target = i + 1 + chunkSize;
+			}
+		}
+		
+		// lex each chunk concurrently
+		List<ForkJoinTask<TokenStream>> tasks = new ArrayList<>( splits.size() );
+		for( int k = 0; k < splits.size(); k++ ) {
+			final int start = splits.get(k)[0];
+			final int limit = k + 1 < splits.size() ? splits.get(k + 1)[0] : length;
+			final int startLine = splits.get(k)[1];
+			tasks.add( pool.submit(() -> lex(source, start, limit, startLine, true)) );
+		}
+		
+		// stitch the chunks back together, in order (so the first error in the source is the one reported)
+		TokenStream[] parts = new TokenStream[ tasks.size() ];
+		int size = 0;
+		for( int k = 0; k < parts.length; k++ ) {
+			try {
+				parts[k] = tasks.get(k).join();
+			} catch(LexerException e) {
+				for( ForkJoinTask<TokenStream> task : tasks )
+					task.cancel(false);
+				// join() rethrows an exception from another thread as a copy, caused by the original
+				throw e.getCause() instanceof LexerException ? (LexerException) e.getCause() : e;
+			}
+			size += parts[k].size;
+		}
+		TokenStream stream = new TokenStream( source, new SymbolTable(), Math.max(16, size) );
+		for( TokenStream part : parts ) {
+			System.arraycopy( part.kinds, 0, stream.kinds, stream.size, part.size );
+			System.arraycopy( part.starts, 0, stream.starts, stream.size, part.size );
+			System.arraycopy( part.lengths, 0, stream.lengths, stream.size, part.size );
+			System.arraycopy( part.lines, 0, stream.lines, stream.size, part.size );
+			stream.size += part.size;
+		}
+		return stream;
+	}
+	
+	public static TokenStream lex(Path path) throws IOException {
+		try( FileChannel channel = FileChannel.open(path, StandardOpenOption.READ) ) {
+			CharBuffer source = TuilBufferLexer.decode(channel);
+			return traced( path.toString(), channel.size(), () -> lex(source, 0, source.length(), 1, true) );
+		}
+	}
+	
+	/**
+	 * Re-lexes this stream after an edit of its source, scanning only from the end of the
+	 * last token before the edit until the new tokens line up with old tokens again;
+	 * the tokens outside of that range are reused (shifted by the change in length and line count.)
+	 * The edited stream shares this stream's {@link SymbolTable}.
+	 * @param newSource - The whole source after the edit.
+	 * @param offset - Where the edit begins.
+	 * @param removed - The number of characters removed from the old source at <code>offset</code>.
+	 * @param inserted - The number of characters inserted into the new source at <code>offset</code>.
+	 */
+	public Edit edit(CharSequence newSource, int offset, int removed, int inserted) {
+		final int delta = inserted - removed;
+		
+		// keep the tokens which end before the edit, and restart just after the last of them
+		int first = search( offset, true );
+		int position = 0;
+		int line = 1;
+		if( first > 0 ) {
+			position = starts[first - 1] + lengths[first - 1];
+			line = lines[first - 1];
+			for( int i = starts[first - 1]; i < position; i++ )
+				if( newSource.charAt(i) == '\n' )
+					line++;
+		}
+		
+		// scan until a new token starts exactly where an old token (after the edit) did
+		TokenStream relexed = new TokenStream( newSource, symbols, 16 );
+		SourceScanner scanner = new SourceScanner(newSource, position, newSource.length(), line, true);
+		int resync = search( offset + removed, false );
+		int lineDelta = 0;
+		int kind;
+		while( (kind = scanner.scan()) >= 0 ) {
+			if( scanner.start >= offset + inserted ) {
+				int oldStart = scanner.start - delta;
+				while( resync < size && starts[resync] < oldStart )
+					resync++;
+				if( resync < size && starts[resync] == oldStart ) {
+					lineDelta = scanner.startLine - lines[resync];
+					break;
+				}
+			}
+			relexed.add( (byte) kind, scanner.start, scanner.end - scanner.start, scanner.startLine );
+		}
+		if( kind < 0 )
+			resync = size;
+		
+		// prefix + relexed tokens + shifted suffix
+		int suffix = size - resync;
+		TokenStream stream = new TokenStream( newSource, symbols, Math.max(16, first + relexed.size + suffix) );
+		System.arraycopy( kinds, 0, stream.kinds, 0, first );
+		System.arraycopy( starts, 0, stream.starts, 0, first );
+		System.arraycopy( lengths, 0, stream.lengths, 0, first );
+		System.arraycopy( lines, 0, stream.lines, 0, first );
+		System.arraycopy( relexed.kinds, 0, stream.kinds, first, relexed.size );
+		System.arraycopy( relexed.starts, 0, stream.starts, first, relexed.size );
+		System.arraycopy( relexed.lengths, 0, stream.lengths, first, relexed.size );
+		System.arraycopy( relexed.lines, 0, stream.lines, first, relexed.size );
+		int at = first + relexed.size;
+		System.arraycopy( kinds, resync, stream.kinds, at, suffix );
+		System.arraycopy( lengths, resync, stream.lengths, at, suffix );
+		for( int i = 0; i < suffix; i++ ) {
+			stream.starts[at + i] = starts[resync + i] + delta;
+			stream.lines[at + i] = lines[resync + i] + lineDelta;
+		}
+		stream.size = at + suffix;
+		return new Edit( stream, first, resync, at );
+	}
+	
+	// index of the first token which ends (or starts) at or after the given offset
+	private int search(int offset, boolean byEnd) {
+		int low = 0, high = size;
+		while( low < high ) {
+			int mid = (low + high) >>> 1;
+			int at = byEnd ? starts[mid] + lengths[mid] : starts[mid];
+			if( at < offset )
+				low = mid + 1;
+			else
+				high = mid;
+		}
+		return low;
+	}
+	
+	static Token token(int kind, CharSequence source, int start, int end, SymbolTable symbols) {
+		switch(kind) {
+			case IDENTIFIER:
+				return IdentifierToken.of( symbols.intern(source, start, end) );
+			case NUMBER:
+				return new NumberToken(source, start, end);
+			case STRING:
+				return new StringToken(source, start, end);
+			case FUNCTION:
+				return FunctionToken.of( symbols.intern(source, start + 1, end) );
+			default:
+				return singletons[kind];
+		}
+	}
+	
+	private void add(byte kind, int start, int length, int line) {
+		if( size == kinds.length ) {
+			int capacity = size * 2;
+			kinds = Arrays.copyOf(kinds, capacity);
+			starts = Arrays.copyOf(starts, capacity);
+			lengths = Arrays.copyOf(lengths, capacity);
+			lines = Arrays.copyOf(lines, capacity);
+		}
+		kinds[size] = kind;
+		starts[size] = start;
+		lengths[size] = length;
+		lines[size] = line;
+		size++;
+	}
+	
+	
+	public CharSequence getSource() {
+		return source;
+	}
+	
+	public SymbolTable getSymbolTable() {
+		return symbols;
+	}
+	
+	public int size() {
+		return size;
+	}
+	
+	public int kind(int index) {
+		return kinds[index];
+	}
+	
+	public int start(int index) {
+		return starts[index];
+	}
+	
+	public int length(int index) {
+		return lengths[index];
+	}
+	
+	public int line(int index) {
+		return lines[index];
+	}
+	
+	public CharSequence lexeme(int index) {
+		return source.subSequence( starts[index], starts[index] + lengths[index] );
+	}
+	
+	public Token token(int index) {
+		return token( kinds[index], source, starts[index], starts[index] + lengths[index], symbols );
+	}
+	
+	public Cursor cursor() {
+		return new Cursor();
+	}
+	
+	
+	// The result of editing a TokenStream: tokens [first, oldEnd) of the old stream
+	// were replaced by tokens [first, newEnd) of the new stream.
+	public static class Edit
+	{
+		public final TokenStream stream;
+		public final int first;
+		public final int oldEnd;
+		public final int newEnd;
+		
+		private Edit(TokenStream stream, int first, int oldEnd, int newEnd) {
+			this.stream = stream;
+			this.first = first;
+			this.oldEnd = oldEnd;
+			this.newEnd = newEnd;
+		}
+	}
+	
+	
+	public class Cursor extends TuilLexer
+	{
+		private int index = 0;
+		
+		private Cursor() {
+			super(symbols);
+		}
+		
+		public TokenStream getStream() {
+			return TokenStream.this;
+		}
+		
+		public int getIndex() {
+			return index;
+		}
+		
+		public void seek(int index) {
+			if( index < 0 || index > size )
+				throw new IndexOutOfBoundsException("illegal cursor position: " + index);
+			this.index = index;
+		}
+		
+		public int kind() {
+			return kinds[index];
+		}
+		
+		public int start() {
+			return starts[index];
+		}
+		
+		public int length() {
+			return lengths[index];
+		}
+		
+		public int line() {
+			return lines[index];
+		}
+		
+		public int getLine() {
+			return index > 0 ? lines[index - 1] : 0;
+		}
+		
+		public void advance() {
+			if( index >= size )
+				throw new NoSuchElementException();
+			index++;
+		}
+		
+		public void close() {
+		}
+		
+		public boolean hasNext() {
+			return index < size;
+		}
+		
+		public Token next() {
+			if( index >= size )
+				throw new NoSuchElementException();
+			return token(index++);
+		}
+	}
+}
@@ -0,0 +1,114 @@
+package com.mathhead200.tuil.lexer;
+
+import java.io.IOException;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.NoSuchElementException;
+
+
+/**
+ * A {@link TuilLexer} which scans an in-memory source by index instead of
+ * pulling one character at a time through a {@link java.io.Reader}.
+ * Identifier, number, and string lexemes are slices of the source.
+ */
+public class TuilBufferLexer extends TuilLexer
+{
+	private SourceScanner scanner;
+	private Token nextToken = null;
+	private int nextLine = 0;
+	private int line = 0;
+	private LexTrace trace; // until the end of the source
+	
+	public TuilBufferLexer(CharSequence source, SymbolTable symbols) {
+		super(symbols);
+		this.scanner = new SourceScanner(source);
+		this.trace = LexTrace.begin();
+	}
+	
+	public TuilBufferLexer(CharSequence source) {
+		this( source, new SymbolTable() );
+	}
+	
+	public TuilBufferLexer(char[] source) {
+		this( CharBuffer.wrap(source) );
+	}
+	
+	public static TuilBufferLexer map(Path path) throws IOException {
+		try( FileChannel channel = FileChannel.open(path, StandardOpenOption.READ) ) {
+			TuilBufferLexer lexer = new TuilBufferLexer( decode(channel) );
+			if( lexer.trace != null ) {
+				lexer.trace.name = path.toString();
+				lexer.trace.bytes = channel.size();
+			}
+			return lexer;
+		}
+	}
+	
+	// a (UTF-8) file's text, read by mapping it
+	static CharBuffer decode(FileChannel channel) throws IOException {
+		MappedByteBuffer bytes = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		return StandardCharsets.UTF_8.decode(bytes);
+	}
+	
+	public void close() {
+		if( trace != null ) {
+			trace.end();
+			trace = null;
+		}
+	}
+	
+	public CharSequence getSource() {
+		return scanner.source;
+	}
+	
+	public int getPosition() {
+		return scanner.position;
+	}
+	
+	public int getLine() {
+		return line;
+	}
+	
+	public boolean hasNext() {
+		if( nextToken != null )
+			return true;
+		if( trace == null )
+			return read();
+		
+		// only the scanning is timed; not the parsing between calls
+		long start = System.nanoTime();
+		boolean more = false;
+		try {
+			more = read();
+			return more;
+		} finally {
+			trace.scanned(start, more ? 1 : 0);
+			if( !more ) {
+				trace.end();
+				trace = null;
+			}
+		}
+	}
+	
+	private boolean read() {
+		int kind = scanner.scan();
+		if( kind < 0 )
+			return false;
+		nextToken = TokenStream.token(kind, scanner.source, scanner.start, scanner.end, getSymbolTable());
+		nextLine = scanner.startLine;
+		return true;
+	}
+	
+	public Token next() {
+		if( !hasNext() )
+			throw new NoSuchElementException();
+		Token token = nextToken;
+		nextToken = null;
+		line = nextLine;
+		return token;
+	}
+}
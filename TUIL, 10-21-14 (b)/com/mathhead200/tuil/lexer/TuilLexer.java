@@ -2,6 +2,7 @@ package com.mathhead200.tuil.lexer;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.io.LineNumberReader;
 import java.io.Reader;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
@@ -9,21 +10,62 @@ import java.util.NoSuchElementException;
 
 public class TuilLexer implements Closeable, Iterator<Token>, Iterable<Token>
 {	
-	private Reader reader;
+	private LineNumberReader reader;
 	private Token nextToken = null;
+	private int nextLine = 0;
+	private int line = 0;
+	private final SymbolTable symbols;
+	private LexTrace trace = null; // until the end of the source
 	
 	public TuilLexer(Reader reader) {
-		this.reader = reader;
+		this.reader = reader instanceof LineNumberReader ? (LineNumberReader) reader : new LineNumberReader(reader);
+		this.symbols = new SymbolTable();
+		this.trace = LexTrace.begin();
+	}
+	
+	protected TuilLexer(SymbolTable symbols) {
+		this.symbols = symbols;
+	}
+	
+	public SymbolTable getSymbolTable() {
+		return symbols;
+	}
+	
+	// the line of the token last returned by next(); or 0 if unknown
+	public int getLine() {
+		return line;
 	}
 	
 	public void close() throws IOException {
+		if( trace != null ) {
+			trace.end();
+			trace = null;
+		}
 		reader.close();
 	}
 	
 	public boolean hasNext() {
 		if( nextToken != null )
 			return true;
+		if( trace == null )
+			return read();
 		
+		// only the scanning is timed; not the parsing between calls
+		long start = System.nanoTime();
+		boolean more = false;
+		try {
+			more = read();
+			return more;
+		} finally {
+			trace.scanned(start, more ? 1 : 0);
+			if( !more ) {
+				trace.end();
+				trace = null;
+			}
+		}
+	}
+	
+	private boolean read() {
 		try {
 			int c;
 			
@@ -42,12 +84,13 @@ public class TuilLexer implements Closeable, Iterator<Token>, Iterable<Token>
 						inComment = true;
 				}
 			} while( inComment || Character.isWhitespace(c) );
+			nextLine = reader.getLineNumber() + 1;
 			
 			// read next lexeme
 			if( Character.isAlphabetic(c) || c == '_' ) {
 				// identifier
 				reader.reset();
-				nextToken = IdentifierToken.extract(reader);
+				nextToken = IdentifierToken.extract(reader, symbols);
 			} else if( Character.isDigit(c) || c == '.' ) {
 				// number
 				reader.reset();
@@ -116,7 +159,7 @@ public class TuilLexer implements Closeable, Iterator<Token>, Iterable<Token>
 				}
 			} else if( c == '$' ) {
 				// function
-				nextToken = FunctionToken.extract(reader);
+				nextToken = FunctionToken.extract(reader, symbols);
 			} else if( c == ';' ) {
 				// statement terminator
 				nextToken = TerminatorToken.instance;
@@ -140,6 +183,7 @@ public class TuilLexer implements Closeable, Iterator<Token>, Iterable<Token>
 			throw new NoSuchElementException();
 		Token token = nextToken;
 		nextToken = null;
+		line = nextLine;
 		return token;
 	}
 	
@@ -0,0 +1,47 @@
+package com.mathhead200.tuil.parser;
+
+import java.util.NoSuchElementException;
+
+import com.mathhead200.tuil.lexer.IdentifierToken;
+import com.mathhead200.tuil.lexer.OpenBracketToken;
+import com.mathhead200.tuil.lexer.Token;
+import com.mathhead200.tuil.lexer.TuilLexer;
+
+
+public class AllocNumberInstruction implements Instruction
+{
+	public final IdentifierToken variable;
+	public final Argument index; // of an array element; or null
+	public final Argument value;
+	
+	AllocNumberInstruction(IdentifierToken variable, Argument index, Argument value) {
+		this.variable = variable;
+		this.index = index;
+		this.value = value;
+	}
+	
+	public static AllocNumberInstruction extract(TuilLexer lexer) {
+		IdentifierToken variable;
+		Argument index = null;
+		Argument value;
+		try {
+			// parse variable
+			Token token = lexer.next();
+			if( token instanceof IdentifierToken )
+				variable = (IdentifierToken) token;
+			else
+				throw new ParseException(token);
+			// parse [index]
+			token = lexer.next();
+			if( token instanceof OpenBracketToken ) {
+				index = IndexedVariable.extractIndex(lexer);
+				token = lexer.next();
+			}
+			// parse value and statement terminator ;
+			value = Argument.extractLast(token, lexer);
+		} catch(NoSuchElementException e) {
+			throw new ParseException("unexpected end of file", e);
+		}
+		return new AllocNumberInstruction(variable, index, value);
+	}
+}
@@ -14,7 +14,7 @@ public class AllocScreenBufferInstruction implements Instruction
 	public final Argument rows;
 	public final Argument columns;
 	
-	private AllocScreenBufferInstruction(IdentifierToken variable, Argument rows, Argument columns) {
+	AllocScreenBufferInstruction(IdentifierToken variable, Argument rows, Argument columns) {
 		this.variable = variable;
 		this.rows = rows;
 		this.columns = columns;
@@ -32,17 +32,9 @@ public class AllocScreenBufferInstruction implements Instruction
 			else
 				throw new ParseException(token);
 			// parse rows
-			token = lexer.next();
-			if( token instanceof Argument )
-				rows = (Argument) token;
-			else
-				throw new ParseException(token);
+			rows = Argument.extract(lexer.next(), lexer);
 			// parse columns
-			token = lexer.next();
-			if( token instanceof Argument )
-				columns = (Argument) token;
-			else
-				throw new ParseException(token);
+			columns = Argument.extract(lexer.next(), lexer);
 			// parse statement terminator ;
 			token = lexer.next();
 			if( !(token instanceof TerminatorToken) )
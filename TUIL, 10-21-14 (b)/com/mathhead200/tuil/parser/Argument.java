@@ -1,6 +1,53 @@
 package com.mathhead200.tuil.parser;
 
+import java.util.ArrayList;
+import java.util.List;
+
+import com.mathhead200.tuil.lexer.IdentifierToken;
+import com.mathhead200.tuil.lexer.OpenBracketToken;
+import com.mathhead200.tuil.lexer.OpenParenthesisToken;
+import com.mathhead200.tuil.lexer.TerminatorToken;
+import com.mathhead200.tuil.lexer.Token;
+import com.mathhead200.tuil.lexer.TuilLexer;
+
 
 public interface Argument
 {
+	// parses the argument beginning with the given token: a single token, or a parenthesized expression
+	public static Argument extract(Token token, TuilLexer lexer) {
+		if( token instanceof Argument )
+			return (Argument) token;
+		if( token instanceof OpenParenthesisToken )
+			return Expression.extract(lexer);
+		throw new ParseException(token);
+	}
+	
+	// parses an instruction's arguments, any of which may be indexed variables, through the statement terminator ;
+	public static List<Argument> extractAll(TuilLexer lexer) {
+		List<Argument> args = new ArrayList<Argument>(4);
+		Token token = lexer.next();
+		while( !(token instanceof TerminatorToken) ) {
+			Argument arg = extract(token, lexer);
+			token = lexer.next();
+			if( token instanceof OpenBracketToken && arg instanceof IdentifierToken ) {
+				arg = IndexedVariable.extract( (IdentifierToken) arg, lexer );
+				token = lexer.next();
+			}
+			args.add(arg);
+		}
+		return args;
+	}
+	
+	// parses an instruction's last argument, which may be an indexed variable, and the statement terminator ;
+	public static Argument extractLast(Token token, TuilLexer lexer) {
+		Argument arg = extract(token, lexer);
+		token = lexer.next();
+		if( token instanceof OpenBracketToken && arg instanceof IdentifierToken ) {
+			arg = IndexedVariable.extract( (IdentifierToken) arg, lexer );
+			token = lexer.next();
+		}
+		if( !(token instanceof TerminatorToken) )
+			throw new ParseException(token);
+		return arg;
+	}
 }
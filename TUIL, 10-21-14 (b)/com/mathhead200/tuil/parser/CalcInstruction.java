@@ -3,7 +3,7 @@ package com.mathhead200.tuil.parser;
 import java.util.NoSuchElementException;
 
 import com.mathhead200.tuil.lexer.IdentifierToken;
-import com.mathhead200.tuil.lexer.TerminatorToken;
+import com.mathhead200.tuil.lexer.OpenBracketToken;
 import com.mathhead200.tuil.lexer.Token;
 import com.mathhead200.tuil.lexer.TuilLexer;
 
@@ -11,15 +11,22 @@ import com.mathhead200.tuil.lexer.TuilLexer;
 public class CalcInstruction implements Instruction
 {
 	public final IdentifierToken variable;
+	public final Argument index; // of an array element; or null
 	public final Argument value;
 	
-	private CalcInstruction(IdentifierToken variable, Argument value) {
+	CalcInstruction(IdentifierToken variable, Argument index, Argument value) {
 		this.variable = variable;
+		this.index = index;
 		this.value = value;
 	}
 	
+	CalcInstruction(IdentifierToken variable, Argument value) {
+		this(variable, null, value);
+	}
+	
 	public static CalcInstruction extract(TuilLexer lexer) {
 		IdentifierToken variable;
+		Argument index = null;
 		Argument value;
 		try {
 			// parse variable
@@ -28,19 +35,17 @@ public class CalcInstruction implements Instruction
 				variable = (IdentifierToken) token;
 			else
 				throw new ParseException(token);
-			// parse value
-			token = lexer.next();
-			if( token instanceof Argument )
-				value = (Argument) token;
-			else
-				throw new ParseException(token);
-			// parse statement terminator ;
+			// parse [index]
 			token = lexer.next();
-			if( !(token instanceof TerminatorToken) )
-				throw new ParseException(token);
+			if( token instanceof OpenBracketToken ) {
+				index = IndexedVariable.extractIndex(lexer);
+				token = lexer.next();
+			}
+			// parse value and statement terminator ;
+			value = Argument.extractLast(token, lexer);
 		} catch(NoSuchElementException e) {
 			throw new ParseException("unexpected end of file", e);
 		}
-		return new CalcInstruction(variable, value);
+		return new CalcInstruction(variable, index, value);
 	}
 }
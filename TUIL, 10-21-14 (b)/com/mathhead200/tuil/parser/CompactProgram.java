@@ -0,0 +1,321 @@
+package com.mathhead200.tuil.parser;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.mathhead200.tuil.lexer.IdentifierToken;
+import com.mathhead200.tuil.lexer.NumberToken;
+import com.mathhead200.tuil.lexer.StringToken;
+import com.mathhead200.tuil.lexer.Symbol;
+import com.mathhead200.tuil.lexer.Token;
+
+
+/**
+ * A parsed program flattened into parallel primitive arrays: the kind of each node,
+ * the index of its first child and its number of children (the children of a node are contiguous),
+ * and an operand: the id of an identifier's {@link Symbol}, or else an index into the program's constant pool (or -1.)
+ * The pool holds parsed values (and operator and function tokens, which are shared), never the tokens of literals,
+ * so each distinct literal is held once.
+ * Node 0 is the root {@link #BLOCK} of top-level instructions.
+ */
+public class CompactProgram
+{
+	public static final byte BLOCK = 0;
+	public static final byte IF = 1;
+	public static final byte ELSE = 2;
+	public static final byte WHILE = 3;
+	public static final byte ALLOC_SCREEN_BUFFER = 4;
+	public static final byte CALC = 5;
+	public static final byte DEALLOC = 6;
+	public static final byte EXPRESSION = 7; // operand: the operator (or function) token, or -1
+	public static final byte IDENTIFIER = 8; // operand: the id of the identifier's Symbol
+	public static final byte NUMBER = 9; // operand: a ComplexRational
+	public static final byte STRING = 10; // operand: a String
+	public static final byte OTHER = 11; // operand: an instruction with no compact form (e.g. registered by an embedder)
+	public static final byte ALLOC_NUMBER = 12;
+	public static final byte DISP = 13;
+	public static final byte SHOW = 14;
+	public static final byte INDEXED = 15; // children: the array's IDENTIFIER, and the index
+	
+	private byte[] kinds;
+	private int[] firstChildren;
+	private int[] childCounts;
+	private int[] operands;
+	private int size = 0;
+	private Object[] constants;
+	private Symbol[] symbols; // by id
+	
+	private CompactProgram(int capacity) {
+		kinds = new byte[capacity];
+		firstChildren = new int[capacity];
+		childCounts = new int[capacity];
+		operands = new int[capacity];
+	}
+	
+	public static CompactProgram of(List<? extends Instruction> instructions) {
+		CompactProgram program = new CompactProgram(64);
+		Builder builder = program.new Builder();
+		int root = builder.reserve(1);
+		builder.block(root, instructions);
+		program.constants = builder.constants.toArray();
+		program.symbols = builder.symbols;
+		program.trim();
+		return program;
+	}
+	
+	public static CompactProgram of(TuilParser parser) {
+		List<Instruction> instructions = new ArrayList<>();
+		for( Instruction instr : parser )
+			instructions.add(instr);
+		return of(instructions);
+	}
+	
+	private void trim() {
+		kinds = Arrays.copyOf(kinds, size);
+		firstChildren = Arrays.copyOf(firstChildren, size);
+		childCounts = Arrays.copyOf(childCounts, size);
+		operands = Arrays.copyOf(operands, size);
+	}
+	
+	
+	// converts the object graph of an AST into nodes
+	private class Builder
+	{
+		final List<Object> constants = new ArrayList<>();
+		final Map<Object, Integer> constantIndices = new HashMap<>(); // equal values share an entry
+		Symbol[] symbols = new Symbol[16];
+		
+		int reserve(int count) {
+			int first = size;
+			size += count;
+			if( size > kinds.length ) {
+				int capacity = Math.max(size, kinds.length * 2);
+				kinds = Arrays.copyOf(kinds, capacity);
+				firstChildren = Arrays.copyOf(firstChildren, capacity);
+				childCounts = Arrays.copyOf(childCounts, capacity);
+				operands = Arrays.copyOf(operands, capacity);
+			}
+			return first;
+		}
+		
+		int constant(Object value) {
+			Integer index = constantIndices.get(value);
+			if( index == null ) {
+				index = constants.size();
+				constants.add(value);
+				constantIndices.put(value, index);
+			}
+			return index;
+		}
+		
+		int symbol(Symbol symbol) {
+			if( symbol.id >= symbols.length )
+				symbols = Arrays.copyOf( symbols, Math.max(symbol.id + 1, 2 * symbols.length) );
+			if( symbols[symbol.id] == null )
+				symbols[symbol.id] = symbol;
+			else if( symbols[symbol.id] != symbol )
+				throw new IllegalArgumentException("identifiers from more than one symbol table: " + symbol);
+			return symbol.id;
+		}
+		
+		// sets a node, reserving (contiguous) slots for its children
+		int node(int node, byte kind, int operand, int childCount) {
+			kinds[node] = kind;
+			operands[node] = operand;
+			childCounts[node] = childCount;
+			int first = childCount > 0 ? reserve(childCount) : -1;
+			firstChildren[node] = first;
+			return first;
+		}
+		
+		void block(int node, List<? extends Instruction> instructions) {
+			int first = node(node, BLOCK, -1, instructions.size());
+			for( int i = 0; i < instructions.size(); i++ )
+				instruction(first + i, instructions.get(i));
+		}
+		
+		void instruction(int node, Instruction instr) {
+			int first;
+			if( instr instanceof InstructionBlock ) {
+				block(node, (InstructionBlock) instr);
+			} else if( instr instanceof IfInstruction ) {
+				IfInstruction ifInstr = (IfInstruction) instr;
+				first = node(node, IF, -1, 2);
+				argument(first, ifInstr.predicate);
+				instruction(first + 1, ifInstr.instruction);
+			} else if( instr instanceof ElseInstruction ) {
+				first = node(node, ELSE, -1, 1);
+				instruction(first, ((ElseInstruction) instr).instruction);
+			} else if( instr instanceof WhileInstruction ) {
+				WhileInstruction whileInstr = (WhileInstruction) instr;
+				first = node(node, WHILE, -1, 2);
+				argument(first, whileInstr.predicate);
+				instruction(first + 1, whileInstr.instruction);
+			} else if( instr instanceof AllocScreenBufferInstruction ) {
+				AllocScreenBufferInstruction alloc = (AllocScreenBufferInstruction) instr;
+				first = node(node, ALLOC_SCREEN_BUFFER, -1, 3);
+				argument(first, alloc.variable);
+				argument(first + 1, alloc.rows);
+				argument(first + 2, alloc.columns);
+			} else if( instr instanceof CalcInstruction ) {
+				CalcInstruction calc = (CalcInstruction) instr;
+				first = node(node, CALC, -1, 2);
+				target(first, calc.variable, calc.index);
+				argument(first + 1, calc.value);
+			} else if( instr instanceof AllocNumberInstruction ) {
+				AllocNumberInstruction alloc = (AllocNumberInstruction) instr;
+				first = node(node, ALLOC_NUMBER, -1, 2);
+				target(first, alloc.variable, alloc.index);
+				argument(first + 1, alloc.value);
+			} else if( instr instanceof DispInstruction ) {
+				// children: [buffer] text [row column]
+				DispInstruction disp = (DispInstruction) instr;
+				int n = (disp.buffer != null ? 1 : 0) + (disp.row != null ? 3 : 1);
+				first = node(node, DISP, -1, n);
+				if( disp.buffer != null )
+					argument(first++, disp.buffer);
+				argument(first, disp.text);
+				if( disp.row != null ) {
+					argument(first + 1, disp.row);
+					argument(first + 2, disp.column);
+				}
+			} else if( instr instanceof ShowInstruction ) {
+				first = node(node, SHOW, -1, 1);
+				argument(first, ((ShowInstruction) instr).variable);
+			} else if( instr instanceof DeallocInstruction ) {
+				first = node(node, DEALLOC, -1, 1);
+				argument(first, ((DeallocInstruction) instr).variable);
+			} else {
+				node(node, OTHER, constant(instr), 0);
+			}
+		}
+		
+		// an assigned variable, or array element
+		void target(int node, IdentifierToken variable, Argument index) {
+			if( index == null ) {
+				argument(node, variable);
+			} else {
+				int first = node(node, INDEXED, -1, 2);
+				argument(first, variable);
+				argument(first + 1, index);
+			}
+		}
+		
+		void argument(int node, Argument arg) {
+			if( arg instanceof Expression ) {
+				Expression expr = (Expression) arg;
+				int first = node(node, EXPRESSION, expr.operator != null ? constant(expr.operator) : -1, expr.arguments.size());
+				for( int i = 0; i < expr.arguments.size(); i++ )
+					argument(first + i, expr.arguments.get(i));
+			} else if( arg instanceof IdentifierToken ) {
+				node(node, IDENTIFIER, symbol(((IdentifierToken) arg).getSymbol()), 0);
+			} else if( arg instanceof NumberToken ) {
+				node(node, NUMBER, constant(((NumberToken) arg).parseValue()), 0);
+			} else if( arg instanceof StringToken ) {
+				node(node, STRING, constant(((StringToken) arg).parseValue()), 0);
+			} else if( arg instanceof IndexedVariable ) {
+				IndexedVariable element = (IndexedVariable) arg;
+				target(node, element.array, element.index);
+			} else {
+				throw new IllegalArgumentException("unknown argument: " + arg);
+			}
+		}
+	}
+	
+	
+	public int size() {
+		return size;
+	}
+	
+	public int kind(int node) {
+		return kinds[node];
+	}
+	
+	public int childCount(int node) {
+		return childCounts[node];
+	}
+	
+	public int child(int node, int i) {
+		if( i < 0 || i >= childCounts[node] )
+			throw new IndexOutOfBoundsException("node " + node + " has no child " + i);
+		return firstChildren[node] + i;
+	}
+	
+	public int operand(int node) {
+		return operands[node];
+	}
+	
+	public Object constant(int index) {
+		return constants[index];
+	}
+	
+	public int constantCount() {
+		return constants.length;
+	}
+	
+	public Symbol symbol(int id) {
+		return id >= 0 && id < symbols.length ? symbols[id] : null;
+	}
+	
+	// the value, symbol, operator or function token, or other instruction referred to by the node's operand; or null
+	public Object value(int node) {
+		int operand = operands[node];
+		if( operand < 0 )
+			return null;
+		return kinds[node] == IDENTIFIER ? symbols[operand] : constants[operand];
+	}
+	
+	// an expression's operator or function token; or null
+	public Token token(int node) {
+		return kinds[node] == EXPRESSION ? (Token) value(node) : null;
+	}
+	
+	
+	public interface Visitor<R>
+	{
+		public R visitBlock(CompactProgram program, int node);
+		public R visitIf(CompactProgram program, int node);
+		public R visitElse(CompactProgram program, int node);
+		public R visitWhile(CompactProgram program, int node);
+		public R visitAllocScreenBuffer(CompactProgram program, int node);
+		public R visitCalc(CompactProgram program, int node);
+		public R visitDealloc(CompactProgram program, int node);
+		public R visitExpression(CompactProgram program, int node);
+		public R visitIdentifier(CompactProgram program, int node);
+		public R visitNumber(CompactProgram program, int node);
+		public R visitString(CompactProgram program, int node);
+		public R visitOther(CompactProgram program, int node);
+		public R visitAllocNumber(CompactProgram program, int node);
+		public R visitDisp(CompactProgram program, int node);
+		public R visitShow(CompactProgram program, int node);
+		public R visitIndexed(CompactProgram program, int node);
+	}
+	
+	public <R> R accept(int node, Visitor<R> visitor) {
+		switch( kinds[node] ) {
+			case BLOCK: return visitor.visitBlock(this, node);
+			case IF: return visitor.visitIf(this, node);
+			case ELSE: return visitor.visitElse(this, node);
+			case WHILE: return visitor.visitWhile(this, node);
+			case ALLOC_SCREEN_BUFFER: return visitor.visitAllocScreenBuffer(this, node);
+			case CALC: return visitor.visitCalc(this, node);
+			case DEALLOC: return visitor.visitDealloc(this, node);
+			case EXPRESSION: return visitor.visitExpression(this, node);
+			case IDENTIFIER: return visitor.visitIdentifier(this, node);
+			case NUMBER: return visitor.visitNumber(this, node);
+			case STRING: return visitor.visitString(this, node);
+			case ALLOC_NUMBER: return visitor.visitAllocNumber(this, node);
+			case DISP: return visitor.visitDisp(this, node);
+			case SHOW: return visitor.visitShow(this, node);
+			case INDEXED: return visitor.visitIndexed(this, node);
+			default: return visitor.visitOther(this, node);
+		}
+	}
+	
+	public <R> R accept(Visitor<R> visitor) {
+		return accept(0, visitor);
+	}
+}
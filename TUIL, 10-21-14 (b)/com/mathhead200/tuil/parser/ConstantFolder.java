@@ -0,0 +1,298 @@
+package com.mathhead200.tuil.parser;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.mathhead200.tuil.ComplexRational;
+import com.mathhead200.tuil.Operators;
+import com.mathhead200.tuil.lexer.DivideToken;
+import com.mathhead200.tuil.lexer.IdentifierToken;
+import com.mathhead200.tuil.lexer.MinusToken;
+import com.mathhead200.tuil.lexer.NumberToken;
+import com.mathhead200.tuil.lexer.OperatorToken;
+import com.mathhead200.tuil.lexer.PlusToken;
+import com.mathhead200.tuil.lexer.Symbol;
+import com.mathhead200.tuil.lexer.TimesToken;
+import com.mathhead200.tuil.lexer.Token;
+
+
+/**
+ * Folds constant expressions into single {@link NumberToken}s, and simplifies x+0, 0+x, x-0, x*1, 1*x, and x/1
+ * where x is numeric: when it evaluates, it's to a number (e.g. "str"+0 is "str0", not "str").
+ * A variable is numeric if the program (given to {@link #fold(List)} whole) only ever assigns it numbers:
+ * by AllocNumber, or by Calc of numeric expressions, such as numbers, numeric variables, and arithmetic or comparisons of them.
+ * An undefined variable still fails when read, so x*0 is never simplified: the 0 would not.
+ * Expressions which would fail, e.g. dividing by zero, are left as written so they still fail when run.
+ * Instructions which are not changed are returned as is.
+ */
+public class ConstantFolder
+{
+	/** An argument of an instruction, before and after folding. */
+	public static class Folding
+	{
+		public final Argument original;
+		public final Argument result;
+		
+		private Folding(Argument original, Argument result) {
+			this.original = original;
+			this.result = result;
+		}
+		
+		public String toString() {
+			return Expression.toString(original) + " => " + Expression.toString(result);
+		}
+	}
+	
+	private final List<Folding> foldings = new ArrayList<Folding>();
+	private Set<Symbol> numeric = Collections.emptySet(); // the variables of the program being folded known to be numeric
+	
+	
+	public List<Folding> getFoldings() {
+		return Collections.unmodifiableList(foldings);
+	}
+	
+	// folds a whole program
+	public List<Instruction> fold(List<? extends Instruction> instructions) {
+		numeric = numericVariables(instructions);
+		List<Instruction> result = new ArrayList<Instruction>(instructions.size());
+		for( Instruction instr : instructions )
+			result.add( fold(instr) );
+		return result;
+	}
+	
+	public Instruction fold(Instruction instr) {
+		if( instr instanceof InstructionBlock ) {
+			InstructionBlock block = (InstructionBlock) instr;
+			InstructionBlock result = new InstructionBlock();
+			boolean changed = false;
+			for( Instruction x : block ) {
+				Instruction y = fold(x);
+				changed |= y != x;
+				result.add(y);
+			}
+			return changed ? result : block;
+		} else if( instr instanceof IfInstruction ) {
+			IfInstruction ifInstr = (IfInstruction) instr;
+			Argument predicate = foldArgument(ifInstr.predicate);
+			Instruction instruction = fold(ifInstr.instruction);
+			if( predicate == ifInstr.predicate && instruction == ifInstr.instruction )
+				return ifInstr;
+			return new IfInstruction(predicate, instruction);
+		} else if( instr instanceof ElseInstruction ) {
+			ElseInstruction elseInstr = (ElseInstruction) instr;
+			Instruction instruction = fold(elseInstr.instruction);
+			return instruction == elseInstr.instruction ? elseInstr : new ElseInstruction(instruction);
+		} else if( instr instanceof WhileInstruction ) {
+			WhileInstruction whileInstr = (WhileInstruction) instr;
+			Argument predicate = foldArgument(whileInstr.predicate);
+			Instruction instruction = fold(whileInstr.instruction);
+			if( predicate == whileInstr.predicate && instruction == whileInstr.instruction )
+				return whileInstr;
+			return new WhileInstruction(predicate, instruction);
+		} else if( instr instanceof CalcInstruction ) {
+			CalcInstruction calc = (CalcInstruction) instr;
+			Argument index = foldArgument(calc.index);
+			Argument value = foldArgument(calc.value);
+			if( index == calc.index && value == calc.value )
+				return calc;
+			return new CalcInstruction(calc.variable, index, value);
+		} else if( instr instanceof AllocNumberInstruction ) {
+			AllocNumberInstruction alloc = (AllocNumberInstruction) instr;
+			Argument index = foldArgument(alloc.index);
+			Argument value = foldArgument(alloc.value);
+			if( index == alloc.index && value == alloc.value )
+				return alloc;
+			return new AllocNumberInstruction(alloc.variable, index, value);
+		} else if( instr instanceof DispInstruction ) {
+			DispInstruction disp = (DispInstruction) instr;
+			Argument text = foldArgument(disp.text);
+			Argument row = foldArgument(disp.row);
+			Argument column = foldArgument(disp.column);
+			if( text == disp.text && row == disp.row && column == disp.column )
+				return disp;
+			return new DispInstruction(disp.buffer, text, row, column);
+		} else if( instr instanceof AllocScreenBufferInstruction ) {
+			AllocScreenBufferInstruction alloc = (AllocScreenBufferInstruction) instr;
+			Argument rows = foldArgument(alloc.rows);
+			Argument columns = foldArgument(alloc.columns);
+			if( rows == alloc.rows && columns == alloc.columns )
+				return alloc;
+			return new AllocScreenBufferInstruction(alloc.variable, rows, columns);
+		}
+		return instr;
+	}
+	
+	// folds an instruction's argument, recording the folding if anything changed
+	private Argument foldArgument(Argument arg) {
+		Argument result = fold(arg, numeric);
+		if( result != arg )
+			foldings.add( new Folding(arg, result) );
+		return result;
+	}
+	
+	// folds an argument on its own, knowing nothing of the variables it reads
+	public static Argument fold(Argument arg) {
+		return fold( arg, Collections.<Symbol>emptySet() );
+	}
+	
+	private static Argument fold(Argument arg, Set<Symbol> numeric) {
+		if( arg instanceof IndexedVariable ) {
+			IndexedVariable element = (IndexedVariable) arg;
+			Argument index = fold(element.index, numeric);
+			return index == element.index ? element : new IndexedVariable(element.array, index);
+		}
+		if( !(arg instanceof Expression) )
+			return arg;
+		Expression expr = (Expression) arg;
+		List<Argument> arguments = new ArrayList<Argument>(expr.arguments.size());
+		boolean changed = false;
+		for( Argument x : expr.arguments ) {
+			Argument y = fold(x, numeric);
+			changed |= y != x;
+			arguments.add(y);
+		}
+		
+		if( expr.operator == null && arguments.size() == 1 )
+			return arguments.get(0); // (x) => x
+		if( expr.operator instanceof OperatorToken && arguments.size() == 2 ) {
+			Argument x = arguments.get(0);
+			Argument y = arguments.get(1);
+			ComplexRational a = valueOf(x);
+			ComplexRational b = valueOf(y);
+			if( a != null && b != null ) {
+				try {
+					return NumberToken.valueOf( Operators.apply(expr.operator, a, b) );
+				} catch(ArithmeticException e) {
+					// leave it to fail at run time
+				}
+			} else {
+				Argument simplified = simplify(expr.operator, x, a, y, b, numeric);
+				if( simplified != null )
+					return simplified;
+			}
+		}
+		return changed ? new Expression( expr.operator, Collections.unmodifiableList(arguments) ) : expr;
+	}
+	
+	// applies an algebraic identity where exactly one of a or b is known, and the other operand is numeric; or returns null
+	private static Argument simplify(Token operator, Argument x, ComplexRational a, Argument y, ComplexRational b, Set<Symbol> numeric) {
+		if( !isNumeric(a != null ? y : x, numeric) )
+			return null;
+		if( operator == PlusToken.instance ) {
+			if( a != null && Operators.isZero(a) )
+				return y;
+			if( b != null && Operators.isZero(b) )
+				return x;
+		} else if( operator == MinusToken.instance ) {
+			if( b != null && Operators.isZero(b) )
+				return x;
+		} else if( operator == TimesToken.instance ) {
+			if( a != null && Operators.isOne(a) )
+				return y;
+			if( b != null && Operators.isOne(b) )
+				return x;
+		} else if( operator == DivideToken.instance ) {
+			if( b != null && Operators.isOne(b) )
+				return x;
+		}
+		return null;
+	}
+	
+	// whether the argument evaluates only to a number (if at all): a number, a numeric variable, a comparison,
+	// or arithmetic (or parentheses) of numeric arguments; not a string, an element, or a function's result
+	private static boolean isNumeric(Argument arg, Set<Symbol> numeric) {
+		if( arg instanceof NumberToken )
+			return true;
+		if( arg instanceof IdentifierToken )
+			return numeric.contains( ((IdentifierToken) arg).getSymbol() );
+		if( !(arg instanceof Expression) )
+			return false;
+		Expression expr = (Expression) arg;
+		if( expr.operator != null && !(expr.operator instanceof OperatorToken) )
+			return false;
+		if( expr.operator != null && !isArithmetic(expr.operator) )
+			return true; // a comparison, which (of anything) is 1 or 0
+		for( Argument x : expr.arguments )
+			if( !isNumeric(x, numeric) )
+				return false;
+		return true;
+	}
+	
+	private static boolean isArithmetic(Token operator) {
+		return operator == PlusToken.instance || operator == MinusToken.instance
+			|| operator == TimesToken.instance || operator == DivideToken.instance;
+	}
+	
+	// the variables the program only ever assigns numbers to; or none, if it has instructions not known here (which might assign any)
+	private static Set<Symbol> numericVariables(List<? extends Instruction> instructions) {
+		Map<Symbol, List<Argument>> assigned = new HashMap<Symbol, List<Argument>>(); // variable -> the values Calc assigns it
+		Set<Symbol> other = new HashSet<Symbol>(); // assigned a screen buffer
+		for( Instruction instr : instructions )
+			if( !assignments(instr, assigned, other) )
+				return Collections.emptySet();
+		Set<Symbol> numeric = new HashSet<Symbol>( assigned.keySet() );
+		numeric.removeAll(other);
+		// assume them all numeric, then rule out those assigned a value which might not be, until none are
+		boolean changed = true;
+		while( changed ) {
+			changed = false;
+			for( Map.Entry<Symbol, List<Argument>> e : assigned.entrySet() ) {
+				if( !numeric.contains(e.getKey()) )
+					continue;
+				for( Argument value : e.getValue() ) {
+					if( !isNumeric(value, numeric) ) {
+						numeric.remove( e.getKey() );
+						changed = true;
+						break;
+					}
+				}
+			}
+		}
+		return numeric;
+	}
+	
+	// collects what the instruction assigns to variables (not elements); returns false if it isn't known here
+	private static boolean assignments(Instruction instr, Map<Symbol, List<Argument>> assigned, Set<Symbol> other) {
+		if( instr instanceof InstructionBlock ) {
+			for( Instruction x : (InstructionBlock) instr )
+				if( !assignments(x, assigned, other) )
+					return false;
+			return true;
+		} else if( instr instanceof IfInstruction ) {
+			return assignments( ((IfInstruction) instr).instruction, assigned, other );
+		} else if( instr instanceof ElseInstruction ) {
+			return assignments( ((ElseInstruction) instr).instruction, assigned, other );
+		} else if( instr instanceof WhileInstruction ) {
+			return assignments( ((WhileInstruction) instr).instruction, assigned, other );
+		} else if( instr instanceof CalcInstruction ) {
+			CalcInstruction calc = (CalcInstruction) instr;
+			if( calc.index == null ) {
+				List<Argument> values = assigned.get( calc.variable.getSymbol() );
+				if( values == null )
+					assigned.put( calc.variable.getSymbol(), values = new ArrayList<Argument>() );
+				values.add(calc.value);
+			}
+			return true;
+		} else if( instr instanceof AllocNumberInstruction ) {
+			AllocNumberInstruction alloc = (AllocNumberInstruction) instr;
+			if( alloc.index == null && !assigned.containsKey(alloc.variable.getSymbol()) )
+				assigned.put( alloc.variable.getSymbol(), new ArrayList<Argument>() ); // which fails, rather than assign anything else
+			return true;
+		} else if( instr instanceof AllocScreenBufferInstruction ) {
+			other.add( ((AllocScreenBufferInstruction) instr).variable.getSymbol() );
+			return true;
+		}
+		return instr == null || instr instanceof DispInstruction || instr instanceof ShowInstruction
+			|| instr instanceof DeallocInstruction || instr instanceof SetTitleInstruction;
+	}
+	
+	// the value of a constant argument; or null
+	private static ComplexRational valueOf(Argument arg) {
+		return arg instanceof NumberToken ? ((NumberToken) arg).parseValue() : null;
+	}
+}
@@ -12,7 +12,7 @@ public class DeallocInstruction implements Instruction
 {
 	public final IdentifierToken variable;
 	
-	private DeallocInstruction(IdentifierToken variable) {
+	DeallocInstruction(IdentifierToken variable) {
 		this.variable = variable;
 	}
 	
@@ -0,0 +1,46 @@
+package com.mathhead200.tuil.parser;
+
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import com.mathhead200.tuil.lexer.IdentifierToken;
+import com.mathhead200.tuil.lexer.TuilLexer;
+
+
+public class DispInstruction implements Instruction
+{
+	public final IdentifierToken buffer; // or null, for the screen buffer shown
+	public final Argument text;
+	public final Argument row; // or null, for the caret position
+	public final Argument column;
+	
+	DispInstruction(IdentifierToken buffer, Argument text, Argument row, Argument column) {
+		this.buffer = buffer;
+		this.text = text;
+		this.row = row;
+		this.column = column;
+	}
+	
+	// Disp [buffer] text [row column];
+	public static DispInstruction extract(TuilLexer lexer) {
+		List<Argument> args;
+		try {
+			args = Argument.extractAll(lexer);
+		} catch(NoSuchElementException e) {
+			throw new ParseException("unexpected end of file", e);
+		}
+		int n = args.size();
+		if( n < 1 || n > 4 )
+			throw new ParseException("Disp takes 1 to 4 arguments, not " + n);
+		IdentifierToken buffer = null;
+		if( n == 2 || n == 4 ) {
+			if( !(args.get(0) instanceof IdentifierToken) )
+				throw new ParseException("Disp expects a screen buffer variable, not " + Expression.toString(args.get(0)));
+			buffer = (IdentifierToken) args.remove(0);
+		}
+		Argument text = args.get(0);
+		if( args.size() == 3 )
+			return new DispInstruction( buffer, text, args.get(1), args.get(2) );
+		return new DispInstruction(buffer, text, null, null);
+	}
+}
@@ -7,11 +7,15 @@ public class ElseInstruction implements Instruction
 {
 	public final Instruction instruction;
 	
-	private ElseInstruction(Instruction instruction) {
+	ElseInstruction(Instruction instruction) {
 		this.instruction = instruction;
 	}
 	
 	public static ElseInstruction extract(TuilLexer lexer) {
-		return new ElseInstruction( Instruction.extract(lexer) );
+		return extract(lexer, null);
+	}
+	
+	public static ElseInstruction extract(TuilLexer lexer, ParseListener listener) {
+		return new ElseInstruction( Instruction.extract(lexer, listener) );
 	}
 }
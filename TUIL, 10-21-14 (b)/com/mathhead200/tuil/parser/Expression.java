@@ -6,6 +6,8 @@ import java.util.List;
 
 import com.mathhead200.tuil.lexer.CloseParenthesisToken;
 import com.mathhead200.tuil.lexer.FunctionToken;
+import com.mathhead200.tuil.lexer.IdentifierToken;
+import com.mathhead200.tuil.lexer.OpenBracketToken;
 import com.mathhead200.tuil.lexer.OpenParenthesisToken;
 import com.mathhead200.tuil.lexer.OperatorToken;
 import com.mathhead200.tuil.lexer.Token;
@@ -17,7 +19,7 @@ public class Expression implements Argument
 	public final Token operator;
 	public final List<Argument> arguments;
 	
-	private Expression(Token operator, List<Argument> arguments) {
+	Expression(Token operator, List<Argument> arguments) {
 		this.operator = operator;
 		this.arguments = arguments;
 	}
@@ -25,6 +27,7 @@ public class Expression implements Argument
 	public static Expression extract(TuilLexer lexer) {
 		Token operator = null;
 		List<Argument> arguments = new ArrayList<Argument>(2);
+		Token previous = null;
 		while(true) {
 			if( !lexer.hasNext() )
 				throw new ParseException("no matching close parenthesis token \")\" for this expression");
@@ -48,6 +51,11 @@ public class Expression implements Argument
 				if( (operator != null && !(operator instanceof FunctionToken) && arguments.size() == 2) || (operator == null && arguments.size() == 1) )
 					throw new ParseException("unexpected token \"" + token.getLexeme() + "\" in expression");
 				arguments.add((Argument) token);
+			} else if( token instanceof OpenBracketToken ) {
+				// array[index]
+				if( !(previous instanceof IdentifierToken) )
+					throw new ParseException("unexpected token \"" + token.getLexeme() + "\" in expression");
+				arguments.set( arguments.size() - 1, IndexedVariable.extract((IdentifierToken) previous, lexer) );
 			} else if( token instanceof OpenParenthesisToken ) {
 				if( (operator != null && !(operator instanceof FunctionToken) && arguments.size() == 2) || (operator == null && arguments.size() == 1) )
 					throw new ParseException("unexpected token \"" + token.getLexeme() + "\" in expression");
@@ -55,7 +63,27 @@ public class Expression implements Argument
 			} else {
 				throw new ParseException("unexpected token \"" + token.getLexeme() + "\" in expression");
 			}
+			previous = token;
 		}
 		return new Expression( operator, Collections.unmodifiableList(arguments) );
 	}
+	
+	static String toString(Argument arg) {
+		return arg instanceof Token ? ((Token) arg).getLexeme() : arg.toString();
+	}
+	
+	// the expression as it would be written in source
+	public String toString() {
+		StringBuilder str = new StringBuilder("(");
+		if( operator instanceof FunctionToken )
+			str.append( operator.getLexeme() ).append(' ');
+		for( int i = 0; i < arguments.size(); i++ ) {
+			if( i > 0 )
+				str.append(' ');
+			if( i == 1 && operator != null && !(operator instanceof FunctionToken) )
+				str.append( operator.getLexeme() ).append(' ');
+			str.append( toString(arguments.get(i)) );
+		}
+		return str.append(')').toString();
+	}
 }
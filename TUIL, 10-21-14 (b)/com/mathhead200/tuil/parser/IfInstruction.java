@@ -10,12 +10,16 @@ public class IfInstruction implements Instruction
 	public final Argument predicate;
 	public final Instruction instruction;
 	
-	private IfInstruction(Argument predicate, Instruction instruction) {
+	IfInstruction(Argument predicate, Instruction instruction) {
 		this.predicate = predicate;
 		this.instruction = instruction;
 	}
 	
 	public static IfInstruction extract(TuilLexer lexer) {
+		return extract(lexer, null);
+	}
+	
+	public static IfInstruction extract(TuilLexer lexer, ParseListener listener) {
 		Argument predicate;
 		if( !lexer.hasNext() )
 			throw new ParseException("unexpected end of file");
@@ -26,7 +30,7 @@ public class IfInstruction implements Instruction
 			predicate = Expression.extract(lexer);
 		else
 			throw new ParseException("unexpected token \"" + token.getLexeme() + "\"");
-		Instruction instruction = Instruction.extract(lexer);
+		Instruction instruction = Instruction.extract(lexer, listener);
 		return new IfInstruction(predicate, instruction);
 	}
 }
@@ -0,0 +1,287 @@
+package com.mathhead200.tuil.parser;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import com.mathhead200.tuil.lexer.LexerException;
+import com.mathhead200.tuil.lexer.TokenStream;
+import com.mathhead200.tuil.lexer.TuilLexer;
+
+
+/**
+ * Keeps a parsed source up to date through a series of text edits (e.g. from an editor.)
+ * Each edit re-lexes only the damaged range of tokens (see {@link TokenStream#edit}),
+ * then re-parses only the instructions overlapping it in the innermost instruction block whose braces survive the edit,
+ * stopping as soon as an instruction boundary lines up with an old one again (or the block's close brace is reached.)
+ * If the new instructions no longer fit between that block's braces, the enclosing block is re-parsed instead, and so on.
+ * Blocks are updated in place, so the instruction tree is shared from one edit to the next.
+ * A source with a lexer or parse error is kept (along with the instructions before the error)
+ * and is re-lexed and re-parsed in full on the next edit.
+ */
+public class IncrementalParser
+{
+	private CharSequence source;
+	private TokenStream tokens = null;
+	private final List<Instruction> instructions = new ArrayList<>();
+	private Scope root;
+	private RuntimeException error = null;
+	
+	public IncrementalParser(CharSequence source) {
+		reset(source);
+	}
+	
+	public CharSequence getSource() {
+		return source;
+	}
+	
+	public TokenStream getTokens() {
+		return tokens;
+	}
+	
+	public List<Instruction> getInstructions() {
+		return Collections.unmodifiableList(instructions);
+	}
+	
+	// the LexerException or ParseException in the current source, or null if there is none
+	public RuntimeException getError() {
+		return error;
+	}
+	
+	// edits the source kept by this parser; which copies only the path down to the edit (see SourceRope)
+	public void edit(int offset, int removed, CharSequence text) {
+		edit( SourceRope.of(source).replace(offset, removed, text), offset, removed, text.length() );
+	}
+	
+	public void edit(CharSequence newSource, int offset, int removed, int inserted) {
+		if( error != null ) {
+			reset(newSource);
+			return;
+		}
+		source = newSource;
+		TokenStream.Edit edit;
+		try {
+			edit = tokens.edit(newSource, offset, removed, inserted);
+		} catch(LexerException e) {
+			error = e;
+			return;
+		}
+		tokens = edit.stream;
+		final int shift = edit.newEnd - edit.oldEnd;
+		
+		// find the innermost block whose braces are both outside the damaged tokens
+		List<Scope> path = new ArrayList<>(); // from the root down
+		List<Integer> bases = new ArrayList<>();
+		List<Integer> indices = new ArrayList<>(); // of the instruction in each scope on the path holding the next
+		Scope scope = root;
+		int base = 0;
+		int k;
+		while(true) {
+			k = scope.instructionAt(edit.first - base);
+			Scope inner = k >= 0 ? scope.inner[k] : null;
+			if( inner == null )
+				break;
+			int open = base + scope.starts[k] + inner.offset;
+			if( open >= edit.first || open + inner.close < edit.oldEnd )
+				break;
+			path.add(scope);
+			bases.add(base);
+			indices.add(k);
+			scope = inner;
+			base = open;
+		}
+		
+		// re-parse there, or else further out
+		while( !parse(scope, base, k, edit.newEnd, edit.oldEnd, shift) ) {
+			int last = path.size() - 1;
+			scope = path.remove(last);
+			base = bases.remove(last);
+			k = indices.remove(last);
+		}
+		for( int i = 0; i < path.size(); i++ )
+			path.get(i).shift( indices.get(i) + 1, shift );
+	}
+	
+	private void reset(CharSequence source) {
+		this.source = source;
+		instructions.clear();
+		root = new Scope(instructions);
+		error = null;
+		try {
+			tokens = TokenStream.lex(source);
+		} catch(LexerException e) {
+			error = e;
+			return;
+		}
+		parse(root, 0, -1, 0, 0, 0);
+	}
+	
+	/**
+	 * Replaces instructions k, k+1, ... of the scope with the ones parsed from the start of instruction k
+	 * (or from the start of the scope, if k is negative), until parsing lines up with the start
+	 * of an old (undamaged) instruction, or reaches the scope's close brace.
+	 * @param base - The (new) token index of the scope's open brace; or 0 for the root.
+	 * @return false, without changing anything, if the instructions parsed don't end at the close brace;
+	 * 	(at the root, a parse error is recorded, and the instructions before it kept, instead.)
+	 */
+	private boolean parse(Scope scope, int base, int k, int newEnd, int oldEnd, int shift) {
+		final boolean isRoot = scope == root;
+		final int size = scope.size();
+		final int end = isRoot ? tokens.size() : base + scope.close + shift;
+		if( k < 0 )
+			k = 0;
+		List<Instruction> parsed = new ArrayList<>();
+		Recorder recorder = new Recorder();
+		TokenStream.Cursor cursor = recorder.cursor;
+		cursor.seek( k < size ? base + scope.starts[k] : isRoot ? 0 : base + 1 );
+		int m = k; // next old instruction which may be reused
+		try {
+			while(true) {
+				int index = cursor.getIndex();
+				if( index == end ) {
+					m = size;
+					break;
+				}
+				if( index > end )
+					return false;
+				if( index >= newEnd ) {
+					// past the damage: does an old instruction start here?
+					while( m < size && base + scope.starts[m] + shift < index )
+						m++;
+					if( m < size && base + scope.starts[m] >= oldEnd && base + scope.starts[m] + shift == index )
+						break;
+				}
+				parsed.add( Instruction.extract(cursor, recorder) );
+			}
+		} catch(ParseException | LexerException e) {
+			if( !isRoot )
+				return false;
+			error = e;
+			m = size;
+		}
+		
+		// splice: [0, k) + parsed + [m, size) shifted
+		int n = parsed.size();
+		int newSize = k + n + (size - m);
+		scope.ensureCapacity(newSize);
+		System.arraycopy(scope.starts, m, scope.starts, k + n, size - m);
+		System.arraycopy(scope.inner, m, scope.inner, k + n, size - m);
+		for( int i = k + n; i < newSize; i++ )
+			scope.starts[i] += shift;
+		for( int i = 0; i < n; i++ ) {
+			Recorder.Span span = recorder.parsed.get(i);
+			scope.starts[k + i] = span.start - base;
+			scope.inner[k + i] = span.scope;
+			if( span.scope != null )
+				span.scope.offset = span.open - span.start;
+		}
+		Arrays.fill(scope.inner, newSize, Math.max(newSize, size), null);
+		scope.instructions.subList(k, m).clear();
+		scope.instructions.addAll(k, parsed);
+		if( !isRoot )
+			scope.close += shift;
+		return true;
+	}
+	
+	
+	/**
+	 * An instruction block (or, for the root, the whole source) with the token index at which each of its instructions starts.
+	 * Indices are relative, so an edit only shifts those of the instructions after it, in each block down to it:
+	 * each instruction's start is relative to its scope's open brace (or, for the root, to the start of the source),
+	 * and the open brace of a nested scope to the start of the instruction holding it.
+	 */
+	private static class Scope
+	{
+		final List<Instruction> instructions; // the block; or, for the root, the top-level instructions
+		int[] starts = new int[4];
+		Scope[] inner = new Scope[4]; // the outermost block within each instruction (e.g. a While's body); or null
+		int offset = 0; // of the open brace, from the start of the instruction holding this block
+		int close = 0; // of the close brace, from the open brace
+		
+		Scope(List<Instruction> instructions) {
+			this.instructions = instructions;
+		}
+		
+		int size() {
+			return instructions.size();
+		}
+		
+		void ensureCapacity(int capacity) {
+			if( capacity > starts.length ) {
+				capacity = Math.max(capacity, 2 * starts.length);
+				starts = Arrays.copyOf(starts, capacity);
+				inner = Arrays.copyOf(inner, capacity);
+			}
+		}
+		
+		// the last instruction starting at or before the (relative) token index; or -1 if none does
+		int instructionAt(int index) {
+			int k = Arrays.binarySearch(starts, 0, size(), index);
+			return k >= 0 ? k : -k - 2;
+		}
+		
+		// moves instructions from the given one on (and the close brace) by the given number of tokens
+		void shift(int from, int shift) {
+			if( shift == 0 )
+				return;
+			for( int i = from; i < size(); i++ )
+				starts[i] += shift;
+			close += shift;
+		}
+	}
+	
+	
+	// Builds the scope of each instruction block parsed from the cursor.
+	private class Recorder implements ParseListener
+	{
+		// an instruction parsed, and the outermost block within it (if any)
+		class Span
+		{
+			final int start;
+			final Scope scope;
+			final int open; // token index of the block's open brace
+			
+			Span(int start, Scope scope, int open) {
+				this.start = start;
+				this.scope = scope;
+				this.open = open;
+			}
+		}
+		
+		final TokenStream.Cursor cursor = tokens.cursor();
+		final List<Span> parsed = new ArrayList<>(); // the instructions parsed directly in the scope
+		private final List<Integer> starts = new ArrayList<>(); // of the instructions being parsed
+		private final List<List<Span>> contents = new ArrayList<>(); // and of the instructions parsed within them
+		
+		public void begin(TuilLexer lexer) {
+			starts.add( cursor.getIndex() - 1 );
+			contents.add( new ArrayList<>() );
+		}
+		
+		public void end(Instruction instr, TuilLexer lexer, int line) {
+			int last = starts.size() - 1;
+			int start = starts.remove(last);
+			List<Span> within = contents.remove(last);
+			Span span;
+			if( instr instanceof InstructionBlock ) {
+				Scope scope = new Scope( (InstructionBlock) instr );
+				scope.close = cursor.getIndex() - 1 - start;
+				scope.ensureCapacity( within.size() );
+				for( int i = 0; i < within.size(); i++ ) {
+					Span s = within.get(i);
+					scope.starts[i] = s.start - start;
+					scope.inner[i] = s.scope;
+					if( s.scope != null )
+						s.scope.offset = s.open - s.start;
+				}
+				span = new Span(start, scope, start);
+			} else {
+				// If, Else, and While hold (at most) one instruction
+				Span body = within.isEmpty() ? null : within.get(0);
+				span = body != null && body.scope != null ? new Span(start, body.scope, body.open) : new Span(start, null, -1);
+			}
+			(contents.isEmpty() ? parsed : contents.get(last - 1)).add(span);
+		}
+	}
+}
@@ -0,0 +1,45 @@
+package com.mathhead200.tuil.parser;
+
+import java.util.NoSuchElementException;
+
+import com.mathhead200.tuil.lexer.CloseBracketToken;
+import com.mathhead200.tuil.lexer.IdentifierToken;
+import com.mathhead200.tuil.lexer.Token;
+import com.mathhead200.tuil.lexer.TuilLexer;
+
+
+/**
+ * An element of an array variable, e.g. <code>array[index]</code>.
+ */
+public class IndexedVariable implements Argument
+{
+	public final IdentifierToken array;
+	public final Argument index;
+	
+	IndexedVariable(IdentifierToken array, Argument index) {
+		this.array = array;
+		this.index = index;
+	}
+	
+	// parses "index]", following an open bracket
+	static Argument extractIndex(TuilLexer lexer) {
+		try {
+			Argument index = Argument.extract(lexer.next(), lexer);
+			Token token = lexer.next();
+			if( !(token instanceof CloseBracketToken) )
+				throw new ParseException(token);
+			return index;
+		} catch(NoSuchElementException e) {
+			throw new ParseException("unexpected end of file", e);
+		}
+	}
+	
+	// parses "index]", following "array["
+	public static IndexedVariable extract(IdentifierToken array, TuilLexer lexer) {
+		return new IndexedVariable( array, extractIndex(lexer) );
+	}
+	
+	public String toString() {
+		return array.getLexeme() + "[" + Expression.toString(index) + "]";
+	}
+}
@@ -12,41 +12,42 @@ import com.mathhead200.tuil.lexer.TuilLexer;
 public interface Instruction
 {
 	// private:
-	static Instruction _extractInstruction(Token token, TuilLexer lexer) {
-		String lexeme = token.getLexeme().toUpperCase();
-		if( lexeme.equals("IF") )
-			return IfInstruction.extract(lexer);
-		if( lexeme.equals("ELSE") )
-			return ElseInstruction.extract(lexer);
-		if( lexeme.equals("WHILE") )
-			return WhileInstruction.extract(lexer);
-		if( lexeme.equals("ALLOCSCREENBUFFER") )
-			return AllocScreenBufferInstruction.extract(lexer);
-		if( lexeme.equals("CALC") )
-			return CalcInstruction.extract(lexer);
-		if( lexeme.equals("DEALLOC") )
-			return DeallocInstruction.extract(lexer);
-		// TODO: ...
-		throw new ParseException("invalid instruction: \"" + token.getLexeme() + "\"");
+	static Instruction _extractInstruction(IdentifierToken token, TuilLexer lexer, ParseListener listener) {
+		InstructionParser parser = InstructionRegistry.get( token.getSymbol() );
+		if( parser == null )
+			throw new ParseException("invalid instruction: \"" + token.getLexeme() + "\"");
+		if( listener == null )
+			return parser.extract(lexer);
+		int line = lexer.getLine();
+		listener.begin(lexer);
+		Instruction instr = parser.extract(lexer, listener);
+		listener.end(instr, lexer, line);
+		return instr;
 	}
 	
-	static InstructionBlock _extractInstructionBlock(TuilLexer lexer) {
+	static InstructionBlock _extractInstructionBlock(TuilLexer lexer, ParseListener listener) {
 		InstructionBlock instrBlock = new InstructionBlock();
 		Instruction instr;
-		while( (instr = _extract(lexer)) != null )
+		while( (instr = _extract(lexer, listener)) != null )
 			instrBlock.add(instr);
 		return instrBlock;
 	}
 	
-	static Instruction _extract(TuilLexer lexer) {
+	static Instruction _extract(TuilLexer lexer, ParseListener listener) {
 		try {
 			Token token = lexer.next();
 			if( token instanceof IdentifierToken ) {
 				// instruction ...;
-				return _extractInstruction(token, lexer);
+				return _extractInstruction((IdentifierToken) token, lexer, listener);
 			} else if( token instanceof OpenBraceToken ) {
 				// instruction block { ... }
-				return _extractInstructionBlock(lexer);
+				if( listener == null )
+					return _extractInstructionBlock(lexer, null);
+				int line = lexer.getLine();
+				listener.begin(lexer);
+				InstructionBlock instrBlock = _extractInstructionBlock(lexer, listener);
+				listener.end(instrBlock, lexer, line);
+				return instrBlock;
 			} else if( token instanceof CloseBraceToken ) {
 				// end of instruction block
 				return null; // this indicates the recursion should stop
@@ -61,9 +62,14 @@ public interface Instruction
 	
 	// public:
 	public static Instruction extract(TuilLexer lexer) {
+		return extract(lexer, null);
+	}
+	
+	// telling the listener (if not null) of each instruction parsed, including those nested inside it
+	public static Instruction extract(TuilLexer lexer, ParseListener listener) {
 		if( !lexer.hasNext() )
 			return null;
-		Instruction instr = _extract(lexer);
+		Instruction instr = _extract(lexer, listener);
 		if( instr == null )
 			throw new ParseException("unmatched close brace token \"}\"");
 		return instr;
@@ -0,0 +1,26 @@
+package com.mathhead200.tuil.parser;
+
+import com.mathhead200.tuil.lexer.TuilLexer;
+
+
+// Parses the rest of an instruction, after its (keyword) name.
+public interface InstructionParser
+{
+	public Instruction extract(TuilLexer lexer);
+	
+	// parses the instruction, telling the listener of any instructions it contains
+	public default Instruction extract(TuilLexer lexer, ParseListener listener) {
+		return extract(lexer);
+	}
+	
+	
+	// Parses an instruction which contains others (e.g. If), with Instruction.extract(lexer, listener).
+	public interface Compound extends InstructionParser
+	{
+		public Instruction extract(TuilLexer lexer, ParseListener listener);
+		
+		public default Instruction extract(TuilLexer lexer) {
+			return extract(lexer, null);
+		}
+	}
+}
@@ -0,0 +1,46 @@
+package com.mathhead200.tuil.parser;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.mathhead200.tuil.lexer.Symbol;
+
+
+/**
+ * Maps (case-insensitive) instruction names to the {@link InstructionParser} for each.
+ * Embedders may register their own instructions at startup, before parsing.
+ */
+public class InstructionRegistry
+{
+	private static final Map<String, InstructionParser> parsers = new ConcurrentHashMap<>();
+	static {
+		register("If", (InstructionParser.Compound) IfInstruction::extract);
+		register("Else", (InstructionParser.Compound) ElseInstruction::extract);
+		register("While", (InstructionParser.Compound) WhileInstruction::extract);
+		register("AllocScreenBuffer", AllocScreenBufferInstruction::extract);
+		register("Calc", CalcInstruction::extract);
+		register("Dealloc", DeallocInstruction::extract);
+		register("AllocNumber", AllocNumberInstruction::extract);
+		register("Show", ShowInstruction::extract);
+		register("Disp", DispInstruction::extract);
+		// TODO: ...
+	}
+	
+	private InstructionRegistry() {
+	}
+	
+	public static void register(String name, InstructionParser parser) {
+		if( parsers.putIfAbsent(name.toUpperCase(Locale.ROOT), parser) != null )
+			throw new IllegalArgumentException("instruction already registered: " + name);
+	}
+	
+	public static InstructionParser get(String name) {
+		return parsers.get( name.toUpperCase(Locale.ROOT) );
+	}
+	
+	// doesn't allocate; a symbol's upper case name is computed once
+	public static InstructionParser get(Symbol name) {
+		return parsers.get( name.getUpperCaseName() );
+	}
+}
@@ -0,0 +1,262 @@
+package com.mathhead200.tuil.parser;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.mathhead200.tuil.lexer.FunctionToken;
+import com.mathhead200.tuil.lexer.IdentifierToken;
+import com.mathhead200.tuil.lexer.SymbolTable;
+
+
+/**
+ * Hoists loop-invariant expressions out of While loops. An expression is invariant if it calls no functions
+ * and reads no variable written (by Calc, AllocNumber, AllocScreenBuffer, or Dealloc) anywhere in the loop.
+ * Only expressions evaluated on every iteration, before it changes anything, are hoisted: those in the predicate,
+ * and in the arguments of the body's top-level instructions up to the first which writes a variable or displays something.
+ * (So a hoisted expression which fails does so before the same writes and displays as it would have in the loop;
+ * though if another expression of the same instruction would fail too, the hoisted one is the error reported.)
+ * The loop
+ * <pre>While p body</pre>
+ * becomes
+ * <pre>{ If p { Calc #0 e; ...; While p' body'; Dealloc #0; ... } }</pre>
+ * where the guard keeps an expression from being evaluated if the loop would not run.
+ * Temporaries are named "#n", which can not be written in source. Loops containing instructions
+ * unknown to this pass are left as written.
+ */
+public class LoopInvariantMotion
+{
+	private final SymbolTable symbols;
+	private int temporaries = 0;
+	private int hoisted = 0;
+	
+	public LoopInvariantMotion(SymbolTable symbols) {
+		this.symbols = symbols;
+	}
+	
+	public LoopInvariantMotion() {
+		this( new SymbolTable() );
+	}
+	
+	
+	// the number of expressions hoisted so far
+	public int getHoistedCount() {
+		return hoisted;
+	}
+	
+	public List<Instruction> optimize(List<? extends Instruction> instructions) {
+		List<Instruction> result = new ArrayList<Instruction>(instructions.size());
+		for( Instruction instr : instructions )
+			result.add( optimize(instr) );
+		return result;
+	}
+	
+	public Instruction optimize(Instruction instr) {
+		if( instr instanceof InstructionBlock ) {
+			InstructionBlock block = (InstructionBlock) instr;
+			InstructionBlock result = new InstructionBlock();
+			boolean changed = false;
+			for( Instruction x : block ) {
+				Instruction y = optimize(x);
+				changed |= y != x;
+				result.add(y);
+			}
+			return changed ? result : block;
+		} else if( instr instanceof IfInstruction ) {
+			IfInstruction ifInstr = (IfInstruction) instr;
+			Instruction instruction = optimize(ifInstr.instruction);
+			return instruction == ifInstr.instruction ? ifInstr : new IfInstruction(ifInstr.predicate, instruction);
+		} else if( instr instanceof ElseInstruction ) {
+			ElseInstruction elseInstr = (ElseInstruction) instr;
+			Instruction instruction = optimize(elseInstr.instruction);
+			return instruction == elseInstr.instruction ? elseInstr : new ElseInstruction(instruction);
+		} else if( instr instanceof WhileInstruction ) {
+			WhileInstruction whileInstr = (WhileInstruction) instr;
+			Instruction body = optimize(whileInstr.instruction); // inner loops first
+			return hoist(whileInstr, body);
+		}
+		return instr;
+	}
+	
+	
+	// the upper-case names of the variables an instruction may write; or null if that is unknown
+	static Set<String> writes(Instruction instr, Set<String> names) {
+		if( instr instanceof InstructionBlock ) {
+			for( Instruction x : (InstructionBlock) instr )
+				if( writes(x, names) == null )
+					return null;
+		} else if( instr instanceof IfInstruction ) {
+			return writes( ((IfInstruction) instr).instruction, names );
+		} else if( instr instanceof ElseInstruction ) {
+			return writes( ((ElseInstruction) instr).instruction, names );
+		} else if( instr instanceof WhileInstruction ) {
+			return writes( ((WhileInstruction) instr).instruction, names );
+		} else if( instr instanceof CalcInstruction ) {
+			names.add( ((CalcInstruction) instr).variable.getSymbol().getUpperCaseName() );
+		} else if( instr instanceof AllocScreenBufferInstruction ) {
+			names.add( ((AllocScreenBufferInstruction) instr).variable.getSymbol().getUpperCaseName() );
+		} else if( instr instanceof AllocNumberInstruction ) {
+			names.add( ((AllocNumberInstruction) instr).variable.getSymbol().getUpperCaseName() );
+		} else if( instr instanceof DeallocInstruction ) {
+			names.add( ((DeallocInstruction) instr).variable.getSymbol().getUpperCaseName() );
+		} else if( instr instanceof DispInstruction || instr instanceof ShowInstruction ) {
+			// writes no variable
+		} else {
+			return null;
+		}
+		return names;
+	}
+	
+	// whether running an instruction may write a variable, or display something
+	static boolean hasEffects(Instruction instr) {
+		if( instr instanceof InstructionBlock ) {
+			for( Instruction x : (InstructionBlock) instr )
+				if( hasEffects(x) )
+					return true;
+			return false;
+		} else if( instr instanceof IfInstruction ) {
+			return hasEffects( ((IfInstruction) instr).instruction );
+		} else if( instr instanceof ElseInstruction ) {
+			return hasEffects( ((ElseInstruction) instr).instruction );
+		} else if( instr instanceof WhileInstruction ) {
+			return hasEffects( ((WhileInstruction) instr).instruction );
+		}
+		return true;
+	}
+	
+	static boolean isInvariant(Argument arg, Set<String> writes) {
+		if( arg instanceof IdentifierToken )
+			return !writes.contains( ((IdentifierToken) arg).getSymbol().getUpperCaseName() );
+		if( arg instanceof IndexedVariable ) {
+			IndexedVariable element = (IndexedVariable) arg;
+			return isInvariant(element.array, writes) && isInvariant(element.index, writes);
+		}
+		if( arg instanceof Expression ) {
+			Expression expr = (Expression) arg;
+			if( expr.operator instanceof FunctionToken )
+				return false;
+			for( Argument x : expr.arguments )
+				if( !isInvariant(x, writes) )
+					return false;
+		}
+		return true;
+	}
+	
+	
+	// one loop's hoisted expressions, by their source text
+	private class Hoist
+	{
+		final Set<String> writes;
+		final Map<String, IdentifierToken> temporaries = new LinkedHashMap<String, IdentifierToken>();
+		final InstructionBlock prologue = new InstructionBlock();
+		
+		Hoist(Set<String> writes) {
+			this.writes = writes;
+		}
+		
+		// replaces maximal invariant expressions within the argument by temporaries
+		Argument replace(Argument arg) {
+			if( arg instanceof IndexedVariable ) {
+				IndexedVariable element = (IndexedVariable) arg;
+				Argument index = replace(element.index);
+				return index == element.index ? element : new IndexedVariable(element.array, index);
+			}
+			if( !(arg instanceof Expression) )
+				return arg;
+			Expression expr = (Expression) arg;
+			if( expr.operator != null && isInvariant(expr, writes) ) {
+				String key = expr.toString();
+				IdentifierToken temp = temporaries.get(key);
+				if( temp == null ) {
+					temp = IdentifierToken.of( symbols.intern("#" + LoopInvariantMotion.this.temporaries++) );
+					temporaries.put(key, temp);
+					prologue.add( new CalcInstruction(temp, expr) );
+					hoisted++;
+				}
+				return temp;
+			}
+			List<Argument> arguments = new ArrayList<Argument>(expr.arguments.size());
+			boolean changed = false;
+			for( Argument x : expr.arguments ) {
+				Argument y = replace(x);
+				changed |= y != x;
+				arguments.add(y);
+			}
+			return changed ? new Expression( expr.operator, Collections.unmodifiableList(arguments) ) : expr;
+		}
+		
+		// replaces invariant expressions in the arguments of an instruction evaluated on every iteration
+		Instruction replace(Instruction instr) {
+			if( instr instanceof CalcInstruction ) {
+				CalcInstruction calc = (CalcInstruction) instr;
+				Argument index = replace(calc.index);
+				Argument value = replace(calc.value);
+				if( index == calc.index && value == calc.value )
+					return calc;
+				return new CalcInstruction(calc.variable, index, value);
+			} else if( instr instanceof AllocNumberInstruction ) {
+				AllocNumberInstruction alloc = (AllocNumberInstruction) instr;
+				Argument index = replace(alloc.index);
+				Argument value = replace(alloc.value);
+				if( index == alloc.index && value == alloc.value )
+					return alloc;
+				return new AllocNumberInstruction(alloc.variable, index, value);
+			} else if( instr instanceof DispInstruction ) {
+				DispInstruction disp = (DispInstruction) instr;
+				Argument text = replace(disp.text);
+				Argument row = replace(disp.row);
+				Argument column = replace(disp.column);
+				if( text == disp.text && row == disp.row && column == disp.column )
+					return disp;
+				return new DispInstruction(disp.buffer, text, row, column);
+			} else if( instr instanceof AllocScreenBufferInstruction ) {
+				AllocScreenBufferInstruction alloc = (AllocScreenBufferInstruction) instr;
+				Argument rows = replace(alloc.rows);
+				Argument columns = replace(alloc.columns);
+				if( rows == alloc.rows && columns == alloc.columns )
+					return alloc;
+				return new AllocScreenBufferInstruction(alloc.variable, rows, columns);
+			} else if( instr instanceof IfInstruction ) {
+				// the predicate is evaluated, but not necessarily the instruction
+				IfInstruction ifInstr = (IfInstruction) instr;
+				Argument predicate = replace(ifInstr.predicate);
+				return predicate == ifInstr.predicate ? ifInstr : new IfInstruction(predicate, ifInstr.instruction);
+			}
+			return instr;
+		}
+	}
+	
+	private Instruction hoist(WhileInstruction loop, Instruction body) {
+		Set<String> writes = writes( body, new HashSet<String>() );
+		if( writes == null )
+			return body == loop.instruction ? loop : new WhileInstruction(loop.predicate, body);
+		
+		Hoist hoist = new Hoist(writes);
+		Argument predicate = hoist.replace(loop.predicate);
+		if( body instanceof InstructionBlock ) {
+			InstructionBlock block = new InstructionBlock();
+			boolean changed = false; // by an earlier instruction of the iteration
+			for( Instruction x : (InstructionBlock) body ) {
+				block.add( changed ? x : hoist.replace(x) );
+				changed |= hasEffects(x);
+			}
+			body = block;
+		} else {
+			body = hoist.replace(body);
+		}
+		if( hoist.prologue.isEmpty() )
+			return body == loop.instruction ? loop : new WhileInstruction(loop.predicate, body);
+		
+		InstructionBlock guarded = hoist.prologue;
+		guarded.add( new WhileInstruction(predicate, body) );
+		for( IdentifierToken temp : hoist.temporaries.values() )
+			guarded.add( new DeallocInstruction(temp) );
+		InstructionBlock result = new InstructionBlock();
+		result.add( new IfInstruction(loop.predicate, guarded) );
+		return result;
+	}
+}
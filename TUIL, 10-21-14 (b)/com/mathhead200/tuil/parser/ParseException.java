@@ -6,6 +6,8 @@ import com.mathhead200.tuil.lexer.Token;
 public class ParseException extends RuntimeException
 {
 	private static final long serialVersionUID = 1791116564631088364L;
+	
+	private int line = 0;
 
 	public ParseException() {
 		super();
@@ -26,4 +28,14 @@ public class ParseException extends RuntimeException
 	public ParseException(Token token) {
 		this("unexpected token \"" + token.getLexeme() + "\"");
 	}
+	
+	public ParseException(String message, int line, Throwable cause) {
+		super("line " + line + ": " + message, cause);
+		this.line = line;
+	}
+	
+	// the line of the source on which the error was found; or 0 if unknown
+	public int getLine() {
+		return line;
+	}
 }
@@ -0,0 +1,19 @@
+package com.mathhead200.tuil.parser;
+
+import com.mathhead200.tuil.lexer.TuilLexer;
+
+
+/**
+ * Told of each instruction (and instruction block) as it is parsed; see {@link Instruction#extract(TuilLexer, ParseListener)}.
+ * Calls nest: the instructions an If, Else, While, or block contains begin and end between its own begin and end.
+ * For example, SourceLines records the line on which each instruction starts.
+ */
+public interface ParseListener
+{
+	// just after the first token of an instruction (its name, or the open brace of a block) is read
+	public default void begin(TuilLexer lexer) {
+	}
+	
+	// once the instruction is parsed; line is that of its first token
+	public void end(Instruction instr, TuilLexer lexer, int line);
+}
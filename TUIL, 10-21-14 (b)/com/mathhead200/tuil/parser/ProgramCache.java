@@ -0,0 +1,527 @@
+package com.mathhead200.tuil.parser;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.mathhead200.BigRational;
+import com.mathhead200.tuil.ComplexRational;
+import com.mathhead200.tuil.Metrics;
+import com.mathhead200.tuil.lexer.DivideToken;
+import com.mathhead200.tuil.lexer.EqualToToken;
+import com.mathhead200.tuil.lexer.FunctionToken;
+import com.mathhead200.tuil.lexer.GreaterThanOrEqualToToken;
+import com.mathhead200.tuil.lexer.GreaterThanToken;
+import com.mathhead200.tuil.lexer.IdentifierToken;
+import com.mathhead200.tuil.lexer.LessThanOrEqualToToken;
+import com.mathhead200.tuil.lexer.LessThanToken;
+import com.mathhead200.tuil.lexer.MinusToken;
+import com.mathhead200.tuil.lexer.NotEqualToToken;
+import com.mathhead200.tuil.lexer.NumberToken;
+import com.mathhead200.tuil.lexer.PlusToken;
+import com.mathhead200.tuil.lexer.StringToken;
+import com.mathhead200.tuil.lexer.Symbol;
+import com.mathhead200.tuil.lexer.SymbolTable;
+import com.mathhead200.tuil.lexer.TimesToken;
+import com.mathhead200.tuil.lexer.Token;
+import com.mathhead200.tuil.lexer.TuilBufferLexer;
+
+
+/**
+ * A directory of compiled programs (.tuilc files), named by the SHA-256 hash of their source and the format version.
+ * A compiled program holds the instruction tree (with the source line of each instruction), its symbols,
+ * and its number literals already parsed, so a source whose hash matches is loaded,
+ * with a single mapped read, without being lexed or parsed.
+ * Programs containing instructions unknown to the format are parsed, but not cached.
+ */
+public class ProgramCache
+{
+	public static final int FORMAT_VERSION = 3;
+	private static final int MAGIC = 0x5455494C; // "TUIL"
+	
+	// instruction tags
+	private static final byte BLOCK = 0;
+	private static final byte IF = 1;
+	private static final byte ELSE = 2;
+	private static final byte WHILE = 3;
+	private static final byte ALLOC_SCREEN_BUFFER = 4;
+	private static final byte CALC = 5;
+	private static final byte DEALLOC = 6;
+	private static final byte ALLOC_NUMBER = 7;
+	private static final byte DISP = 8;
+	private static final byte SHOW = 9;
+	
+	// argument tags
+	private static final byte IDENTIFIER = 0;
+	private static final byte NUMBER = 1;
+	private static final byte STRING = 2;
+	private static final byte EXPRESSION = 3;
+	private static final byte INDEXED = 4;
+	private static final byte NONE = 5; // an absent (null) argument
+	
+	// expression operator codes: 0 for none, 1 + index of operators, or FUNCTION
+	private static final Token[] operators = {
+		PlusToken.instance, MinusToken.instance, TimesToken.instance, DivideToken.instance,
+		EqualToToken.instance, NotEqualToToken.instance,
+		LessThanToken.instance, GreaterThanToken.instance, LessThanOrEqualToToken.instance, GreaterThanOrEqualToToken.instance
+	};
+	private static final byte FUNCTION = (byte) (operators.length + 1);
+	
+	private final Path directory;
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	
+	public ProgramCache(Path directory) {
+		this.directory = directory;
+	}
+	
+	
+	public Path getDirectory() {
+		return directory;
+	}
+	
+	public long getHits() {
+		return hits.sum();
+	}
+	
+	public long getMisses() {
+		return misses.sum();
+	}
+	
+	public List<Instruction> load(Path source, SymbolTable symbols, SourceLines lines) throws IOException {
+		return load( Files.readAllBytes(source), symbols, lines );
+	}
+	
+	public List<Instruction> load(Path source, SymbolTable symbols) throws IOException {
+		return load( Files.readAllBytes(source), symbols, null );
+	}
+	
+	public List<Instruction> load(Path source) throws IOException {
+		return load( source, new SymbolTable() );
+	}
+	
+	public List<Instruction> load(CharSequence source, SymbolTable symbols, SourceLines lines) throws IOException {
+		return load( source.toString().getBytes(StandardCharsets.UTF_8), symbols, lines );
+	}
+	
+	public List<Instruction> load(CharSequence source, SymbolTable symbols) throws IOException {
+		return load( source, symbols, null );
+	}
+	
+	/**
+	 * Loads the program whose source is the given UTF-8 bytes; from its compiled file if there is one, or else by parsing it.
+	 * @param lines - Given the line of each instruction loaded, or <code>null</code>.
+	 */
+	public List<Instruction> load(byte[] source, SymbolTable symbols, SourceLines lines) throws IOException {
+		byte[] hash = hash(source);
+		Path file = directory.resolve( fileName(hash) );
+		if( Files.isRegularFile(file) ) {
+			try( FileChannel channel = FileChannel.open(file, StandardOpenOption.READ) ) {
+				MappedByteBuffer bytes = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+				List<Instruction> program = decode(bytes, hash, symbols, lines);
+				if( program != null ) {
+					hits.increment();
+					Metrics.cacheLookup(true);
+					return program;
+				}
+			}
+		}
+		misses.increment();
+		Metrics.cacheLookup(false);
+		
+		List<Instruction> program = new ArrayList<Instruction>();
+		if( lines == null )
+			lines = new SourceLines(); // still written to the compiled file
+		try( TuilParser parser = new TuilParser(new TuilBufferLexer( new String(source, StandardCharsets.UTF_8), symbols ), lines) ) {
+			for( Instruction instr : parser )
+				program.add(instr);
+		}
+		byte[] compiled = encode(program, lines, hash);
+		if( compiled != null ) {
+			Files.createDirectories(directory);
+			Path temp = Files.createTempFile(directory, null, ".tmp");
+			try {
+				Files.write(temp, compiled);
+				Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} finally {
+				Files.deleteIfExists(temp);
+			}
+		}
+		return Collections.unmodifiableList(program);
+	}
+	
+	static byte[] hash(byte[] source) {
+		try {
+			return MessageDigest.getInstance("SHA-256").digest(source);
+		} catch(NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e); // every Java platform supports SHA-256
+		}
+	}
+	
+	static String fileName(byte[] hash) {
+		StringBuilder name = new StringBuilder();
+		for( byte b : hash )
+			name.append( Character.forDigit((b >> 4) & 0xF, 16) ).append( Character.forDigit(b & 0xF, 16) );
+		return name.append("-v").append(FORMAT_VERSION).append(".tuilc").toString();
+	}
+	
+	
+	// writes a program; collecting its symbols and constants into tables written first
+	private static class Encoder
+	{
+		final SourceLines lines;
+		final ByteArrayOutputStream code = new ByteArrayOutputStream();
+		final DataOutputStream out = new DataOutputStream(code);
+		final Map<Symbol, Integer> symbols = new IdentityHashMap<Symbol, Integer>();
+		final List<Symbol> symbolList = new ArrayList<Symbol>();
+		final Map<NumberToken, Integer> constants = new IdentityHashMap<NumberToken, Integer>();
+		final List<NumberToken> constantList = new ArrayList<NumberToken>();
+		
+		Encoder(SourceLines lines) {
+			this.lines = lines;
+		}
+		
+		// returns false if the instruction can not be encoded; each is written as its tag, its line, then its parts
+		boolean instruction(Instruction instr) throws IOException {
+			int line = lines.getLine(instr);
+			if( instr instanceof InstructionBlock ) {
+				InstructionBlock block = (InstructionBlock) instr;
+				out.writeByte(BLOCK);
+				out.writeInt(line);
+				out.writeInt( block.size() );
+				for( Instruction x : block )
+					if( !instruction(x) )
+						return false;
+				return true;
+			} else if( instr instanceof IfInstruction ) {
+				out.writeByte(IF);
+				out.writeInt(line);
+				argument( ((IfInstruction) instr).predicate );
+				return instruction( ((IfInstruction) instr).instruction );
+			} else if( instr instanceof ElseInstruction ) {
+				out.writeByte(ELSE);
+				out.writeInt(line);
+				return instruction( ((ElseInstruction) instr).instruction );
+			} else if( instr instanceof WhileInstruction ) {
+				out.writeByte(WHILE);
+				out.writeInt(line);
+				argument( ((WhileInstruction) instr).predicate );
+				return instruction( ((WhileInstruction) instr).instruction );
+			} else if( instr instanceof AllocScreenBufferInstruction ) {
+				AllocScreenBufferInstruction alloc = (AllocScreenBufferInstruction) instr;
+				out.writeByte(ALLOC_SCREEN_BUFFER);
+				out.writeInt(line);
+				symbol( alloc.variable.getSymbol() );
+				argument(alloc.rows);
+				argument(alloc.columns);
+				return true;
+			} else if( instr instanceof CalcInstruction ) {
+				CalcInstruction calc = (CalcInstruction) instr;
+				out.writeByte(CALC);
+				out.writeInt(line);
+				symbol( calc.variable.getSymbol() );
+				argument(calc.index);
+				argument(calc.value);
+				return true;
+			} else if( instr instanceof AllocNumberInstruction ) {
+				AllocNumberInstruction alloc = (AllocNumberInstruction) instr;
+				out.writeByte(ALLOC_NUMBER);
+				out.writeInt(line);
+				symbol( alloc.variable.getSymbol() );
+				argument(alloc.index);
+				argument(alloc.value);
+				return true;
+			} else if( instr instanceof DispInstruction ) {
+				DispInstruction disp = (DispInstruction) instr;
+				out.writeByte(DISP);
+				out.writeInt(line);
+				argument(disp.buffer);
+				argument(disp.text);
+				argument(disp.row);
+				argument(disp.column);
+				return true;
+			} else if( instr instanceof ShowInstruction ) {
+				out.writeByte(SHOW);
+				out.writeInt(line);
+				symbol( ((ShowInstruction) instr).variable.getSymbol() );
+				return true;
+			} else if( instr instanceof DeallocInstruction ) {
+				out.writeByte(DEALLOC);
+				out.writeInt(line);
+				symbol( ((DeallocInstruction) instr).variable.getSymbol() );
+				return true;
+			}
+			return false;
+		}
+		
+		void argument(Argument arg) throws IOException {
+			if( arg == null ) {
+				out.writeByte(NONE);
+			} else if( arg instanceof IdentifierToken ) {
+				out.writeByte(IDENTIFIER);
+				symbol( ((IdentifierToken) arg).getSymbol() );
+			} else if( arg instanceof NumberToken ) {
+				NumberToken number = (NumberToken) arg;
+				Integer index = constants.get(number);
+				if( index == null ) {
+					index = constantList.size();
+					constantList.add(number);
+					constants.put(number, index);
+				}
+				out.writeByte(NUMBER);
+				out.writeInt(index);
+			} else if( arg instanceof StringToken ) {
+				out.writeByte(STRING);
+				string( ((StringToken) arg).parseValue() );
+			} else if( arg instanceof IndexedVariable ) {
+				IndexedVariable element = (IndexedVariable) arg;
+				out.writeByte(INDEXED);
+				symbol( element.array.getSymbol() );
+				argument(element.index);
+			} else {
+				Expression expr = (Expression) arg;
+				out.writeByte(EXPRESSION);
+				if( expr.operator == null ) {
+					out.writeByte(0);
+				} else if( expr.operator instanceof FunctionToken ) {
+					out.writeByte(FUNCTION);
+					symbol( ((FunctionToken) expr.operator).getSymbol() );
+				} else {
+					int code = 0;
+					while( operators[code] != expr.operator )
+						code++;
+					out.writeByte(code + 1);
+				}
+				out.writeInt( expr.arguments.size() );
+				for( Argument x : expr.arguments )
+					argument(x);
+			}
+		}
+		
+		void symbol(Symbol symbol) throws IOException {
+			Integer index = symbols.get(symbol);
+			if( index == null ) {
+				index = symbolList.size();
+				symbolList.add(symbol);
+				symbols.put(symbol, index);
+			}
+			out.writeInt(index);
+		}
+		
+		void string(String s) throws IOException {
+			string(out, s);
+		}
+		
+		static void string(DataOutputStream out, String s) throws IOException {
+			byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+			out.writeInt(bytes.length);
+			out.write(bytes);
+		}
+		
+		static void bigInteger(DataOutputStream out, BigInteger n) throws IOException {
+			byte[] bytes = n.toByteArray();
+			out.writeInt(bytes.length);
+			out.write(bytes);
+		}
+	}
+	
+	/**
+	 * Compiles a program.
+	 * @param lines - The line of each instruction (0 for those it doesn't know).
+	 * @param hash - The SHA-256 hash of the program's source.
+	 * @return The compiled program, or <code>null</code> if it contains an instruction the format does not support.
+	 */
+	public static byte[] encode(List<? extends Instruction> program, SourceLines lines, byte[] hash) throws IOException {
+		Encoder encoder = new Encoder(lines);
+		encoder.out.writeInt( program.size() );
+		for( Instruction instr : program )
+			if( !encoder.instruction(instr) )
+				return null;
+		
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(MAGIC);
+		out.writeInt(FORMAT_VERSION);
+		out.write(hash);
+		out.writeInt( encoder.symbolList.size() );
+		for( Symbol symbol : encoder.symbolList )
+			Encoder.string(out, symbol.name);
+		out.writeInt( encoder.constantList.size() );
+		for( NumberToken number : encoder.constantList ) {
+			ComplexRational value = number.parseValue();
+			Encoder.string( out, number.getLexeme() );
+			Encoder.bigInteger( out, value.real().numerator() );
+			Encoder.bigInteger( out, value.real().denominator() );
+			Encoder.bigInteger( out, value.img().numerator() );
+			Encoder.bigInteger( out, value.img().denominator() );
+		}
+		encoder.code.writeTo(out);
+		out.flush();
+		return bytes.toByteArray();
+	}
+	
+	
+	private static class Decoder
+	{
+		final ByteBuffer in;
+		final SourceLines lines; // or null
+		final IdentifierToken[] identifiers;
+		final Symbol[] symbols;
+		final NumberToken[] constants;
+		
+		Decoder(ByteBuffer in, SymbolTable symbolTable, SourceLines lines) {
+			this.in = in;
+			this.lines = lines;
+			symbols = new Symbol[ count() ];
+			identifiers = new IdentifierToken[symbols.length];
+			for( int i = 0; i < symbols.length; i++ ) {
+				symbols[i] = symbolTable.intern( string() );
+				identifiers[i] = IdentifierToken.of(symbols[i]);
+			}
+			constants = new NumberToken[ count() ];
+			for( int i = 0; i < constants.length; i++ ) {
+				String lexeme = string();
+				BigRational real = new BigRational( bigInteger(), bigInteger() );
+				BigRational img = new BigRational( bigInteger(), bigInteger() );
+				constants[i] = NumberToken.valueOf( lexeme, new ComplexRational(real, img) );
+			}
+		}
+		
+		int count() {
+			int n = in.getInt();
+			if( n < 0 || n > in.remaining() )
+				throw new IllegalArgumentException("corrupt count: " + n);
+			return n;
+		}
+		
+		String string() {
+			byte[] bytes = new byte[ count() ];
+			in.get(bytes);
+			return new String(bytes, StandardCharsets.UTF_8);
+		}
+		
+		BigInteger bigInteger() {
+			byte[] bytes = new byte[ count() ];
+			in.get(bytes);
+			return new BigInteger(bytes);
+		}
+		
+		IdentifierToken identifier() {
+			return identifiers[ in.getInt() ];
+		}
+		
+		Instruction instruction() {
+			byte tag = in.get();
+			int line = in.getInt();
+			Instruction instr = instruction(tag);
+			if( lines != null )
+				lines.setLine(instr, line);
+			return instr;
+		}
+		
+		Instruction instruction(byte tag) {
+			switch(tag) {
+				case BLOCK:
+					InstructionBlock block = new InstructionBlock();
+					for( int n = count(); n > 0; n-- )
+						block.add( instruction() );
+					return block;
+				case IF:
+					return new IfInstruction( argument(), instruction() );
+				case ELSE:
+					return new ElseInstruction( instruction() );
+				case WHILE:
+					return new WhileInstruction( argument(), instruction() );
+				case ALLOC_SCREEN_BUFFER:
+					return new AllocScreenBufferInstruction( identifier(), argument(), argument() );
+				case CALC:
+					return new CalcInstruction( identifier(), argument(), argument() );
+				case ALLOC_NUMBER:
+					return new AllocNumberInstruction( identifier(), argument(), argument() );
+				case DISP:
+					return new DispInstruction( (IdentifierToken) argument(), argument(), argument(), argument() );
+				case SHOW:
+					return new ShowInstruction( identifier() );
+				case DEALLOC:
+					return new DeallocInstruction( identifier() );
+				default:
+					throw new IllegalArgumentException("corrupt instruction tag: " + tag);
+			}
+		}
+		
+		Argument argument() {
+			byte tag = in.get();
+			switch(tag) {
+				case IDENTIFIER:
+					return identifier();
+				case NUMBER:
+					return constants[ in.getInt() ];
+				case STRING:
+					return StringToken.valueOf( string() );
+				case INDEXED:
+					return new IndexedVariable( identifier(), argument() );
+				case NONE:
+					return null;
+				case EXPRESSION:
+					int code = in.get();
+					Token operator;
+					if( code == 0 )
+						operator = null;
+					else if( code == FUNCTION )
+						operator = FunctionToken.of( symbols[in.getInt()] );
+					else
+						operator = operators[code - 1];
+					int n = count();
+					List<Argument> arguments = new ArrayList<Argument>(n);
+					for( ; n > 0; n-- )
+						arguments.add( argument() );
+					return new Expression( operator, Collections.unmodifiableList(arguments) );
+				default:
+					throw new IllegalArgumentException("corrupt argument tag: " + tag);
+			}
+		}
+	}
+	
+	/**
+	 * Loads a compiled program.
+	 * @param hash - The SHA-256 hash the program's source must have.
+	 * @param lines - Given the line of each instruction, or <code>null</code>.
+	 * @return The program, or <code>null</code> if the bytes are not a program of this format version compiled from that source.
+	 */
+	public static List<Instruction> decode(ByteBuffer bytes, byte[] hash, SymbolTable symbols, SourceLines lines) {
+		try {
+			if( bytes.getInt() != MAGIC || bytes.getInt() != FORMAT_VERSION )
+				return null;
+			byte[] actual = new byte[hash.length];
+			bytes.get(actual);
+			if( !Arrays.equals(actual, hash) )
+				return null;
+			Decoder decoder = new Decoder(bytes, symbols, lines);
+			int n = decoder.count();
+			List<Instruction> program = new ArrayList<Instruction>(n);
+			for( ; n > 0; n-- )
+				program.add( decoder.instruction() );
+			return Collections.unmodifiableList(program);
+		} catch(RuntimeException e) {
+			return null; // truncated or corrupt; it will be recompiled
+		}
+	}
+}
@@ -0,0 +1,31 @@
+package com.mathhead200.tuil.parser;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import com.mathhead200.tuil.lexer.TuilLexer;
+
+
+/**
+ * The source line on which each instruction starts,
+ * recorded by passing this to the parser (see {@link TuilParser#TuilParser(TuilLexer, ParseListener)}.)
+ */
+public class SourceLines implements ParseListener
+{
+	private final Map<Instruction, Integer> lines = new IdentityHashMap<>();
+	
+	public void end(Instruction instr, TuilLexer lexer, int line) {
+		lines.put(instr, line);
+	}
+	
+	// e.g. for an instruction loaded by a ProgramCache
+	public void setLine(Instruction instr, int line) {
+		lines.put(instr, line);
+	}
+	
+	// the line; or 0 if unknown (e.g. the instruction was made by a pass, rather than parsed)
+	public int getLine(Instruction instr) {
+		Integer line = lines.get(instr);
+		return line != null ? line : 0;
+	}
+}
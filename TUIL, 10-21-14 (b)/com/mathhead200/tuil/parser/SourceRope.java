@@ -0,0 +1,157 @@
+package com.mathhead200.tuil.parser;
+
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * An immutable source text, stored as a tree of short strings, so an edited copy
+ * shares everything but the path down to the edit (and costs time proportional to the edit and that path.)
+ * Tokens lexed from an older version keep reading that version, unchanged.
+ */
+final class SourceRope implements CharSequence
+{
+	private static final int MAX_LEAF = 512;
+	private static final int MAX_DEPTH = 48; // beyond which an edit rebalances the tree
+	
+	private final String leaf; // or null, for a node
+	private final SourceRope left, right;
+	private final int length;
+	private final int depth;
+	
+	private SourceRope(String leaf) {
+		this.leaf = leaf;
+		this.left = this.right = null;
+		this.length = leaf.length();
+		this.depth = 0;
+	}
+	
+	private SourceRope(SourceRope left, SourceRope right) {
+		this.leaf = null;
+		this.left = left;
+		this.right = right;
+		this.length = left.length + right.length;
+		this.depth = 1 + Math.max(left.depth, right.depth);
+	}
+	
+	static SourceRope of(CharSequence text) {
+		if( text instanceof SourceRope )
+			return (SourceRope) text;
+		String s = text.toString();
+		List<SourceRope> leaves = new ArrayList<>();
+		for( int i = 0; i < s.length(); i += MAX_LEAF )
+			leaves.add( new SourceRope(s.substring( i, Math.min(s.length(), i + MAX_LEAF) )) );
+		if( leaves.isEmpty() )
+			leaves.add( new SourceRope("") );
+		return balanced(leaves, 0, leaves.size());
+	}
+	
+	private static SourceRope balanced(List<SourceRope> leaves, int from, int to) {
+		if( to - from == 1 )
+			return leaves.get(from);
+		int mid = (from + to) >>> 1;
+		return new SourceRope( balanced(leaves, from, mid), balanced(leaves, mid, to) );
+	}
+	
+	// a copy, with the removed characters at offset replaced by the text
+	SourceRope replace(int offset, int removed, CharSequence text) {
+		if( offset < 0 || removed < 0 || offset + removed > length )
+			throw new IndexOutOfBoundsException("illegal edit: " + offset + "+" + removed + " of " + length);
+		SourceRope rope = concat( concat(prefix(offset), new SourceRope( text.toString() )), suffix(offset + removed) );
+		if( rope.depth > MAX_DEPTH ) {
+			List<SourceRope> leaves = new ArrayList<>();
+			rope.collect(leaves);
+			rope = balanced(leaves, 0, leaves.size());
+		}
+		return rope;
+	}
+	
+	private SourceRope prefix(int end) {
+		if( end == length )
+			return this;
+		if( leaf != null )
+			return new SourceRope( leaf.substring(0, end) );
+		if( end <= left.length )
+			return left.prefix(end);
+		return concat( left, right.prefix(end - left.length) );
+	}
+	
+	private SourceRope suffix(int start) {
+		if( start == 0 )
+			return this;
+		if( leaf != null )
+			return new SourceRope( leaf.substring(start) );
+		if( start >= left.length )
+			return right.suffix(start - left.length);
+		return concat( left.suffix(start), right );
+	}
+	
+	// joins short neighbouring leaves, so single-character edits don't pile up
+	private static SourceRope concat(SourceRope a, SourceRope b) {
+		if( a.length == 0 )
+			return b;
+		if( b.length == 0 )
+			return a;
+		if( a.leaf != null && b.leaf != null && a.length + b.length <= MAX_LEAF )
+			return new SourceRope( a.leaf.concat(b.leaf) );
+		if( b.leaf != null && a.leaf == null && a.right.leaf != null && a.right.length + b.length <= MAX_LEAF )
+			return new SourceRope( a.left, new SourceRope(a.right.leaf.concat(b.leaf)) );
+		if( a.leaf != null && b.leaf == null && b.left.leaf != null && a.length + b.left.length <= MAX_LEAF )
+			return new SourceRope( new SourceRope(a.leaf.concat(b.left.leaf)), b.right );
+		return new SourceRope(a, b);
+	}
+	
+	private void collect(List<SourceRope> leaves) {
+		if( leaf != null )
+			leaves.add(this);
+		else {
+			left.collect(leaves);
+			right.collect(leaves);
+		}
+	}
+	
+	
+	public int length() {
+		return length;
+	}
+	
+	public char charAt(int index) {
+		if( index < 0 || index >= length )
+			throw new IndexOutOfBoundsException("index " + index + " of " + length);
+		SourceRope rope = this;
+		while( rope.leaf == null ) {
+			if( index < rope.left.length )
+				rope = rope.left;
+			else {
+				index -= rope.left.length;
+				rope = rope.right;
+			}
+		}
+		return rope.leaf.charAt(index);
+	}
+	
+	private void append(StringBuilder str, int start, int end) {
+		if( start >= end )
+			return;
+		if( leaf != null ) {
+			str.append(leaf, start, end);
+			return;
+		}
+		if( start < left.length )
+			left.append( str, start, Math.min(end, left.length) );
+		if( end > left.length )
+			right.append( str, Math.max(0, start - left.length), end - left.length );
+	}
+	
+	public CharSequence subSequence(int start, int end) {
+		if( start < 0 || end > length || start > end )
+			throw new IndexOutOfBoundsException("illegal range: " + start + "," + end + " of " + length);
+		StringBuilder str = new StringBuilder(end - start);
+		append(str, start, end);
+		return str.toString();
+	}
+	
+	public String toString() {
+		return subSequence(0, length).toString();
+	}
+}
@@ -1,19 +1,89 @@
 package com.mathhead200.tuil.parser;
 
 import java.io.Closeable;
+import java.io.IOException;
 import java.util.Iterator;
+import java.util.NoSuchElementException;
 
-import com.mathhead200.tuil.lexer.Token;
+import com.mathhead200.tuil.Trace;
+import com.mathhead200.tuil.lexer.LexerException;
 import com.mathhead200.tuil.lexer.TuilLexer;
 
 
-public class TuilParser implements Closeable, Iterator<?>, Iterable<?>
+/**
+ * Parses a source one top-level {@link Instruction} at a time, as it is iterated, so that only
+ * the instruction being parsed (not the whole program) need be held in memory.
+ * The lexer (and so its reader) is closed as soon as the end of the source is reached,
+ * or else by {@link #close()}.
+ */
+public class TuilParser implements Closeable, Iterator<Instruction>, Iterable<Instruction>
 {
 	private TuilLexer lexer;
+	private final ParseListener listener; // or null
+	private Instruction nextInstruction = null;
+	private boolean closed = false;
+	private Object trace = null; // from the first instruction to the end of the source
+	private long count = 0;
+	private boolean started = false;
 	
 	public TuilParser(TuilLexer lexer) {
+		this(lexer, null);
+	}
+	
+	// telling the listener of each instruction parsed (e.g. SourceLines)
+	public TuilParser(TuilLexer lexer, ParseListener listener) {
 		this.lexer = lexer;
+		this.listener = listener;
+	}
+	
+	public void close() throws IOException {
+		if( !closed ) {
+			closed = true;
+			lexer.close();
+		}
 	}
 	
+	public boolean hasNext() {
+		if( nextInstruction != null )
+			return true;
+		if( closed )
+			return false;
+		
+		if( !started ) {
+			started = true;
+			trace = Trace.beginParse();
+		}
+		try {
+			nextInstruction = Instruction.extract(lexer, listener);
+		} catch(ParseException e) {
+			throw new ParseException(e.getMessage(), lexer.getLine(), e);
+		} catch(LexerException e) {
+			throw new LexerException("line " + lexer.getLine() + ": " + e.getMessage(), e);
+		}
+		
+		if( nextInstruction == null ) {
+			// end of source
+			Trace.endParse(trace, count);
+			try {
+				close();
+			} catch(IOException e) {
+				throw new ParseException(e);
+			}
+			return false;
+		}
+		count++;
+		return true;
+	}
+	
+	public Instruction next() {
+		if( !hasNext() )
+			throw new NoSuchElementException();
+		Instruction instr = nextInstruction;
+		nextInstruction = null;
+		return instr;
+	}
 	
+	public Iterator<Instruction> iterator() {
+		return this;
+	}
 }
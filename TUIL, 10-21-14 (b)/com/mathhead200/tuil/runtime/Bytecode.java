@@ -0,0 +1,494 @@
+package com.mathhead200.tuil.runtime;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.mathhead200.tuil.ComplexRational;
+import com.mathhead200.tuil.Operators;
+import com.mathhead200.tuil.ScreenBuffer;
+import com.mathhead200.tuil.lexer.DivideToken;
+import com.mathhead200.tuil.lexer.EqualToToken;
+import com.mathhead200.tuil.lexer.FunctionToken;
+import com.mathhead200.tuil.lexer.GreaterThanOrEqualToToken;
+import com.mathhead200.tuil.lexer.GreaterThanToken;
+import com.mathhead200.tuil.lexer.IdentifierToken;
+import com.mathhead200.tuil.lexer.LessThanOrEqualToToken;
+import com.mathhead200.tuil.lexer.LessThanToken;
+import com.mathhead200.tuil.lexer.MinusToken;
+import com.mathhead200.tuil.lexer.NotEqualToToken;
+import com.mathhead200.tuil.lexer.NumberToken;
+import com.mathhead200.tuil.lexer.PlusToken;
+import com.mathhead200.tuil.lexer.StringToken;
+import com.mathhead200.tuil.lexer.TimesToken;
+import com.mathhead200.tuil.lexer.Token;
+import com.mathhead200.tuil.parser.AllocNumberInstruction;
+import com.mathhead200.tuil.parser.AllocScreenBufferInstruction;
+import com.mathhead200.tuil.parser.Argument;
+import com.mathhead200.tuil.parser.CalcInstruction;
+import com.mathhead200.tuil.parser.DeallocInstruction;
+import com.mathhead200.tuil.parser.DispInstruction;
+import com.mathhead200.tuil.parser.ElseInstruction;
+import com.mathhead200.tuil.parser.Expression;
+import com.mathhead200.tuil.parser.IfInstruction;
+import com.mathhead200.tuil.parser.IndexedVariable;
+import com.mathhead200.tuil.parser.Instruction;
+import com.mathhead200.tuil.parser.InstructionBlock;
+import com.mathhead200.tuil.parser.ShowInstruction;
+import com.mathhead200.tuil.parser.SourceLines;
+import com.mathhead200.tuil.parser.WhileInstruction;
+
+
+/**
+ * A program compiled to int-array bytecode for a register machine.
+ * Registers are a frame's variable slots followed by temporaries; an operand is a register,
+ * or (if negative) the one's complement of an index into the constant pool.
+ * Like a {@link Program}, bytecode is immutable and may be run by any number of frames.
+ */
+public class Bytecode
+{
+	// opcodes, and their operands
+	static final int MOVE = 0; // dst src
+	static final int MOVE_NUMBER = 1; // dst src
+	static final int LOAD_ELEMENT = 2; // dst array index
+	static final int STORE_ELEMENT = 3; // array index src
+	static final int STORE_NUMBER_ELEMENT = 4; // array index src
+	static final int ADD = 5; // dst a b, through GREATER_EQUAL
+	static final int SUBTRACT = 6;
+	static final int MULTIPLY = 7;
+	static final int DIVIDE = 8;
+	static final int EQUAL = 9;
+	static final int NOT_EQUAL = 10;
+	static final int LESS = 11;
+	static final int GREATER = 12;
+	static final int LESS_EQUAL = 13;
+	static final int GREATER_EQUAL = 14;
+	static final int JUMP = 15; // target
+	static final int JUMP_IF_FALSE = 16; // operand target
+	static final int ALLOC_SCREEN_BUFFER = 17; // dst rows columns
+	static final int DEALLOC = 18; // slot arraySlot
+	static final int SHOW = 19; // slot
+	static final int DISP = 20; // buffer text row column
+	static final int HALT = 21;
+	
+	static final String[] NAMES = {
+		"MOVE", "MOVE_NUMBER", "LOAD_ELEMENT", "STORE_ELEMENT", "STORE_NUMBER_ELEMENT",
+		"ADD", "SUBTRACT", "MULTIPLY", "DIVIDE", "EQUAL", "NOT_EQUAL", "LESS", "GREATER", "LESS_EQUAL", "GREATER_EQUAL",
+		"JUMP", "JUMP_IF_FALSE", "ALLOC_SCREEN_BUFFER", "DEALLOC", "SHOW", "DISP", "HALT"
+	};
+	
+	// an absent operand
+	static final int NONE = Integer.MIN_VALUE;
+	
+	// binary operators, by opcode - ADD
+	static final Token[] operators = {
+		PlusToken.instance, MinusToken.instance, TimesToken.instance, DivideToken.instance,
+		EqualToToken.instance, NotEqualToToken.instance,
+		LessThanToken.instance, GreaterThanToken.instance, LessThanOrEqualToToken.instance, GreaterThanOrEqualToToken.instance
+	};
+	
+	final int[] code;
+	final int[] lines; // the source line of the instruction each code word was compiled from; or 0 if unknown
+	final Object[] constants;
+	final int registers;
+	final Slots slots;
+	
+	private Bytecode(int[] code, int[] lines, Object[] constants, int registers, Slots slots) {
+		this.code = code;
+		this.lines = lines;
+		this.constants = constants;
+		this.registers = registers;
+		this.slots = slots;
+	}
+	
+	// the lines are optional (null), and only used to report where instructions are
+	public static Bytecode compile(List<? extends Instruction> instructions, SourceLines lines) {
+		Compiler compiler = new Compiler(lines);
+		compiler.block(instructions);
+		compiler.emit(HALT);
+		return compiler.finish();
+	}
+	
+	public static Bytecode compile(List<? extends Instruction> instructions) {
+		return compile(instructions, null);
+	}
+	
+	
+	public Slots getSlots() {
+		return slots;
+	}
+	
+	public int size() {
+		return code.length;
+	}
+	
+	public Frame newFrame(Display display) {
+		return new Frame(slots, display);
+	}
+	
+	
+	private Object operand(Object[] r, int x) {
+		if( x < 0 )
+			return constants[~x];
+		Object value = r[x];
+		if( value == null )
+			throw new InterpreterException("undefined variable: " + slots.getName(x));
+		return value;
+	}
+	
+	private static Object binary(int op, Object x, Object y) {
+		if( x instanceof Long && y instanceof Long ) {
+			Object z = ExpressionNode.Binary.applyLong( operators[op - ADD], (Long) x, (Long) y );
+			if( z != null )
+				return z;
+		}
+		if( x instanceof ComplexRational && y instanceof ComplexRational ) {
+			ComplexRational a = (ComplexRational) x;
+			ComplexRational b = (ComplexRational) y;
+			switch(op) {
+				case ADD: return a.add(b);
+				case SUBTRACT: return a.subtract(b);
+				case MULTIPLY: return a.multiply(b);
+				case EQUAL: return Operators.valueOf( a.equals(b) );
+				case NOT_EQUAL: return Operators.valueOf( !a.equals(b) );
+			}
+		}
+		return ExpressionNode.Binary.apply( operators[op - ADD], x, y );
+	}
+	
+	public void run(Frame frame) {
+		frame.pc = 0;
+		frame.started();
+		try {
+			resume(frame, Long.MAX_VALUE);
+		} finally {
+			frame.finished();
+		}
+	}
+	
+	// runs at most the given number of instructions, from where the frame left off (see Frame.pc); returns how many ran
+	public long resume(Frame frame, long budget) {
+		if( frame.getSlots() != slots )
+			throw new IllegalArgumentException("frame belongs to another program");
+		if( frame.pc < 0 )
+			throw new IllegalStateException("program has halted");
+		try {
+			return execute(frame, budget);
+		} finally {
+			frame.reportInstructions();
+		}
+	}
+	
+	private long execute(Frame frame, long budget) {
+		final int[] code = this.code;
+		final Object[] r = frame.registers(registers);
+		int pc = frame.pc;
+		long executed = 0;
+		while(true) {
+			if( executed == budget ) {
+				frame.pc = pc;
+				return executed;
+			}
+			executed++;
+			if( --frame.countdown == 0 )
+				frame.sample( NAMES[code[pc]], lines[pc] );
+			switch( code[pc] ) {
+				case MOVE:
+					r[code[pc + 1]] = operand(r, code[pc + 2]);
+					pc += 3;
+					break;
+				case MOVE_NUMBER:
+					r[code[pc + 1]] = ExpressionNode.number( operand(r, code[pc + 2]) );
+					pc += 3;
+					break;
+				case LOAD_ELEMENT:
+					r[code[pc + 1]] = frame.getElement( code[pc + 2], operand(r, code[pc + 3]) );
+					pc += 4;
+					break;
+				case STORE_ELEMENT:
+					frame.setElement( code[pc + 1], ExpressionNode.number(operand(r, code[pc + 2])), operand(r, code[pc + 3]) );
+					pc += 4;
+					break;
+				case STORE_NUMBER_ELEMENT:
+					frame.setElement( code[pc + 1], ExpressionNode.number(operand(r, code[pc + 2])), ExpressionNode.number(operand(r, code[pc + 3])) );
+					pc += 4;
+					break;
+				case ADD: case SUBTRACT: case MULTIPLY: case DIVIDE:
+				case EQUAL: case NOT_EQUAL: case LESS: case GREATER: case LESS_EQUAL: case GREATER_EQUAL:
+					r[code[pc + 1]] = binary( code[pc], operand(r, code[pc + 2]), operand(r, code[pc + 3]) );
+					pc += 4;
+					break;
+				case JUMP:
+					pc = code[pc + 1];
+					break;
+				case JUMP_IF_FALSE:
+					pc = ExpressionNode.isTrue( operand(r, code[pc + 1]) ) ? pc + 3 : code[pc + 2];
+					break;
+				case ALLOC_SCREEN_BUFFER:
+					int rows = ExpressionNode.integer( operand(r, code[pc + 2]) );
+					int columns = ExpressionNode.integer( operand(r, code[pc + 3]) );
+					try {
+						r[code[pc + 1]] = new ScreenBuffer(rows, columns, InstructionNode.FONT_SIZE);
+					} catch(IllegalArgumentException e) {
+						throw new InterpreterException(e.getMessage(), e);
+					}
+					pc += 4;
+					break;
+				case DEALLOC:
+					frame.release( code[pc + 1], code[pc + 2] );
+					pc += 3;
+					break;
+				case SHOW:
+					frame.show( ExpressionNode.screen(operand(r, code[pc + 1])) );
+					pc += 2;
+					break;
+				case DISP:
+					int buffer = code[pc + 1];
+					ScreenBuffer screen = buffer != NONE ? ExpressionNode.screen(operand(r, buffer)) : frame.getShown();
+					String text = ExpressionNode.text( operand(r, code[pc + 2]) );
+					try {
+						if( code[pc + 3] != NONE )
+							screen.display( text, ExpressionNode.integer(operand(r, code[pc + 3])), ExpressionNode.integer(operand(r, code[pc + 4])) );
+						else
+							screen.display(text);
+					} catch(IndexOutOfBoundsException e) {
+						throw new InterpreterException(e.getMessage(), e);
+					}
+					pc += 5;
+					break;
+				case HALT:
+					Arrays.fill(r, slots.size(), r.length, null); // release temporaries
+					frame.pc = -1;
+					return executed;
+				default:
+					throw new IllegalStateException("bad opcode " + code[pc] + " at " + pc);
+			}
+		}
+	}
+	
+	
+	private static class Compiler
+	{
+		// temporaries are numbered from TEMPORARY until every slot is known
+		static final int TEMPORARY = 1 << 24;
+		
+		final Slots slots = new Slots();
+		final SourceLines sourceLines;
+		int[] code = new int[64];
+		int[] lines = new int[64];
+		int line = 0; // of the instruction being compiled
+		int size = 0;
+		final BitSet registerOperands = new BitSet(); // positions of (register) operands
+		final List<Object> constants = new ArrayList<>();
+		final Map<Object, Integer> constantIndices = new HashMap<>();
+		int temporaries = 0; // in use
+		int maxTemporaries = 0;
+		
+		Bytecode finish() {
+			int base = slots.size();
+			for( int i = registerOperands.nextSetBit(0); i >= 0; i = registerOperands.nextSetBit(i + 1) )
+				if( code[i] >= TEMPORARY )
+					code[i] = code[i] - TEMPORARY + base;
+			return new Bytecode( Arrays.copyOf(code, size), Arrays.copyOf(lines, size), constants.toArray(), base + maxTemporaries, slots );
+		}
+		
+		Compiler(SourceLines sourceLines) {
+			this.sourceLines = sourceLines;
+		}
+		
+		void emit(int x) {
+			if( size == code.length ) {
+				code = Arrays.copyOf(code, size * 2);
+				lines = Arrays.copyOf(lines, size * 2);
+			}
+			lines[size] = line;
+			code[size++] = x;
+		}
+		
+		// the instruction's line, or the enclosing one's if unknown
+		int lineOf(Instruction instr) {
+			int n = sourceLines != null ? sourceLines.getLine(instr) : 0;
+			return n != 0 ? n : line;
+		}
+		
+		void emit(int op, int... operands) {
+			emit(op);
+			for( int x : operands ) {
+				if( x >= 0 && x != NONE )
+					registerOperands.set(size);
+				emit(x);
+			}
+		}
+		
+		int constant(Object value) {
+			Integer index = constantIndices.get(value);
+			if( index == null ) {
+				index = constants.size();
+				constants.add(value);
+				constantIndices.put(value, index);
+			}
+			return ~index;
+		}
+		
+		int temporary() {
+			int t = temporaries++;
+			maxTemporaries = Math.max(maxTemporaries, temporaries);
+			return TEMPORARY + t;
+		}
+		
+		int slot(IdentifierToken variable) {
+			return slots.resolve( variable.getLexeme() );
+		}
+		
+		int arraySlot(IdentifierToken array) {
+			return slots.resolve( Slots.arraySlotName(array.getLexeme()) );
+		}
+		
+		void block(List<? extends Instruction> instructions) {
+			for( int i = 0; i < instructions.size(); i++ ) {
+				Instruction instr = instructions.get(i);
+				if( instr instanceof IfInstruction && i + 1 < instructions.size() && instructions.get(i + 1) instanceof ElseInstruction ) {
+					int outer = line;
+					line = lineOf(instr);
+					ifElse( (IfInstruction) instr, ((ElseInstruction) instructions.get(++i)).instruction );
+					line = outer;
+				} else {
+					instruction(instr);
+				}
+			}
+		}
+		
+		// a jump whose target is patched later; returns the position of the target
+		int jump(int op, int... operands) {
+			emit(op, operands);
+			emit(-1);
+			return size - 1;
+		}
+		
+		void ifElse(IfInstruction ifInstr, Instruction otherwise) {
+			int toElse = jump( JUMP_IF_FALSE, predicate(ifInstr.predicate) );
+			instruction(ifInstr.instruction);
+			if( otherwise == null ) {
+				code[toElse] = size;
+			} else {
+				int toEnd = jump(JUMP);
+				code[toElse] = size;
+				instruction(otherwise);
+				code[toEnd] = size;
+			}
+		}
+		
+		int predicate(Argument arg) {
+			int x = expression(arg);
+			temporaries = 0; // read immediately by the jump
+			return x;
+		}
+		
+		void instruction(Instruction instr) {
+			int outer = line;
+			line = lineOf(instr);
+			compile(instr);
+			line = outer;
+		}
+		
+		void compile(Instruction instr) {
+			if( instr instanceof InstructionBlock ) {
+				block( (InstructionBlock) instr );
+			} else if( instr instanceof IfInstruction ) {
+				ifElse( (IfInstruction) instr, null );
+			} else if( instr instanceof ElseInstruction ) {
+				throw new InterpreterException("Else without a matching If");
+			} else if( instr instanceof WhileInstruction ) {
+				WhileInstruction whileInstr = (WhileInstruction) instr;
+				int top = size;
+				int toEnd = jump( JUMP_IF_FALSE, predicate(whileInstr.predicate) );
+				instruction(whileInstr.instruction);
+				emit(JUMP);
+				emit(top);
+				code[toEnd] = size;
+			} else if( instr instanceof CalcInstruction ) {
+				CalcInstruction calc = (CalcInstruction) instr;
+				assign( calc.variable, calc.index, calc.value, false );
+			} else if( instr instanceof AllocNumberInstruction ) {
+				AllocNumberInstruction alloc = (AllocNumberInstruction) instr;
+				assign( alloc.variable, alloc.index, alloc.value, true );
+			} else if( instr instanceof AllocScreenBufferInstruction ) {
+				AllocScreenBufferInstruction alloc = (AllocScreenBufferInstruction) instr;
+				emit( ALLOC_SCREEN_BUFFER, slot(alloc.variable), expression(alloc.rows), expression(alloc.columns) );
+			} else if( instr instanceof DeallocInstruction ) {
+				IdentifierToken variable = ((DeallocInstruction) instr).variable;
+				emit( DEALLOC, slot(variable), arraySlot(variable) );
+			} else if( instr instanceof ShowInstruction ) {
+				emit( SHOW, slot(((ShowInstruction) instr).variable) );
+			} else if( instr instanceof DispInstruction ) {
+				DispInstruction disp = (DispInstruction) instr;
+				emit( DISP, disp.buffer != null ? slot(disp.buffer) : NONE, expression(disp.text),
+						disp.row != null ? expression(disp.row) : NONE, disp.column != null ? expression(disp.column) : NONE );
+			} else {
+				throw new InterpreterException("unsupported instruction: " + instr.getClass().getSimpleName());
+			}
+			temporaries = 0;
+		}
+		
+		void assign(IdentifierToken variable, Argument index, Argument value, boolean number) {
+			if( index != null ) {
+				emit( number ? STORE_NUMBER_ELEMENT : STORE_ELEMENT, arraySlot(variable), expression(index), expression(value) );
+			} else if( !number && value instanceof Expression && ((Expression) value).operator != null ) {
+				expression( (Expression) value, slot(variable) ); // straight into the variable's register
+			} else {
+				int x = expression(value);
+				emit( number ? MOVE_NUMBER : MOVE, slot(variable), x );
+			}
+		}
+		
+		// the operand holding the argument's value
+		int expression(Argument arg) {
+			if( arg instanceof IdentifierToken )
+				return slot( (IdentifierToken) arg );
+			if( arg instanceof NumberToken )
+				return constant( Numbers.normalize(((NumberToken) arg).parseValue()) );
+			if( arg instanceof StringToken )
+				return constant( ((StringToken) arg).parseValue() );
+			if( arg instanceof IndexedVariable ) {
+				IndexedVariable element = (IndexedVariable) arg;
+				int mark = temporaries;
+				int index = expression(element.index);
+				temporaries = mark;
+				int dst = temporary();
+				emit( LOAD_ELEMENT, dst, arraySlot(element.array), index );
+				return dst;
+			}
+			Expression expr = (Expression) arg;
+			if( expr.operator == null ) {
+				if( expr.arguments.size() != 1 )
+					throw new InterpreterException("expected one argument in " + expr);
+				return expression( expr.arguments.get(0) );
+			}
+			int mark = temporaries;
+			int x = expression(expr, TEMPORARY + mark);
+			temporaries = mark + 1;
+			maxTemporaries = Math.max(maxTemporaries, temporaries);
+			return x;
+		}
+		
+		// evaluates a binary expression into dst
+		int expression(Expression expr, int dst) {
+			if( expr.operator instanceof FunctionToken )
+				throw new InterpreterException("unknown function: " + expr.operator.getLexeme());
+			if( expr.arguments.size() != 2 )
+				throw new InterpreterException("expected two arguments in " + expr);
+			int op = ADD;
+			while( operators[op - ADD] != expr.operator )
+				op++;
+			int mark = temporaries;
+			int a = expression( expr.arguments.get(0) );
+			int b = expression( expr.arguments.get(1) );
+			temporaries = mark;
+			emit(op, dst, a, b);
+			return dst;
+		}
+	}
+}
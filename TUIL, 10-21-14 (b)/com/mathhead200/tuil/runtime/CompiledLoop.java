@@ -0,0 +1,15 @@
+package com.mathhead200.tuil.runtime;
+
+
+/**
+ * A hot While loop compiled to a JVM class by the {@link LoopCompiler}.
+ */
+public interface CompiledLoop
+{
+	/**
+	 * Runs the loop to completion against the frame's registers.
+	 * @return <code>false</code>, having done nothing, if a variable the loop uses does not hold a number;
+	 *   the loop must then be interpreted.
+	 */
+	public boolean run(Frame frame, Object[] registers, Object[] constants);
+}
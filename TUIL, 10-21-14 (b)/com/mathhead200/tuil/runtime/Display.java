@@ -0,0 +1,14 @@
+package com.mathhead200.tuil.runtime;
+
+import com.mathhead200.tuil.ScreenBuffer;
+
+
+/**
+ * Where a program's screen buffers are shown (by the Show instruction.)
+ */
+public interface Display
+{
+	public static final Display NONE = buffer -> {};
+	
+	public void show(ScreenBuffer buffer);
+}
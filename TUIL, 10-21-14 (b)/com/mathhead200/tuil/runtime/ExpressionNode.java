@@ -0,0 +1,309 @@
+package com.mathhead200.tuil.runtime;
+
+import java.math.BigInteger;
+
+import com.mathhead200.BigRational;
+import com.mathhead200.tuil.Operators;
+import com.mathhead200.tuil.ScreenBuffer;
+import com.mathhead200.tuil.lexer.DivideToken;
+import com.mathhead200.tuil.lexer.EqualToToken;
+import com.mathhead200.tuil.lexer.GreaterThanOrEqualToToken;
+import com.mathhead200.tuil.lexer.GreaterThanToken;
+import com.mathhead200.tuil.lexer.LessThanOrEqualToToken;
+import com.mathhead200.tuil.lexer.LessThanToken;
+import com.mathhead200.tuil.lexer.MinusToken;
+import com.mathhead200.tuil.lexer.NotEqualToToken;
+import com.mathhead200.tuil.lexer.PlusToken;
+import com.mathhead200.tuil.lexer.TimesToken;
+import com.mathhead200.tuil.lexer.Token;
+
+
+/**
+ * A compiled argument, with its variables resolved to slots.
+ */
+abstract class ExpressionNode
+{
+	abstract Object evaluate(Frame frame);
+	
+	
+	static Object number(Object value) {
+		if( Numbers.isNumber(value) )
+			return value;
+		throw new InterpreterException("not a number: " + describe(value));
+	}
+	
+	static int integer(Object value) {
+		number(value);
+		if( value instanceof Long ) {
+			long n = (Long) value;
+			if( n == (int) n )
+				return (int) n;
+		}
+		BigRational real = Numbers.real(value);
+		if( real == null || !real.denominator().equals(BigInteger.ONE) || real.numerator().bitLength() > 31 )
+			throw new InterpreterException("not an integer: " + Numbers.toString(value));
+		return real.numerator().intValue();
+	}
+	
+	static ScreenBuffer screen(Object value) {
+		if( value instanceof ScreenBuffer )
+			return (ScreenBuffer) value;
+		throw new InterpreterException("not a screen buffer: " + describe(value));
+	}
+	
+	static boolean isTrue(Object value) {
+		return Numbers.isTrue( number(value) );
+	}
+	
+	// as displayed
+	static String text(Object value) {
+		if( value instanceof ScreenBuffer )
+			throw new InterpreterException("not displayable: a screen buffer");
+		return Numbers.isNumber(value) ? Numbers.toString(value) : value.toString();
+	}
+	
+	static String describe(Object value) {
+		if( value instanceof ScreenBuffer )
+			return "a screen buffer";
+		if( value instanceof String )
+			return "\"" + value + "\"";
+		return Numbers.isNumber(value) ? Numbers.toString(value) : String.valueOf(value);
+	}
+	
+	
+	static class Constant extends ExpressionNode
+	{
+		final Object value;
+		
+		Constant(Object value) {
+			this.value = value;
+		}
+		
+		Object evaluate(Frame frame) {
+			return value;
+		}
+	}
+	
+	static class Variable extends ExpressionNode
+	{
+		final int slot;
+		
+		Variable(int slot) {
+			this.slot = slot;
+		}
+		
+		Object evaluate(Frame frame) {
+			return frame.get(slot);
+		}
+	}
+	
+	// array[index]
+	static class Element extends ExpressionNode
+	{
+		final int arraySlot;
+		final ExpressionNode index;
+		
+		Element(int arraySlot, ExpressionNode index) {
+			this.arraySlot = arraySlot;
+			this.index = index;
+		}
+		
+		static String name(String array, Object index) {
+			return array + "[" + Numbers.toString( number(index) ) + "]";
+		}
+		
+		Object evaluate(Frame frame) {
+			return frame.getElement( arraySlot, index.evaluate(frame) );
+		}
+	}
+	
+	// counts, and sometimes times, an expression's evaluations; and/or follows the size of the values it gives a variable
+	// (see Profiler)
+	static class Profiled extends ExpressionNode
+	{
+		final ExpressionNode expr;
+		final Profiler.Entry entry; // or null
+		final Profiler.Variable variable; // or null
+		
+		Profiled(ExpressionNode expr, Profiler.Entry entry, Profiler.Variable variable) {
+			this.expr = expr;
+			this.entry = entry;
+			this.variable = variable;
+		}
+		
+		Object evaluate(Frame frame) {
+			Object value;
+			Profiler.Entry e = entry;
+			if( e == null ) {
+				value = expr.evaluate(frame);
+			} else {
+				e.count++;
+				if( --e.untilTimed == 0 ) {
+					e.untilTimed = Profiler.TIMING_INTERVAL;
+					long start = System.nanoTime();
+					try {
+						value = expr.evaluate(frame);
+					} finally {
+						e.nanos += System.nanoTime() - start;
+						e.timed++;
+					}
+				} else {
+					value = expr.evaluate(frame);
+				}
+			}
+			if( variable != null )
+				variable.assigned(value);
+			return value;
+		}
+	}
+	
+	// specializes itself on the representations of the numbers it sees (see Numbers)
+	static class Binary extends ExpressionNode
+	{
+		// states, from most to least specialized; a node only becomes less specialized
+		static final int UNINITIALIZED = 0;
+		static final int LONG = 1;
+		static final int REAL = 2;
+		static final int GENERIC = 3;
+		
+		final Token operator;
+		final ExpressionNode left;
+		final ExpressionNode right;
+		int state = UNINITIALIZED;
+		
+		Binary(Token operator, ExpressionNode left, ExpressionNode right) {
+			this.operator = operator;
+			this.left = left;
+			this.right = right;
+		}
+		
+		Object evaluate(Frame frame) {
+			Object x = left.evaluate(frame);
+			Object y = right.evaluate(frame);
+			switch(state) {
+				case LONG:
+					if( x instanceof Long && y instanceof Long ) {
+						Object z = applyLong( operator, (Long) x, (Long) y );
+						if( z != null )
+							return z;
+					}
+					break;
+				case REAL:
+					if( (x instanceof Long || x instanceof BigRational) && (y instanceof Long || y instanceof BigRational) ) {
+						Object z = applyReal( operator, Numbers.real(x), Numbers.real(y) );
+						if( z != null )
+							return z;
+					}
+					break;
+				case GENERIC:
+					return apply(operator, x, y);
+			}
+			return specialize(x, y);
+		}
+		
+		// the most specialized state which handles the operands, falling back when a specialization can't
+		private Object specialize(Object x, Object y) {
+			if( state <= LONG && x instanceof Long && y instanceof Long ) {
+				Object z = applyLong( operator, (Long) x, (Long) y );
+				if( z != null ) {
+					state = LONG;
+					return z;
+				}
+			}
+			if( state <= REAL && (x instanceof Long || x instanceof BigRational) && (y instanceof Long || y instanceof BigRational) ) {
+				Object z = applyReal( operator, Numbers.real(x), Numbers.real(y) );
+				if( z != null ) {
+					state = REAL;
+					return z;
+				}
+			}
+			state = GENERIC;
+			return apply(operator, x, y);
+		}
+		
+		// or null on overflow, or a quotient which isn't an integer (or is undefined)
+		static Object applyLong(Token operator, long a, long b) {
+			if( operator == PlusToken.instance ) {
+				long c = a + b;
+				return ((a ^ c) & (b ^ c)) < 0 ? null : (Object) c;
+			}
+			if( operator == MinusToken.instance ) {
+				long c = a - b;
+				return ((a ^ b) & (a ^ c)) < 0 ? null : (Object) c;
+			}
+			if( operator == TimesToken.instance ) {
+				if( a == (int) a && b == (int) b )
+					return a * b;
+				try {
+					return Math.multiplyExact(a, b);
+				} catch(ArithmeticException e) {
+					return null;
+				}
+			}
+			if( operator == DivideToken.instance )
+				return (b == 0 || a % b != 0 || (a == Long.MIN_VALUE && b == -1)) ? null : (Object) (a / b);
+			if( operator == EqualToToken.instance )
+				return truth(a == b);
+			if( operator == NotEqualToToken.instance )
+				return truth(a != b);
+			if( operator == LessThanToken.instance )
+				return truth(a < b);
+			if( operator == GreaterThanToken.instance )
+				return truth(a > b);
+			if( operator == LessThanOrEqualToToken.instance )
+				return truth(a <= b);
+			if( operator == GreaterThanOrEqualToToken.instance )
+				return truth(a >= b);
+			return null;
+		}
+		
+		// or null if undefined (division by zero)
+		static Object applyReal(Token operator, BigRational a, BigRational b) {
+			if( operator == PlusToken.instance )
+				return Numbers.normalize( a.add(b) );
+			if( operator == MinusToken.instance )
+				return Numbers.normalize( a.subtract(b) );
+			if( operator == TimesToken.instance )
+				return Numbers.normalize( a.multiply(b) );
+			if( operator == DivideToken.instance )
+				return b.signum() == 0 ? null : Numbers.normalize( a.divide(b) );
+			if( operator == EqualToToken.instance )
+				return truth( a.equals(b) );
+			if( operator == NotEqualToToken.instance )
+				return truth( !a.equals(b) );
+			if( operator == LessThanToken.instance )
+				return truth( a.compareTo(b) < 0 );
+			if( operator == GreaterThanToken.instance )
+				return truth( a.compareTo(b) > 0 );
+			if( operator == LessThanOrEqualToToken.instance )
+				return truth( a.compareTo(b) <= 0 );
+			if( operator == GreaterThanOrEqualToToken.instance )
+				return truth( a.compareTo(b) >= 0 );
+			return null;
+		}
+		
+		static Long truth(boolean b) {
+			return b ? ONE : ZERO;
+		}
+		
+		private static final Long ONE = 1L;
+		private static final Long ZERO = 0L;
+		
+		static Object apply(Token operator, Object x, Object y) {
+			if( Numbers.isNumber(x) && Numbers.isNumber(y) ) {
+				try {
+					return Numbers.normalize( Operators.apply(operator, Numbers.complex(x), Numbers.complex(y)) );
+				} catch(ArithmeticException e) {
+					throw new InterpreterException(e.getMessage(), e);
+				}
+			}
+			if( operator == PlusToken.instance && (x instanceof String || y instanceof String) )
+				return text(x) + text(y);
+			if( operator == EqualToToken.instance )
+				return truth( x.equals(y) );
+			if( operator == NotEqualToToken.instance )
+				return truth( !x.equals(y) );
+			throw new InterpreterException("can not apply \"" + operator.getLexeme() + "\" to " + describe(x) + " and " + describe(y));
+		}
+	}
+}
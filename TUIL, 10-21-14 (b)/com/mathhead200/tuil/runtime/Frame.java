@@ -0,0 +1,185 @@
+package com.mathhead200.tuil.runtime;
+
+import java.util.Arrays;
+
+import com.mathhead200.BigRational;
+import com.mathhead200.tuil.ComplexRational;
+import com.mathhead200.tuil.Metrics;
+import com.mathhead200.tuil.ScreenBuffer;
+import com.mathhead200.tuil.Trace;
+
+
+/**
+ * The variables of a running program: a number (see Numbers), string, or ScreenBuffer in each of the program's slots,
+ * or the elements of an indexed variable (see IndexedArray).
+ */
+public class Frame
+{
+	private final Slots slots;
+	Object[] values; // null if unallocated
+	int pc = 0; // where Bytecode stopped running this frame, or -1 once it halts
+	int countdown = Trace.SAMPLE_INTERVAL; // instructions until the next sample
+	private int reported = 0; // instructions since the last sample already reported to Metrics
+	private final Display display;
+	private ScreenBuffer shown = null;
+	
+	public Frame(Slots slots, Display display) {
+		this.slots = slots;
+		this.values = new Object[ slots.size() ];
+		this.display = display;
+	}
+	
+	
+	public Slots getSlots() {
+		return slots;
+	}
+	
+	public boolean isHalted() {
+		return pc < 0;
+	}
+	
+	public Object get(int slot) {
+		Object value = values[slot];
+		if( value == null )
+			throw new InterpreterException("undefined variable: " + slots.getName(slot));
+		return value;
+	}
+	
+	public void set(int slot, Object value) {
+		values[slot] = value;
+	}
+	
+	public void release(int slot) {
+		if( values[slot] == null )
+			throw new InterpreterException("undefined variable: " + slots.getName(slot));
+		released(values[slot]);
+		values[slot] = null;
+	}
+	
+	// releases a variable, and every element of the indexed variable of the same name
+	public void release(int slot, int arraySlot) {
+		if( values[slot] == null && values[arraySlot] == null )
+			throw new InterpreterException("undefined variable: " + slots.getName(slot));
+		released(values[slot]);
+		released(values[arraySlot]);
+		values[slot] = null;
+		values[arraySlot] = null;
+	}
+	
+	// reports the screen buffer held, or those held by an indexed variable's elements, as released (see Metrics)
+	private static void released(Object value) {
+		if( value instanceof ScreenBuffer )
+			Metrics.screenBufferReleased( (ScreenBuffer) value );
+		else if( value instanceof IndexedArray )
+			((IndexedArray) value).forEachObject(Frame::released);
+	}
+	
+	// the slots, followed by temporaries up to the given count of registers
+	Object[] registers(int count) {
+		if( values.length < count )
+			values = Arrays.copyOf(values, count);
+		return values;
+	}
+	
+	public Object getElement(int arraySlot, Object index) {
+		IndexedArray array = (IndexedArray) values[arraySlot];
+		Object value = array != null ? array.get(index) : null;
+		if( value == null ) {
+			String name = slots.getName(arraySlot);
+			throw new InterpreterException("undefined variable: " + ExpressionNode.Element.name(name.substring(0, name.length() - 2), index));
+		}
+		return value;
+	}
+	
+	public void setElement(int arraySlot, Object index, Object value) {
+		IndexedArray array = (IndexedArray) values[arraySlot];
+		if( array == null )
+			values[arraySlot] = array = new IndexedArray();
+		array.set(index, value);
+	}
+	
+	// a variable by name; or null if undefined
+	public Object lookup(String name) {
+		int slot = slots.get(name);
+		return slot >= 0 ? values[slot] : null;
+	}
+	
+	// an element of an indexed variable by name; or null if undefined
+	public Object lookup(String array, Object index) {
+		int slot = slots.get( Slots.arraySlotName(array) );
+		return slot >= 0 && values[slot] != null ? ((IndexedArray) values[slot]).get(index) : null;
+	}
+	
+	
+	// when a program starts running in this frame; Metrics counts it live until finished()
+	void started() {
+		Metrics.programStarted(this);
+	}
+	
+	// when the program stops (halted or not), releasing the screen buffers it still holds
+	void finished() {
+		for( Object value : values )
+			released(value);
+		Metrics.programFinished(this);
+	}
+	
+	// called once every Trace.SAMPLE_INTERVAL instructions
+	void sample(String kind, int line) {
+		Metrics.instructions(Trace.SAMPLE_INTERVAL - reported);
+		countdown = Trace.SAMPLE_INTERVAL;
+		reported = 0;
+		Trace.instruction(kind, line);
+	}
+	
+	// instructions run by a loop compiled by the LoopCompiler, sampled as if they'd been stepped (each sample attributed to the loop)
+	void ran(int count, String kind, int line) {
+		while( count >= countdown ) {
+			count -= countdown;
+			sample(kind, line);
+		}
+		countdown -= count;
+	}
+	
+	// reports the instructions run since the last sample; when the program stops
+	void reportInstructions() {
+		int ran = Trace.SAMPLE_INTERVAL - countdown;
+		Metrics.instructions(ran - reported);
+		reported = ran;
+	}
+	
+	// of the largest numerator or denominator (of either part, if complex) held; read racily, from any thread
+	public int largestNumberBits() {
+		int bits = 0;
+		for( Object value : values ) {
+			if( value instanceof IndexedArray )
+				bits = Math.max( bits, ((IndexedArray) value).largestNumberBits() );
+			else
+				bits = Math.max( bits, numberBits(value) );
+		}
+		return bits;
+	}
+	
+	static int numberBits(Object value) {
+		if( value instanceof Long )
+			return 64 - Long.numberOfLeadingZeros( Math.abs((Long) value) );
+		if( value instanceof BigRational ) {
+			BigRational x = (BigRational) value;
+			return Math.max( x.numerator().bitLength(), x.denominator().bitLength() );
+		}
+		if( value instanceof ComplexRational )
+			return Math.max( numberBits(((ComplexRational) value).real()), numberBits(((ComplexRational) value).img()) );
+		return 0;
+	}
+	
+	
+	public ScreenBuffer getShown() {
+		if( shown == null )
+			throw new InterpreterException("no screen buffer is shown");
+		return shown;
+	}
+	
+	public void show(ScreenBuffer buffer) {
+		shown = buffer;
+		display.show(buffer);
+	}
+}
@@ -0,0 +1,157 @@
+package com.mathhead200.tuil.runtime;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+
+
+/**
+ * The elements of an indexed variable, e.g. <code>array[index]</code>, held in a single slot of a frame.
+ * Elements at contiguous indices from 0 are stored densely, as primitive longs while they are small integers;
+ * elements at scattered integer indices are stored in an open-addressing map,
+ * and elements at any other index (e.g. <code>array[1/2]</code>) in a HashMap.
+ */
+final class IndexedArray
+{
+	static final int MAX_DENSE = 1 << 24;
+	
+	// dense: an index below longs.length is defined if its bit is set,
+	// and holds others[i] if that's non-null, or else longs[i]
+	private long[] longs = new long[16];
+	private Object[] others = null; // allocated for the first element which isn't a Long
+	private long[] defined = new long[1];
+	
+	// sparse: a key is present if its value is non-null (entries are never removed one at a time)
+	private long[] keys = null;
+	private Object[] values = null;
+	private int sparseSize = 0;
+	
+	private Map<Object, Object> irregular = null;
+	
+	
+	// the element; or null if undefined
+	Object get(Object index) {
+		index = Numbers.normalize( ExpressionNode.number(index) );
+		if( !(index instanceof Long) )
+			return irregular != null ? irregular.get(index) : null;
+		long i = (Long) index;
+		if( i >= 0 && i < longs.length ) {
+			int d = (int) i;
+			if( (defined[d >>> 6] & (1L << d)) == 0 )
+				return null;
+			if( others != null && others[d] != null )
+				return others[d];
+			return longs[d];
+		}
+		return sparseSize > 0 ? values[find(i)] : null;
+	}
+	
+	void set(Object index, Object value) {
+		index = Numbers.normalize( ExpressionNode.number(index) );
+		if( !(index instanceof Long) ) {
+			if( irregular == null )
+				irregular = new HashMap<>();
+			irregular.put(index, value);
+			return;
+		}
+		long i = (Long) index;
+		if( i >= longs.length && i < MAX_DENSE && i <= 2L * longs.length )
+			grow( (int) i );
+		if( i >= 0 && i < longs.length ) {
+			int d = (int) i;
+			defined[d >>> 6] |= 1L << d;
+			if( value instanceof Long ) {
+				longs[d] = (Long) value;
+				if( others != null )
+					others[d] = null;
+			} else {
+				if( others == null )
+					others = new Object[longs.length];
+				others[d] = value;
+			}
+			return;
+		}
+		if( keys == null || 2 * (sparseSize + 1) > keys.length )
+			rehash( keys == null ? 16 : 2 * keys.length );
+		int b = find(i);
+		if( values[b] == null ) {
+			keys[b] = i;
+			sparseSize++;
+		}
+		values[b] = value;
+	}
+	
+	// of the largest numerator or denominator held (see Frame.largestNumberBits); may be read racily
+	int largestNumberBits() {
+		int bits = 0;
+		long[] longs = this.longs, defined = this.defined;
+		Object[] others = this.others, values = this.values;
+		for( int d = 0; d < longs.length && (d >>> 6) < defined.length; d++ )
+			if( (defined[d >>> 6] & (1L << d)) != 0 )
+				bits = Math.max( bits, others != null && d < others.length && others[d] != null ? Frame.numberBits(others[d]) : Frame.numberBits(longs[d]) );
+		if( values != null )
+			for( Object value : values )
+				bits = Math.max( bits, Frame.numberBits(value) );
+		if( irregular != null )
+			for( Object value : irregular.values() )
+				bits = Math.max( bits, Frame.numberBits(value) );
+		return bits;
+	}
+	
+	// each element which isn't a Long (e.g. a string, or a ScreenBuffer)
+	void forEachObject(Consumer<Object> action) {
+		if( others != null )
+			for( Object value : others )
+				if( value != null )
+					action.accept(value);
+		if( values != null )
+			for( Object value : values )
+				if( value != null )
+					action.accept(value);
+		if( irregular != null )
+			irregular.values().forEach(action);
+	}
+	
+	// extends the dense storage past the index, moving any sparse elements it now covers
+	private void grow(int index) {
+		int length = Math.min( MAX_DENSE, Math.max(2 * longs.length, index + 1) );
+		longs = Arrays.copyOf(longs, length);
+		if( others != null )
+			others = Arrays.copyOf(others, length);
+		defined = Arrays.copyOf( defined, (length + 63) >>> 6 );
+		if( sparseSize > 0 ) {
+			long[] oldKeys = keys;
+			Object[] oldValues = values;
+			keys = null;
+			values = null;
+			sparseSize = 0;
+			for( int b = 0; b < oldKeys.length; b++ )
+				if( oldValues[b] != null )
+					set( oldKeys[b], oldValues[b] );
+		}
+	}
+	
+	private void rehash(int capacity) {
+		long[] oldKeys = keys;
+		Object[] oldValues = values;
+		keys = new long[capacity];
+		values = new Object[capacity];
+		if( oldKeys != null )
+			for( int b = 0; b < oldKeys.length; b++ )
+				if( oldValues[b] != null ) {
+					int nb = find( oldKeys[b] );
+					keys[nb] = oldKeys[b];
+					values[nb] = oldValues[b];
+				}
+	}
+	
+	// the key's bucket, or the empty bucket where it belongs (linear probing)
+	private int find(long key) {
+		int mask = keys.length - 1;
+		int b = (int) ((key * 0x9E3779B97F4A7C15L) >>> 32) & mask;
+		while( values[b] != null && keys[b] != key )
+			b = (b + 1) & mask;
+		return b;
+	}
+}
@@ -0,0 +1,272 @@
+package com.mathhead200.tuil.runtime;
+
+import com.mathhead200.tuil.ScreenBuffer;
+
+
+/**
+ * A compiled instruction, with its variables resolved to slots.
+ */
+abstract class InstructionNode
+{
+	static final int FONT_SIZE = 16;
+	
+	int line = 0; // where the instruction starts in the source; or 0 if unknown
+	
+	abstract void execute(Frame frame);
+	
+	String kind() {
+		return getClass().getSimpleName();
+	}
+	
+	// executes the instruction, reporting one in every Trace.SAMPLE_INTERVAL
+	final void step(Frame frame) {
+		if( --frame.countdown == 0 )
+			frame.sample( kind(), line );
+		execute(frame);
+	}
+	
+	
+	// counts, and sometimes times, an instruction's executions (see Profiler)
+	static class Profiled extends InstructionNode
+	{
+		final InstructionNode node;
+		final Profiler.Entry entry;
+		
+		Profiled(InstructionNode node, Profiler.Entry entry) {
+			this.node = node;
+			this.entry = entry;
+			this.line = node.line;
+		}
+		
+		String kind() {
+			return node.kind();
+		}
+		
+		void execute(Frame frame) {
+			Profiler.Entry e = entry;
+			e.count++;
+			if( --e.untilTimed == 0 ) {
+				e.untilTimed = Profiler.TIMING_INTERVAL;
+				long start = System.nanoTime();
+				try {
+					node.execute(frame);
+				} finally {
+					e.nanos += System.nanoTime() - start;
+					e.timed++;
+				}
+			} else {
+				node.execute(frame);
+			}
+		}
+	}
+	
+	
+	static class Block extends InstructionNode
+	{
+		final InstructionNode[] instructions;
+		
+		Block(InstructionNode[] instructions) {
+			this.instructions = instructions;
+		}
+		
+		void execute(Frame frame) {
+			for( InstructionNode instr : instructions )
+				instr.step(frame);
+		}
+	}
+	
+	// an If, and the Else following it (if any)
+	static class If extends InstructionNode
+	{
+		final ExpressionNode predicate;
+		final InstructionNode instruction;
+		InstructionNode otherwise = null; // set when the Else is compiled
+		
+		If(ExpressionNode predicate, InstructionNode instruction) {
+			this.predicate = predicate;
+			this.instruction = instruction;
+		}
+		
+		void execute(Frame frame) {
+			if( ExpressionNode.isTrue(predicate.evaluate(frame)) )
+				instruction.step(frame);
+			else if( otherwise != null )
+				otherwise.step(frame);
+		}
+	}
+	
+	// compiled by the LoopCompiler once hot
+	static class While extends InstructionNode
+	{
+		// times in a row the compiled loop may refuse a frame before it is discarded
+		static final int MAX_DEOPTIMIZATIONS = 100;
+		
+		final ExpressionNode predicate;
+		final InstructionNode instruction;
+		private int iterations = 0; // interpreted, until compiled; racy if frames share the program, so compared with >=
+		private volatile LoopCompiler.Compiled compiled = null;
+		private volatile boolean uncompilable = false;
+		private int deoptimizations = 0;
+		
+		While(ExpressionNode predicate, InstructionNode instruction) {
+			this.predicate = predicate;
+			this.instruction = instruction;
+		}
+		
+		void execute(Frame frame) {
+			if( runCompiled(frame) )
+				return;
+			while( ExpressionNode.isTrue(predicate.evaluate(frame)) ) {
+				instruction.step(frame);
+				int threshold = LoopCompiler.getThreshold();
+				if( compiled == null && !uncompilable && threshold >= 0 && ++iterations >= threshold ) {
+					compiled = LoopCompiler.compile(this);
+					uncompilable = compiled == null;
+					if( runCompiled(frame) )
+						return; // finished the remaining iterations
+				}
+			}
+		}
+		
+		private boolean runCompiled(Frame frame) {
+			LoopCompiler.Compiled loop = compiled;
+			if( loop == null )
+				return false;
+			if( loop.run(frame) ) {
+				deoptimizations = 0;
+				return true;
+			}
+			// a variable doesn't hold a number
+			LoopCompiler.deoptimized();
+			if( ++deoptimizations == MAX_DEOPTIMIZATIONS ) {
+				compiled = null;
+				uncompilable = true;
+			}
+			return false;
+		}
+	}
+	
+	// Calc, or AllocNumber (which only stores numbers)
+	static class Assign extends InstructionNode
+	{
+		final int slot;
+		final ExpressionNode value;
+		final boolean number;
+		
+		Assign(int slot, ExpressionNode value, boolean number) {
+			this.slot = slot;
+			this.value = value;
+			this.number = number;
+		}
+		
+		void execute(Frame frame) {
+			Object x = value.evaluate(frame);
+			if( number )
+				ExpressionNode.number(x);
+			frame.set(slot, x);
+		}
+	}
+	
+	static class AssignElement extends InstructionNode
+	{
+		final int arraySlot;
+		final ExpressionNode index;
+		final ExpressionNode value;
+		final boolean number;
+		
+		AssignElement(int arraySlot, ExpressionNode index, ExpressionNode value, boolean number) {
+			this.arraySlot = arraySlot;
+			this.index = index;
+			this.value = value;
+			this.number = number;
+		}
+		
+		void execute(Frame frame) {
+			Object i = ExpressionNode.number( index.evaluate(frame) );
+			Object x = value.evaluate(frame);
+			if( number )
+				ExpressionNode.number(x);
+			frame.setElement(arraySlot, i, x);
+		}
+	}
+	
+	static class AllocScreenBuffer extends InstructionNode
+	{
+		final int slot;
+		final ExpressionNode rows;
+		final ExpressionNode columns;
+		
+		AllocScreenBuffer(int slot, ExpressionNode rows, ExpressionNode columns) {
+			this.slot = slot;
+			this.rows = rows;
+			this.columns = columns;
+		}
+		
+		void execute(Frame frame) {
+			int r = ExpressionNode.integer( rows.evaluate(frame) );
+			int c = ExpressionNode.integer( columns.evaluate(frame) );
+			try {
+				frame.set( slot, new ScreenBuffer(r, c, FONT_SIZE) );
+			} catch(IllegalArgumentException e) {
+				throw new InterpreterException(e.getMessage(), e);
+			}
+		}
+	}
+	
+	// releases a variable, and the whole indexed variable of the same name
+	static class Dealloc extends InstructionNode
+	{
+		final int slot;
+		final int arraySlot;
+		
+		Dealloc(int slot, int arraySlot) {
+			this.slot = slot;
+			this.arraySlot = arraySlot;
+		}
+		
+		void execute(Frame frame) {
+			frame.release(slot, arraySlot);
+		}
+	}
+	
+	static class Show extends InstructionNode
+	{
+		final int slot;
+		
+		Show(int slot) {
+			this.slot = slot;
+		}
+		
+		void execute(Frame frame) {
+			frame.show( ExpressionNode.screen(frame.get(slot)) );
+		}
+	}
+	
+	static class Disp extends InstructionNode
+	{
+		final int buffer; // or -1, for the screen buffer shown
+		final ExpressionNode text;
+		final ExpressionNode row; // or null, for the caret position
+		final ExpressionNode column;
+		
+		Disp(int buffer, ExpressionNode text, ExpressionNode row, ExpressionNode column) {
+			this.buffer = buffer;
+			this.text = text;
+			this.row = row;
+			this.column = column;
+		}
+		
+		void execute(Frame frame) {
+			ScreenBuffer screen = buffer >= 0 ? ExpressionNode.screen(frame.get(buffer)) : frame.getShown();
+			String str = ExpressionNode.text( text.evaluate(frame) );
+			try {
+				if( row != null )
+					screen.display( str, ExpressionNode.integer(row.evaluate(frame)), ExpressionNode.integer(column.evaluate(frame)) );
+				else
+					screen.display(str);
+			} catch(IndexOutOfBoundsException e) {
+				throw new InterpreterException(e.getMessage(), e);
+			}
+		}
+	}
+}
@@ -0,0 +1,23 @@
+package com.mathhead200.tuil.runtime;
+
+
+public class InterpreterException extends RuntimeException
+{
+	private static final long serialVersionUID = -2297306416722083719L;
+
+	public InterpreterException() {
+		super();
+	}
+	
+	public InterpreterException(String message) {
+		super(message);
+	}
+	
+	public InterpreterException(Throwable cause) {
+		super(cause);
+	}
+	
+	public InterpreterException(String message, Throwable cause) {
+		super(message, cause);
+	}
+}
@@ -0,0 +1,625 @@
+package com.mathhead200.tuil.runtime;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.mathhead200.tuil.Trace;
+import com.mathhead200.tuil.lexer.DivideToken;
+import com.mathhead200.tuil.lexer.EqualToToken;
+import com.mathhead200.tuil.lexer.GreaterThanOrEqualToToken;
+import com.mathhead200.tuil.lexer.GreaterThanToken;
+import com.mathhead200.tuil.lexer.LessThanOrEqualToToken;
+import com.mathhead200.tuil.lexer.LessThanToken;
+import com.mathhead200.tuil.lexer.MinusToken;
+import com.mathhead200.tuil.lexer.NotEqualToToken;
+import com.mathhead200.tuil.lexer.PlusToken;
+import com.mathhead200.tuil.lexer.TimesToken;
+import com.mathhead200.tuil.lexer.Token;
+
+
+/**
+ * Compiles hot While loops, whose predicate and body only do arithmetic on numbers, to JVM classes.
+ * Each variable the loop uses becomes a local of the compiled method: loaded from the frame when the loop starts,
+ * after checking that it holds a number (or nothing), and stored back when the loop ends or throws.
+ * Compiled code keeps numbers in the interpreter's representations (see Numbers), with the same fast path for Longs,
+ * and counts the instructions it runs as the interpreter would, reporting them (see Frame.ran) every Trace.SAMPLE_INTERVAL or so.
+ * If the check fails the loop is interpreted instead, and a loop that keeps failing it is no longer run compiled.
+ * Each class is defined by its own class loader, so it is unloaded along with the program.
+ * The static methods called by compiled code are public only so that it can link to them.
+ */
+public final class LoopCompiler
+{
+	private static volatile int threshold = Integer.getInteger("tuil.jit.threshold", 10000);
+	private static final AtomicInteger compiled = new AtomicInteger();
+	private static final AtomicInteger deoptimized = new AtomicInteger();
+	
+	private LoopCompiler() {
+	}
+	
+	
+	// the iterations a loop is interpreted for before it is compiled; or a negative number to never compile
+	public static int getThreshold() {
+		return threshold;
+	}
+	
+	public static void setThreshold(int iterations) {
+		threshold = iterations;
+	}
+	
+	public static int getCompiledCount() {
+		return compiled.get();
+	}
+	
+	public static int getDeoptimizedCount() {
+		return deoptimized.get();
+	}
+	
+	static void deoptimized() {
+		deoptimized.incrementAndGet();
+	}
+	
+	
+	// called by compiled code:
+	
+	public static boolean isNumberOrNull(Object x) {
+		return x == null || Numbers.isNumber(x);
+	}
+	
+	public static Object read(Object x, int slot, Frame frame) {
+		if( x == null )
+			throw new InterpreterException("undefined variable: " + frame.getSlots().getName(slot));
+		return x;
+	}
+	
+	public static boolean isTrue(Object x) {
+		return Numbers.isTrue(x);
+	}
+	
+	public static void ran(Frame frame, int count, int line) {
+		frame.ran(count, "While", line);
+	}
+	
+	private static Object apply(Token operator, Object x, Object y) {
+		if( x instanceof Long && y instanceof Long ) {
+			Object z = ExpressionNode.Binary.applyLong( operator, (Long) x, (Long) y );
+			if( z != null )
+				return z;
+		}
+		return ExpressionNode.Binary.apply(operator, x, y);
+	}
+	
+	public static Object add(Object x, Object y) {
+		return apply(PlusToken.instance, x, y);
+	}
+	
+	public static Object subtract(Object x, Object y) {
+		return apply(MinusToken.instance, x, y);
+	}
+	
+	public static Object multiply(Object x, Object y) {
+		return apply(TimesToken.instance, x, y);
+	}
+	
+	public static Object divide(Object x, Object y) {
+		return apply(DivideToken.instance, x, y);
+	}
+	
+	public static Object equal(Object x, Object y) {
+		return apply(EqualToToken.instance, x, y);
+	}
+	
+	public static Object notEqual(Object x, Object y) {
+		return apply(NotEqualToToken.instance, x, y);
+	}
+	
+	public static Object less(Object x, Object y) {
+		return apply(LessThanToken.instance, x, y);
+	}
+	
+	public static Object greater(Object x, Object y) {
+		return apply(GreaterThanToken.instance, x, y);
+	}
+	
+	public static Object lessEqual(Object x, Object y) {
+		return apply(LessThanOrEqualToToken.instance, x, y);
+	}
+	
+	public static Object greaterEqual(Object x, Object y) {
+		return apply(GreaterThanOrEqualToToken.instance, x, y);
+	}
+	
+	private static final Map<Token, String> methods = new HashMap<>();
+	static {
+		methods.put(PlusToken.instance, "add");
+		methods.put(MinusToken.instance, "subtract");
+		methods.put(TimesToken.instance, "multiply");
+		methods.put(DivideToken.instance, "divide");
+		methods.put(EqualToToken.instance, "equal");
+		methods.put(NotEqualToToken.instance, "notEqual");
+		methods.put(LessThanToken.instance, "less");
+		methods.put(GreaterThanToken.instance, "greater");
+		methods.put(LessThanOrEqualToToken.instance, "lessEqual");
+		methods.put(GreaterThanOrEqualToToken.instance, "greaterEqual");
+	}
+	
+	
+	/** A compiled loop, and the constants it reads. */
+	static class Compiled
+	{
+		final CompiledLoop loop;
+		final Object[] constants;
+		
+		Compiled(CompiledLoop loop, Object[] constants) {
+			this.loop = loop;
+			this.constants = constants;
+		}
+		
+		boolean run(Frame frame) {
+			return loop.run(frame, frame.values, constants);
+		}
+	}
+	
+	// the loop compiled; or null if it does something other than arithmetic on numbers
+	static Compiled compile(InstructionNode.While loop) {
+		Assembler asm = new Assembler();
+		if( !asm.eligible(loop) || asm.locals.size() > 200 )
+			return null;
+		byte[] bytes;
+		try {
+			bytes = asm.assemble(loop);
+		} catch(IOException | IllegalStateException e) {
+			return null; // e.g. a method too large for 16-bit branch offsets
+		}
+		try {
+			Class<?> c = new Loader( LoopCompiler.class.getClassLoader() ).define(Assembler.CLASS_NAME, bytes);
+			CompiledLoop compiledLoop = (CompiledLoop) c.getConstructor().newInstance();
+			compiled.incrementAndGet();
+			return new Compiled( compiledLoop, asm.constants.toArray() );
+		} catch(ReflectiveOperationException | LinkageError e) {
+			return null;
+		}
+	}
+	
+	private static class Loader extends ClassLoader
+	{
+		Loader(ClassLoader parent) {
+			super(parent);
+		}
+		
+		Class<?> define(String name, byte[] bytes) {
+			return defineClass(name.replace('/', '.'), bytes, 0, bytes.length);
+		}
+	}
+	
+	
+	// writes a class file (version 49, which needs no stack map frames) with a CompiledLoop.run method
+	private static class Assembler
+	{
+		static final String CLASS_NAME = "com/mathhead200/tuil/runtime/CompiledLoop$Generated";
+		static final String SELF = "com/mathhead200/tuil/runtime/LoopCompiler";
+		static final String NUMBER = "java/lang/Object";
+		static final String FRAME = "com/mathhead200/tuil/runtime/Frame";
+		static final String BINARY = "(L" + NUMBER + ";L" + NUMBER + ";)L" + NUMBER + ";";
+		
+		static final int FIRST_LOCAL = 4; // after this, frame, registers, and constants
+		
+		final Map<Integer, Integer> locals = new LinkedHashMap<>(); // slot -> local
+		int count; // the local counting instructions run, and not yet reported; after the variables'
+		int line; // of the loop compiled
+		final List<Object> constants = new ArrayList<>();
+		final Map<Object, Integer> constantIndices = new HashMap<>();
+		
+		// constant pool
+		final ByteArrayOutputStream pool = new ByteArrayOutputStream();
+		final DataOutputStream poolOut = new DataOutputStream(pool);
+		final Map<String, Integer> entries = new HashMap<>();
+		int poolCount = 1;
+		
+		// method code
+		byte[] code = new byte[256];
+		int size = 0;
+		int stack = 0;
+		int maxStack = 0;
+		
+		
+		boolean eligible(InstructionNode instr) {
+			if( instr instanceof InstructionNode.Block ) {
+				for( InstructionNode x : ((InstructionNode.Block) instr).instructions )
+					if( !eligible(x) )
+						return false;
+				return true;
+			} else if( instr instanceof InstructionNode.If ) {
+				InstructionNode.If ifNode = (InstructionNode.If) instr;
+				return eligible(ifNode.predicate) && eligible(ifNode.instruction) && (ifNode.otherwise == null || eligible(ifNode.otherwise));
+			} else if( instr instanceof InstructionNode.While ) {
+				InstructionNode.While whileNode = (InstructionNode.While) instr;
+				return eligible(whileNode.predicate) && eligible(whileNode.instruction);
+			} else if( instr instanceof InstructionNode.Assign ) {
+				InstructionNode.Assign assign = (InstructionNode.Assign) instr;
+				local(assign.slot);
+				return eligible(assign.value);
+			}
+			return false;
+		}
+		
+		boolean eligible(ExpressionNode expr) {
+			if( expr instanceof ExpressionNode.Constant )
+				return Numbers.isNumber( ((ExpressionNode.Constant) expr).value );
+			if( expr instanceof ExpressionNode.Variable ) {
+				local( ((ExpressionNode.Variable) expr).slot );
+				return true;
+			}
+			if( expr instanceof ExpressionNode.Binary ) {
+				ExpressionNode.Binary binary = (ExpressionNode.Binary) expr;
+				return methods.containsKey(binary.operator) && eligible(binary.left) && eligible(binary.right);
+			}
+			return false;
+		}
+		
+		int local(int slot) {
+			Integer local = locals.get(slot);
+			if( local == null ) {
+				local = FIRST_LOCAL + locals.size();
+				locals.put(slot, local);
+			}
+			return local;
+		}
+		
+		
+		// constant pool entries
+		
+		int entry(String key, int tag, int a, int b, boolean twoShorts) throws IOException {
+			Integer index = entries.get(key);
+			if( index == null ) {
+				poolOut.writeByte(tag);
+				poolOut.writeShort(a);
+				if( twoShorts )
+					poolOut.writeShort(b);
+				index = poolCount++;
+				entries.put(key, index);
+			}
+			return index;
+		}
+		
+		int utf8(String s) throws IOException {
+			Integer index = entries.get("U" + s);
+			if( index == null ) {
+				poolOut.writeByte(1);
+				poolOut.writeUTF(s);
+				index = poolCount++;
+				entries.put("U" + s, index);
+			}
+			return index;
+		}
+		
+		int integer(int n) throws IOException {
+			Integer index = entries.get("I" + n);
+			if( index == null ) {
+				poolOut.writeByte(3);
+				poolOut.writeInt(n);
+				index = poolCount++;
+				entries.put("I" + n, index);
+			}
+			return index;
+		}
+		
+		int classRef(String name) throws IOException {
+			return entry( "C" + name, 7, utf8(name), 0, false );
+		}
+		
+		int method(String owner, String name, String descriptor) throws IOException {
+			int nameAndType = entry( "N" + name + descriptor, 12, utf8(name), utf8(descriptor), true );
+			return entry( "M" + owner + "." + name + descriptor, 10, classRef(owner), nameAndType, true );
+		}
+		
+		
+		// code
+		
+		void u1(int x) {
+			if( size == code.length )
+				code = Arrays.copyOf(code, size * 2);
+			code[size++] = (byte) x;
+		}
+		
+		void u2(int x) {
+			u1(x >> 8);
+			u1(x);
+		}
+		
+		void op(int opcode, int stackChange) {
+			u1(opcode);
+			stack += stackChange;
+			maxStack = Math.max(maxStack, stack);
+		}
+		
+		void aload(int local) {
+			op(0x19, +1); // aload
+			u1(local);
+		}
+		
+		void astore(int local) {
+			op(0x3a, -1); // astore
+			u1(local);
+		}
+		
+		void push(int n) throws IOException {
+			if( n >= -1 && n <= 5 ) {
+				op(0x03 + n, +1); // iconst_<n>
+			} else if( n >= Short.MIN_VALUE && n <= Short.MAX_VALUE ) {
+				op(0x11, +1); // sipush
+				u2(n);
+			} else {
+				int index = integer(n);
+				op(0x13, +1); // ldc_w
+				u2(index);
+			}
+		}
+		
+		void invokestatic(String name, String descriptor, int stackChange) throws IOException {
+			int index = method(SELF, name, descriptor);
+			op(0xb8, stackChange);
+			u2(index);
+		}
+		
+		// a branch, to a label
+		void jump(int opcode, int stackChange, Label label) {
+			int at = size;
+			op(opcode, stackChange);
+			label.references.add( new int[] {at, size} );
+			u2(0);
+		}
+		
+		class Label
+		{
+			int position = -1;
+			final List<int[]> references = new ArrayList<>();
+			
+			void place() {
+				position = size;
+			}
+			
+			void patch() {
+				for( int[] ref : references ) {
+					int offset = position - ref[0];
+					if( offset < Short.MIN_VALUE || offset > Short.MAX_VALUE )
+						throw new IllegalStateException("branch too far");
+					code[ref[1]] = (byte) (offset >> 8);
+					code[ref[1] + 1] = (byte) offset;
+				}
+			}
+		}
+		
+		final List<Label> labels = new ArrayList<>();
+		
+		Label label() {
+			Label label = new Label();
+			labels.add(label);
+			return label;
+		}
+		
+		
+		// counts an instruction, as InstructionNode.step does
+		void step() {
+			op(0x84, 0); // iinc
+			u1(count);
+			u1(1);
+		}
+		
+		// reports the instructions counted, and starts counting again from 0
+		void report() throws IOException {
+			aload(1);
+			iload(count);
+			push(line);
+			invokestatic( "ran", "(L" + FRAME + ";II)V", -3 );
+			op(0x03, +1); // iconst_0
+			op(0x36, -1); // istore
+			u1(count);
+		}
+		
+		void iload(int local) {
+			op(0x15, +1); // iload
+			u1(local);
+		}
+		
+		void instruction(InstructionNode instr) throws IOException {
+			step();
+			if( instr instanceof InstructionNode.Block ) {
+				for( InstructionNode x : ((InstructionNode.Block) instr).instructions )
+					instruction(x);
+			} else if( instr instanceof InstructionNode.If ) {
+				InstructionNode.If ifNode = (InstructionNode.If) instr;
+				Label otherwise = label();
+				Label end = label();
+				predicate(ifNode.predicate);
+				jump(0x99, -1, otherwise); // ifeq
+				instruction(ifNode.instruction);
+				jump(0xa7, 0, end); // goto
+				otherwise.place();
+				if( ifNode.otherwise != null )
+					instruction(ifNode.otherwise);
+				end.place();
+			} else if( instr instanceof InstructionNode.While ) {
+				whileLoop( (InstructionNode.While) instr );
+			} else {
+				InstructionNode.Assign assign = (InstructionNode.Assign) instr;
+				expression(assign.value);
+				astore( locals.get(assign.slot) );
+			}
+		}
+		
+		void whileLoop(InstructionNode.While loop) throws IOException {
+			Label top = label();
+			Label end = label();
+			top.place();
+			predicate(loop.predicate);
+			jump(0x99, -1, end); // ifeq
+			instruction(loop.instruction);
+			// report at least every Trace.SAMPLE_INTERVAL (plus an iteration) instructions, even if the loop never ends
+			Label counting = label();
+			iload(count);
+			push(Trace.SAMPLE_INTERVAL);
+			jump(0xa1, -2, counting); // if_icmplt
+			report();
+			counting.place();
+			jump(0xa7, 0, top); // goto
+			end.place();
+		}
+		
+		void predicate(ExpressionNode expr) throws IOException {
+			expression(expr);
+			invokestatic( "isTrue", "(L" + NUMBER + ";)Z", 0 );
+		}
+		
+		void expression(ExpressionNode expr) throws IOException {
+			if( expr instanceof ExpressionNode.Constant ) {
+				Object value = ((ExpressionNode.Constant) expr).value;
+				Integer index = constantIndices.get(value);
+				if( index == null ) {
+					index = constants.size();
+					constants.add(value);
+					constantIndices.put(value, index);
+				}
+				aload(3);
+				push(index);
+				op(0x32, -1); // aaload
+			} else if( expr instanceof ExpressionNode.Variable ) {
+				int slot = ((ExpressionNode.Variable) expr).slot;
+				aload( locals.get(slot) );
+				push(slot);
+				aload(1);
+				invokestatic( "read", "(L" + NUMBER + ";IL" + FRAME + ";)L" + NUMBER + ";", -2 );
+			} else {
+				ExpressionNode.Binary binary = (ExpressionNode.Binary) expr;
+				expression(binary.left);
+				expression(binary.right);
+				invokestatic( methods.get(binary.operator), BINARY, -1 );
+			}
+		}
+		
+		// stores every local back into its register
+		void storeBack() throws IOException {
+			for( Map.Entry<Integer, Integer> e : locals.entrySet() ) {
+				aload(2);
+				push( e.getKey() );
+				aload( e.getValue() );
+				op(0x53, -3); // aastore
+			}
+		}
+		
+		byte[] assemble(InstructionNode.While loop) throws IOException {
+			count = FIRST_LOCAL + locals.size();
+			line = loop.line;
+			// load and check each variable
+			for( Map.Entry<Integer, Integer> e : locals.entrySet() ) {
+				int local = e.getValue();
+				Label ok = label();
+				aload(2);
+				push( e.getKey() );
+				op(0x32, -1); // aaload
+				astore(local);
+				aload(local);
+				invokestatic( "isNumberOrNull", "(Ljava/lang/Object;)Z", 0 );
+				jump(0x9a, -1, ok); // ifne
+				op(0x03, +1); // iconst_0
+				op(0xac, -1); // ireturn
+				ok.place();
+			}
+			op(0x03, +1); // iconst_0
+			op(0x36, -1); // istore
+			u1(count);
+			int tryStart = size;
+			whileLoop(loop); // the loop itself was counted by the interpreter, which stepped it
+			storeBack();
+			report();
+			op(0x04, +1); // iconst_1
+			op(0xac, -1); // ireturn
+			int tryEnd = size;
+			
+			// on any exception, store back, report, and rethrow
+			int handler = size;
+			int exception = count + 1;
+			stack = 1;
+			astore(exception);
+			storeBack();
+			report();
+			aload(exception);
+			op(0xbf, -1); // athrow
+			
+			if( size > 0xFFFF )
+				throw new IllegalStateException("method too large");
+			for( Label label : labels )
+				label.patch();
+			
+			int thisClass = classRef(CLASS_NAME);
+			int superClass = classRef("java/lang/Object");
+			int loopInterface = classRef("com/mathhead200/tuil/runtime/CompiledLoop");
+			int objectInit = method( "java/lang/Object", "<init>", "()V" );
+			int codeName = utf8("Code");
+			int initName = utf8("<init>");
+			int initType = utf8("()V");
+			int runName = utf8("run");
+			int runType = utf8( "(L" + FRAME + ";[Ljava/lang/Object;[Ljava/lang/Object;)Z" );
+			
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(bytes);
+			out.writeInt(0xCAFEBABE);
+			out.writeShort(0); // minor version
+			out.writeShort(49); // major version
+			out.writeShort(poolCount);
+			pool.writeTo(out);
+			out.writeShort(0x0031); // public final super
+			out.writeShort(thisClass);
+			out.writeShort(superClass);
+			out.writeShort(1);
+			out.writeShort(loopInterface);
+			out.writeShort(0); // fields
+			out.writeShort(2); // methods
+			
+			// public <init>() { super(); }
+			out.writeShort(0x0001);
+			out.writeShort(initName);
+			out.writeShort(initType);
+			out.writeShort(1);
+			out.writeShort(codeName);
+			out.writeInt(12 + 5);
+			out.writeShort(1); // max stack
+			out.writeShort(1); // max locals
+			out.writeInt(5);
+			out.writeByte(0x2a); // aload_0
+			out.writeByte(0xb7); // invokespecial
+			out.writeShort(objectInit);
+			out.writeByte(0xb1); // return
+			out.writeShort(0); // exception table
+			out.writeShort(0); // attributes
+			
+			// public boolean run(Frame frame, Object[] registers, Object[] constants)
+			out.writeShort(0x0001);
+			out.writeShort(runName);
+			out.writeShort(runType);
+			out.writeShort(1);
+			out.writeShort(codeName);
+			out.writeInt(12 + size + 8);
+			out.writeShort(maxStack);
+			out.writeShort(exception + 1); // max locals
+			out.writeInt(size);
+			out.write(code, 0, size);
+			out.writeShort(1); // exception table
+			out.writeShort(tryStart);
+			out.writeShort(tryEnd);
+			out.writeShort(handler);
+			out.writeShort(0); // any
+			out.writeShort(0); // attributes
+			
+			out.writeShort(0); // class attributes
+			return bytes.toByteArray();
+		}
+	}
+}
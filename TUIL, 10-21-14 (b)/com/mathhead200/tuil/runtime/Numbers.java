@@ -0,0 +1,74 @@
+package com.mathhead200.tuil.runtime;
+
+import java.math.BigInteger;
+
+import com.mathhead200.BigRational;
+import com.mathhead200.tuil.ComplexRational;
+
+
+/**
+ * The representations of a number at run time, from cheapest to most general:
+ * a Long, while it is an integer that fits; a BigRational, while it is real; and otherwise a ComplexRational.
+ * Interpreted values are kept in the cheapest representation; other engines may store any of them.
+ */
+final class Numbers
+{
+	private Numbers() {
+	}
+	
+	static boolean isNumber(Object value) {
+		return value instanceof Long || value instanceof BigRational || value instanceof ComplexRational;
+	}
+	
+	static Object normalize(BigRational x) {
+		BigInteger numerator = x.numerator();
+		if( x.denominator().equals(BigInteger.ONE) && numerator.bitLength() < 64 )
+			return numerator.longValue();
+		return x;
+	}
+	
+	static Object normalize(ComplexRational z) {
+		return z.img().signum() == 0 ? normalize( z.real() ) : z;
+	}
+	
+	static Object normalize(Object number) {
+		if( number instanceof ComplexRational )
+			return normalize( (ComplexRational) number );
+		if( number instanceof BigRational )
+			return normalize( (BigRational) number );
+		return number;
+	}
+	
+	// the number as a real; or null if it isn't one
+	static BigRational real(Object number) {
+		if( number instanceof Long )
+			return new BigRational( (Long) number );
+		if( number instanceof BigRational )
+			return (BigRational) number;
+		if( number instanceof ComplexRational && ((ComplexRational) number).img().signum() == 0 )
+			return ((ComplexRational) number).real();
+		return null;
+	}
+	
+	static ComplexRational complex(Object number) {
+		if( number instanceof ComplexRational )
+			return (ComplexRational) number;
+		return new ComplexRational( real(number), BigRational.ZERO );
+	}
+	
+	static boolean isTrue(Object number) {
+		if( number instanceof Long )
+			return (Long) number != 0;
+		if( number instanceof BigRational )
+			return ((BigRational) number).signum() != 0;
+		ComplexRational z = (ComplexRational) number;
+		return z.real().signum() != 0 || z.img().signum() != 0;
+	}
+	
+	// as displayed
+	static String toString(Object number) {
+		if( number instanceof Long )
+			return number.toString();
+		return complex(number).toString();
+	}
+}
@@ -0,0 +1,188 @@
+package com.mathhead200.tuil.runtime;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.mathhead200.BigRational;
+import com.mathhead200.tuil.ComplexRational;
+
+
+/**
+ * Counts the executions of each instruction of a program compiled for profiling (see Program.compile), by source line
+ * (so the program should be compiled with its SourceLines),
+ * and times one in every TIMING_INTERVAL of them to estimate where the program spends its time.
+ * Also follows the size (in bits) of each variable's values, and counts screen updates.
+ * Times are inclusive: a While's time includes its body's.
+ * Not thread-safe: a profiled program should be run by one frame at a time.
+ */
+public class Profiler
+{
+	public static final int TIMING_INTERVAL = Math.max( 1, Integer.getInteger("tuil.profile.timingInterval", 16) );
+	
+	/** An instruction (or predicate), by source line and kind. */
+	static class Entry
+	{
+		final int line;
+		final String kind;
+		long count = 0;
+		long timed = 0;
+		long nanos = 0; // of the timed executions
+		int untilTimed = 1; // so that an instruction run once is still timed
+		
+		Entry(int line, String kind) {
+			this.line = line;
+			this.kind = kind;
+		}
+		
+		long estimatedNanos() {
+			return timed == 0 ? 0 : (long) ((double) nanos * count / timed);
+		}
+	}
+	
+	/** The sizes of the values assigned to a variable. */
+	static class Variable
+	{
+		final String name;
+		long assignments = 0;
+		int firstBits = -1;
+		int maxBits = 0;
+		int lastBits = 0;
+		
+		Variable(String name) {
+			this.name = name;
+		}
+		
+		void assigned(Object value) {
+			int bits = bits(value);
+			if( assignments++ == 0 )
+				firstBits = bits;
+			maxBits = Math.max(maxBits, bits);
+			lastBits = bits;
+		}
+	}
+	
+	private final Map<String, Entry> entries = new LinkedHashMap<>();
+	private final Map<String, Variable> variables = new LinkedHashMap<>();
+	
+	
+	private static final String PROGRAM = "0 Program"; // the whole program's entry
+	
+	Entry entry(int line, String kind) {
+		return entries.computeIfAbsent( line + " " + kind, k -> new Entry(line, kind) );
+	}
+	
+	Entry program() {
+		return entry(0, "Program");
+	}
+	
+	Variable variable(String name) {
+		return variables.computeIfAbsent( name, Variable::new );
+	}
+	
+	// of a number's numerator and denominator (of both parts, if complex); or 0 if not a number
+	static int bits(Object value) {
+		if( value instanceof Long ) {
+			long n = (Long) value;
+			return 64 - Long.numberOfLeadingZeros(n < 0 ? ~n : n);
+		}
+		if( value instanceof BigRational ) {
+			BigRational x = (BigRational) value;
+			return x.numerator().bitLength() + x.denominator().bitLength();
+		}
+		if( value instanceof ComplexRational )
+			return bits( ((ComplexRational) value).real() ) + bits( ((ComplexRational) value).img() );
+		return 0;
+	}
+	
+	
+	private List<Entry> sorted(List<Entry> list) {
+		list.sort( Comparator.comparingLong(Entry::estimatedNanos).reversed().thenComparingInt(e -> e.line) );
+		return list;
+	}
+	
+	private List<Entry> withKind(String kind) {
+		List<Entry> list = new ArrayList<>();
+		for( Entry e : entries.values() )
+			if( e.kind.equals(kind) )
+				list.add(e);
+		return list;
+	}
+	
+	private static String ms(long nanos) {
+		return String.format("%.3f", nanos / 1e6);
+	}
+	
+	private static String percent(long nanos, long total) {
+		return total == 0 ? "-" : String.format("%.1f%%", 100.0 * nanos / total);
+	}
+	
+	public void writeReport(Appendable out) throws IOException {
+		Entry program = entries.get(PROGRAM);
+		long total = program != null ? program.estimatedNanos() : 0;
+		out.append( String.format("TUIL profile: %s ms total, 1 in %d executions timed%n", ms(total), TIMING_INTERVAL) );
+		
+		out.append( String.format("%nHot instructions%n%6s  %-20s %12s %12s %8s%n", "line", "kind", "count", "ms", "time") );
+		for( Entry e : sorted(new ArrayList<>( entries.values() )) )
+			if( e != program )
+				out.append( String.format("%6d  %-20s %12d %12s %8s%n", e.line, e.kind, e.count, ms(e.estimatedNanos()), percent(e.estimatedNanos(), total)) );
+		
+		out.append( String.format("%nHot loops%n%6s %12s %12s %12s %8s%n", "line", "runs", "iterations", "ms", "time") );
+		for( Entry loop : sorted(withKind("While")) ) {
+			Entry predicate = entries.get(loop.line + " While predicate");
+			long iterations = predicate != null ? predicate.count - loop.count : 0;
+			out.append( String.format("%6d %12d %12d %12s %8s%n", loop.line, loop.count, iterations, ms(loop.estimatedNanos()), percent(loop.estimatedNanos(), total)) );
+		}
+		
+		out.append( String.format("%nVariables (value size in bits)%n%-20s %12s %8s %8s %8s%n", "name", "assignments", "first", "max", "last") );
+		List<Variable> vars = new ArrayList<>( variables.values() );
+		vars.sort( Comparator.comparingInt((Variable v) -> v.maxBits).reversed().thenComparing(v -> v.name) );
+		for( Variable v : vars )
+			out.append( String.format("%-20s %12d %8d %8d %8d%n", v.name, v.assignments, v.firstBits, v.maxBits, v.lastBits) );
+		
+		out.append( String.format("%nScreen updates%n%6s  %-20s %12s%n", "line", "kind", "count") );
+		long updates = 0;
+		List<Entry> screen = withKind("Disp");
+		screen.addAll( withKind("Show") );
+		screen.sort( Comparator.comparingLong((Entry e) -> e.count).reversed().thenComparingInt(e -> e.line) );
+		for( Entry e : screen ) {
+			out.append( String.format("%6d  %-20s %12d%n", e.line, e.kind, e.count) );
+			updates += e.count;
+		}
+		out.append( String.format("%6s  %-20s %12d%n", "", "total", updates) );
+	}
+	
+	private static String csv(String s) {
+		return "\"" + s.replace("\"", "\"\"") + "\"";
+	}
+	
+	// one row per instruction, then one per variable
+	public void writeCsv(Appendable out) throws IOException {
+		out.append("section,line,kind,count,timed,estimated_ns,name,assignments,first_bits,max_bits,last_bits\n");
+		for( Entry e : sorted(new ArrayList<>( entries.values() )) )
+			out.append( String.format("instruction,%d,%s,%d,%d,%d,,,,,%n", e.line, csv(e.kind), e.count, e.timed, e.estimatedNanos()) );
+		for( Variable v : variables.values() )
+			out.append( String.format("variable,,,,,,%s,%d,%d,%d,%d%n", csv(v.name), v.assignments, v.firstBits, v.maxBits, v.lastBits) );
+	}
+	
+	// writes the report (as CSV if the file name ends in .csv) when the JVM exits
+	public void dumpOnExit(Path path) {
+		Runtime.getRuntime().addShutdownHook( new Thread(() -> {
+			try( Writer out = Files.newBufferedWriter(path, StandardCharsets.UTF_8) ) {
+				if( path.toString().endsWith(".csv") )
+					writeCsv(out);
+				else
+					writeReport(out);
+			} catch(IOException e) {
+				System.err.println("could not write profile: " + e);
+			}
+		}, "tuil-profiler-dump") );
+	}
+}
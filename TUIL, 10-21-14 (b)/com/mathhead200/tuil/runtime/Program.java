@@ -0,0 +1,223 @@
+package com.mathhead200.tuil.runtime;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.mathhead200.tuil.lexer.FunctionToken;
+import com.mathhead200.tuil.lexer.IdentifierToken;
+import com.mathhead200.tuil.lexer.NumberToken;
+import com.mathhead200.tuil.lexer.StringToken;
+import com.mathhead200.tuil.parser.AllocNumberInstruction;
+import com.mathhead200.tuil.parser.AllocScreenBufferInstruction;
+import com.mathhead200.tuil.parser.Argument;
+import com.mathhead200.tuil.parser.CalcInstruction;
+import com.mathhead200.tuil.parser.DeallocInstruction;
+import com.mathhead200.tuil.parser.DispInstruction;
+import com.mathhead200.tuil.parser.ElseInstruction;
+import com.mathhead200.tuil.parser.Expression;
+import com.mathhead200.tuil.parser.IfInstruction;
+import com.mathhead200.tuil.parser.IndexedVariable;
+import com.mathhead200.tuil.parser.Instruction;
+import com.mathhead200.tuil.parser.InstructionBlock;
+import com.mathhead200.tuil.parser.ShowInstruction;
+import com.mathhead200.tuil.parser.SourceLines;
+import com.mathhead200.tuil.parser.WhileInstruction;
+
+
+/**
+ * A parsed program compiled for the interpreter: each variable is resolved to a fixed slot of a {@link Frame}.
+ * Programs are immutable, so one may be run by any number of frames.
+ */
+public class Program
+{
+	private final Slots slots;
+	private final InstructionNode instructions;
+	
+	private Program(Slots slots, InstructionNode instructions) {
+		this.slots = slots;
+		this.instructions = instructions;
+	}
+	
+	// the lines are optional (null), and only used to report where instructions are;
+	// the profiler is also optional, and makes a slower program which reports to it
+	public static Program compile(List<? extends Instruction> instructions, SourceLines lines, Profiler profiler) {
+		Compiler compiler = new Compiler(lines, profiler);
+		InstructionNode root = compiler.block(instructions);
+		if( profiler != null )
+			root = new InstructionNode.Profiled( root, profiler.program() );
+		return new Program(compiler.slots, root);
+	}
+	
+	public static Program compile(List<? extends Instruction> instructions, SourceLines lines) {
+		return compile(instructions, lines, null);
+	}
+	
+	public static Program compile(List<? extends Instruction> instructions) {
+		return compile(instructions, null, null);
+	}
+	
+	
+	public Slots getSlots() {
+		return slots;
+	}
+	
+	public Frame newFrame(Display display) {
+		return new Frame(slots, display);
+	}
+	
+	public void run(Frame frame) {
+		if( frame.getSlots() != slots )
+			throw new IllegalArgumentException("frame belongs to another program");
+		frame.started();
+		try {
+			instructions.step(frame);
+		} finally {
+			frame.reportInstructions();
+			frame.finished();
+		}
+	}
+	
+	
+	private static class Compiler
+	{
+		final Slots slots = new Slots();
+		final SourceLines lines;
+		final Profiler profiler;
+		
+		Compiler(SourceLines lines, Profiler profiler) {
+			this.lines = lines;
+			this.profiler = profiler;
+		}
+		
+		int line(Instruction instr) {
+			return lines != null ? lines.getLine(instr) : 0;
+		}
+		
+		// e.g. "While", for a WhileInstruction
+		static String kind(Instruction instr) {
+			return instr.getClass().getSimpleName().replace("Instruction", "");
+		}
+		
+		InstructionNode block(List<? extends Instruction> instructions) {
+			List<InstructionNode> nodes = new ArrayList<>( instructions.size() );
+			List<Instruction> sources = new ArrayList<>( instructions.size() );
+			for( Instruction instr : instructions ) {
+				if( instr instanceof ElseInstruction ) {
+					// pairs with the If before it
+					InstructionNode previous = nodes.isEmpty() ? null : nodes.get(nodes.size() - 1);
+					if( !(previous instanceof InstructionNode.If) || ((InstructionNode.If) previous).otherwise != null )
+						throw new InterpreterException("Else without a matching If");
+					((InstructionNode.If) previous).otherwise = instruction( ((ElseInstruction) instr).instruction );
+				} else {
+					nodes.add( unprofiled(instr) ); // profiled below, once any Else is paired with it
+					sources.add(instr);
+				}
+			}
+			for( int i = 0; i < nodes.size(); i++ )
+				nodes.set( i, profiled(sources.get(i), nodes.get(i)) );
+			return new InstructionNode.Block( nodes.toArray(new InstructionNode[nodes.size()]) );
+		}
+		
+		InstructionNode instruction(Instruction instr) {
+			return profiled( instr, unprofiled(instr) );
+		}
+		
+		InstructionNode unprofiled(Instruction instr) {
+			InstructionNode node = node(instr);
+			node.line = line(instr);
+			return node;
+		}
+		
+		InstructionNode profiled(Instruction instr, InstructionNode node) {
+			if( profiler == null || instr instanceof InstructionBlock )
+				return node;
+			return new InstructionNode.Profiled( node, profiler.entry(node.line, kind(instr)) );
+		}
+		
+		// If and While predicates are profiled separately from their instructions
+		ExpressionNode predicate(Instruction instr, Argument predicate) {
+			ExpressionNode x = argument(predicate);
+			if( profiler == null )
+				return x;
+			return new ExpressionNode.Profiled( x, profiler.entry(line(instr), kind(instr) + " predicate"), null );
+		}
+		
+		InstructionNode node(Instruction instr) {
+			if( instr instanceof InstructionBlock ) {
+				return block( (InstructionBlock) instr );
+			} else if( instr instanceof IfInstruction ) {
+				IfInstruction ifInstr = (IfInstruction) instr;
+				return new InstructionNode.If( predicate(instr, ifInstr.predicate), instruction(ifInstr.instruction) );
+			} else if( instr instanceof ElseInstruction ) {
+				throw new InterpreterException("Else without a matching If");
+			} else if( instr instanceof WhileInstruction ) {
+				WhileInstruction whileInstr = (WhileInstruction) instr;
+				return new InstructionNode.While( predicate(instr, whileInstr.predicate), instruction(whileInstr.instruction) );
+			} else if( instr instanceof CalcInstruction ) {
+				CalcInstruction calc = (CalcInstruction) instr;
+				return assign( calc.variable, calc.index, calc.value, false );
+			} else if( instr instanceof AllocNumberInstruction ) {
+				AllocNumberInstruction alloc = (AllocNumberInstruction) instr;
+				return assign( alloc.variable, alloc.index, alloc.value, true );
+			} else if( instr instanceof AllocScreenBufferInstruction ) {
+				AllocScreenBufferInstruction alloc = (AllocScreenBufferInstruction) instr;
+				return new InstructionNode.AllocScreenBuffer( slot(alloc.variable), argument(alloc.rows), argument(alloc.columns) );
+			} else if( instr instanceof DeallocInstruction ) {
+				IdentifierToken variable = ((DeallocInstruction) instr).variable;
+				return new InstructionNode.Dealloc( slot(variable), arraySlot(variable) );
+			} else if( instr instanceof ShowInstruction ) {
+				return new InstructionNode.Show( slot(((ShowInstruction) instr).variable) );
+			} else if( instr instanceof DispInstruction ) {
+				DispInstruction disp = (DispInstruction) instr;
+				return new InstructionNode.Disp( disp.buffer != null ? slot(disp.buffer) : -1,
+						argument(disp.text), argument(disp.row), argument(disp.column) );
+			}
+			throw new InterpreterException("unsupported instruction: " + instr.getClass().getSimpleName());
+		}
+		
+		InstructionNode assign(IdentifierToken variable, Argument index, Argument value, boolean number) {
+			ExpressionNode x = argument(value);
+			if( profiler != null ) // follow the size of the variable's values
+				x = new ExpressionNode.Profiled( x, null, profiler.variable(index != null ? Slots.arraySlotName(variable.getLexeme()) : variable.getLexeme()) );
+			if( index != null )
+				return new InstructionNode.AssignElement( arraySlot(variable), argument(index), x, number );
+			return new InstructionNode.Assign( slot(variable), x, number );
+		}
+		
+		int slot(IdentifierToken variable) {
+			return slots.resolve( variable.getLexeme() );
+		}
+		
+		int arraySlot(IdentifierToken array) {
+			return slots.resolve( Slots.arraySlotName(array.getLexeme()) );
+		}
+		
+		// or null, for no argument
+		ExpressionNode argument(Argument arg) {
+			if( arg == null )
+				return null;
+			if( arg instanceof IdentifierToken )
+				return new ExpressionNode.Variable( slot((IdentifierToken) arg) );
+			if( arg instanceof NumberToken )
+				return new ExpressionNode.Constant( Numbers.normalize(((NumberToken) arg).parseValue()) );
+			if( arg instanceof StringToken )
+				return new ExpressionNode.Constant( ((StringToken) arg).parseValue() );
+			if( arg instanceof IndexedVariable ) {
+				IndexedVariable element = (IndexedVariable) arg;
+				return new ExpressionNode.Element( arraySlot(element.array), argument(element.index) );
+			}
+			
+			Expression expr = (Expression) arg;
+			if( expr.operator == null ) {
+				if( expr.arguments.size() != 1 )
+					throw new InterpreterException("expected one argument in " + expr);
+				return argument( expr.arguments.get(0) );
+			}
+			if( expr.operator instanceof FunctionToken )
+				throw new InterpreterException("unknown function: " + expr.operator.getLexeme());
+			if( expr.arguments.size() != 2 )
+				throw new InterpreterException("expected two arguments in " + expr);
+			return new ExpressionNode.Binary( expr.operator, argument(expr.arguments.get(0)), argument(expr.arguments.get(1)) );
+		}
+	}
+}
@@ -0,0 +1,185 @@
+package com.mathhead200.tuil.runtime;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.mathhead200.tuil.Metrics;
+
+
+/**
+ * Runs many programs at once, headless, on a small pool of worker threads.
+ * Each program gets its own frame, while the (immutable) Bytecode may be shared by any number of them.
+ * A program runs for at most a slice of instructions at a time, then goes to the back of the queue,
+ * so one tight While loop can not starve the others.
+ */
+public class Scheduler
+{
+	public static final int DEFAULT_SLICE = 10000;
+	
+	private static final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+	private static final AtomicInteger schedulers = new AtomicInteger();
+	
+	private final ExecutorService workers;
+	private final long slice;
+	private final boolean cpuTime;
+	private final AtomicInteger active = new AtomicInteger(); // submitted, and not yet finished
+	private volatile boolean shutdown = false;
+	
+	public Scheduler(int workerCount, long slice) {
+		if( workerCount < 1 || slice < 1 )
+			throw new IllegalArgumentException("workers and slice must be positive");
+		String prefix = "tuil-scheduler-" + schedulers.incrementAndGet() + "-worker-";
+		AtomicInteger count = new AtomicInteger();
+		ThreadFactory factory = r -> {
+			Thread t = new Thread(r, prefix + count.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		};
+		this.workers = Executors.newFixedThreadPool(workerCount, factory);
+		this.slice = slice;
+		this.cpuTime = threads.isCurrentThreadCpuTimeSupported();
+	}
+	
+	public Scheduler() {
+		this( Runtime.getRuntime().availableProcessors(), DEFAULT_SLICE );
+	}
+	
+	
+	public Task submit(Bytecode program, Display display) {
+		if( shutdown )
+			throw new IllegalStateException("scheduler is shut down");
+		Task task = new Task( program, program.newFrame(display) );
+		active.incrementAndGet();
+		task.frame.started();
+		schedule(task);
+		return task;
+	}
+	
+	public Task submit(Bytecode program) {
+		return submit(program, Display.NONE);
+	}
+	
+	private void schedule(Task task) {
+		Metrics.sliceQueued();
+		try {
+			workers.execute(task);
+		} catch(RejectedExecutionException e) {
+			Metrics.sliceDequeued();
+			task.finish( new InterpreterException("scheduler was shut down", e) );
+		}
+	}
+	
+	// accepts no more programs, and stops the workers once the submitted ones finish (without waiting for them)
+	public void shutdown() {
+		shutdown = true;
+		if( active.get() == 0 )
+			workers.shutdown();
+	}
+	
+	// stops every program at the end of its current slice
+	public void shutdownNow() {
+		shutdown = true;
+		for( Runnable task : workers.shutdownNow() ) {
+			Metrics.sliceDequeued();
+			((Task) task).finish( new InterpreterException("scheduler was shut down") );
+		}
+	}
+	
+	public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+		return workers.awaitTermination(timeout, unit);
+	}
+	
+	
+	/** A program submitted to the scheduler, with its running totals. */
+	public class Task implements Runnable
+	{
+		private final Bytecode program;
+		private final Frame frame;
+		private final CountDownLatch done = new CountDownLatch(1);
+		// written by one worker at a time; each slice happens-before the next through the executor's queue
+		private volatile long instructions = 0;
+		private volatile long cpuNanos = 0;
+		private volatile int slices = 0;
+		private volatile Throwable error = null;
+		
+		private Task(Bytecode program, Frame frame) {
+			this.program = program;
+			this.frame = frame;
+		}
+		
+		public void run() {
+			Metrics.sliceDequeued();
+			long start = cpuTime ? threads.getCurrentThreadCpuTime() : 0;
+			Throwable e = null;
+			try {
+				instructions += program.resume(frame, slice);
+			} catch(Throwable x) {
+				e = x; // even an Error (e.g. OutOfMemoryError) ends only this program, which must still finish
+			}
+			if( cpuTime )
+				cpuNanos += threads.getCurrentThreadCpuTime() - start;
+			slices++;
+			if( e != null || frame.isHalted() )
+				finish(e);
+			else
+				schedule(this);
+		}
+		
+		private void finish(Throwable e) {
+			error = e;
+			try {
+				frame.finished();
+			} finally {
+				done.countDown();
+				if( active.decrementAndGet() == 0 && shutdown )
+					workers.shutdown();
+			}
+		}
+		
+		
+		public Bytecode getProgram() {
+			return program;
+		}
+		
+		public Frame getFrame() {
+			return frame;
+		}
+		
+		public boolean isDone() {
+			return done.getCount() == 0;
+		}
+		
+		public void await() throws InterruptedException {
+			done.await();
+		}
+		
+		public boolean await(long timeout, TimeUnit unit) throws InterruptedException {
+			return done.await(timeout, unit);
+		}
+		
+		// what stopped the program (an exception, or an Error), if it didn't halt; or null
+		public Throwable getError() {
+			return error;
+		}
+		
+		public long getInstructions() {
+			return instructions;
+		}
+		
+		// CPU time spent running the program, if the JVM can measure it; or 0
+		public long getCpuNanos() {
+			return cpuNanos;
+		}
+		
+		public int getSlices() {
+			return slices;
+		}
+	}
+}
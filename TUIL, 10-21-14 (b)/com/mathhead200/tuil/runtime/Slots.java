@@ -0,0 +1,49 @@
+package com.mathhead200.tuil.runtime;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * The fixed slot index of each variable named in a program, assigned when the program is compiled.
+ * An indexed variable's elements share one slot, named e.g. <code>array[]</code>.
+ */
+public class Slots
+{
+	private final Map<String, Integer> slots = new HashMap<>();
+	private final List<String> names = new ArrayList<>();
+	
+	Slots() {
+	}
+	
+	// the variable's slot, assigning the next one if the name is new
+	int resolve(String name) {
+		Integer slot = slots.get(name);
+		if( slot == null ) {
+			slot = names.size();
+			slots.put(name, slot);
+			names.add(name);
+		}
+		return slot;
+	}
+	
+	static String arraySlotName(String array) {
+		return array + "[]";
+	}
+	
+	// the variable's slot; or -1 if the program never names it
+	public int get(String name) {
+		Integer slot = slots.get(name);
+		return slot != null ? slot : -1;
+	}
+	
+	public String getName(int slot) {
+		return names.get(slot);
+	}
+	
+	public int size() {
+		return names.size();
+	}
+}